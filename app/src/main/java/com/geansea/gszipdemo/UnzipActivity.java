@@ -25,7 +25,7 @@ import com.geansea.zip.GsZipFile;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.util.List;
 import java.util.zip.CRC32;
 
 public class UnzipActivity extends AppCompatActivity {
@@ -87,7 +87,7 @@ public class UnzipActivity extends AppCompatActivity {
     }
 
     private void clickChild(int index) {
-        ArrayList<GsZipEntryNode> children = folderNode.getChildren();
+        List<GsZipEntryNode> children = folderNode.getChildren();
         GsZipEntryNode child = children.get(index);
         GsZipEntry entry = child.getEntry();
         if (child.isFile() && entry != null) {
@@ -120,7 +120,7 @@ public class UnzipActivity extends AppCompatActivity {
 
     private class ZipEntryAdapter extends BaseAdapter {
         private final @NonNull LayoutInflater layoutInflater;
-        private final @NonNull ArrayList<GsZipEntryNode> list;
+        private final @NonNull List<GsZipEntryNode> list;
         private final @NonNull String folderName;
         private final boolean hasParent;
 
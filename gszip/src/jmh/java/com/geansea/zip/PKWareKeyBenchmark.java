@@ -0,0 +1,84 @@
+package com.geansea.zip;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the PKWare cipher, each op handles 1 MB, so ops/s is MB/s and 1024 ops is 1 GB.
+ * The perByte ones are the loops of the streams, to compare with the bulk ones.
+ * Run with "gradlew :gszip:jmh -Pjmh.include=PKWareKey", the plugin is only loaded with that property.
+ * The settings below are the ones of the results noted in PKWareKey.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(3)
+public class PKWareKeyBenchmark {
+    private static final int DATA_SIZE = 1024 * 1024;
+
+    private final PKWareKey key = new PKWareKey();
+    private byte[] data;
+    private ByteBuffer directData;
+
+    @Setup
+    public void setup() {
+        data = new byte[DATA_SIZE];
+        new Random(0).nextBytes(data);
+        directData = ByteBuffer.allocateDirect(DATA_SIZE);
+        directData.put(data).clear();
+        key.update("password".getBytes());
+    }
+
+    @Benchmark
+    public byte[] decryptPerByte() {
+        byte[] b = data;
+        for (int i = 0; i < b.length; ++i) {
+            b[i] ^= key.cryptByte();
+            key.update(b[i]);
+        }
+        return b;
+    }
+
+    @Benchmark
+    public byte[] encryptPerByte() {
+        byte[] b = data;
+        for (int i = 0; i < b.length; ++i) {
+            byte c = b[i];
+            b[i] ^= key.cryptByte();
+            key.update(c);
+        }
+        return b;
+    }
+
+    @Benchmark
+    public byte[] decryptBulk() {
+        key.decrypt(data, 0, data.length);
+        return data;
+    }
+
+    @Benchmark
+    public byte[] encryptBulk() {
+        key.encrypt(data, 0, data.length);
+        return data;
+    }
+
+    @Benchmark
+    public ByteBuffer decryptBulkDirect() {
+        key.decrypt(directData);
+        return directData;
+    }
+}
@@ -0,0 +1,121 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+
+/**
+ * Decrypts WinZip AES data, the salt and verifier before data and the MAC after are consumed.
+ * The MAC is checked when the last byte of data is read.
+ */
+final class AesDecryptInputStream extends GsZipInputStream {
+    @NonNull
+    private final GsZipInputStream base;
+    @NonNull
+    private final AesKey key;
+    @NonNull
+    private final byte[] salt;
+    private final long dataLength;
+    private final boolean passwordMatched;
+    private long remaining;
+
+    /**
+     * @param base     the stream of encrypted entry data
+     * @param keys     the derived keys of password
+     * @param strength the key strength in AES extra field
+     * @param length   the length of encrypted entry data, with salt, verifier and MAC
+     */
+    AesDecryptInputStream(@NonNull GsZipInputStream base,
+                          @NonNull AesKeyCache keys,
+                          int strength,
+                          long length) throws IOException, GsZipException {
+        this.base = base;
+        salt = new byte[AesKey.saltLength(strength)];
+        dataLength = length - AesKey.overhead(strength);
+        GsZipUtil.check(dataLength >= 0, "Error AES data length");
+        readFully(salt);
+        key = new AesKey(keys, salt, strength);
+        byte[] verifier = new byte[AesKey.VERIFIER_LEN];
+        readFully(verifier);
+        passwordMatched = MessageDigest.isEqual(verifier, key.getVerifier());
+        remaining = dataLength;
+        if (passwordMatched && remaining == 0) {
+            checkMac();
+        }
+    }
+
+    /**
+     * Check the password verifier, a wrong password is found in most cases.
+     *
+     * @return true if the verifier matched
+     */
+    boolean isPasswordMatched() {
+        return passwordMatched;
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return (int) Math.min(base.available(), remaining);
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (remaining <= 0) {
+            return -1;
+        }
+        int count = base.read(b, off, (int) Math.min(len, remaining));
+        if (count > 0) {
+            try {
+                key.decrypt(b, off, count);
+            } catch (GsZipException e) {
+                throw new IOException(e.getMessage());
+            }
+            remaining -= count;
+            if (remaining == 0) {
+                checkMac();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        base.close();
+        super.close();
+    }
+
+    @Override
+    public void restart() throws IOException {
+        ensureOpen();
+        base.restart();
+        // Salt and verifier are checked already
+        readFully(new byte[salt.length + AesKey.VERIFIER_LEN]);
+        key.reset();
+        remaining = dataLength;
+        if (remaining == 0) {
+            checkMac();
+        }
+    }
+
+    private void checkMac() throws IOException {
+        byte[] code = new byte[AesKey.MAC_LEN];
+        readFully(code);
+        if (!MessageDigest.isEqual(code, key.finishMac())) {
+            throw new IOException("Authentication failed, the data maybe corrupted");
+        }
+    }
+
+    private void readFully(@NonNull byte[] bytes) throws IOException {
+        int pos = 0;
+        while (pos < bytes.length) {
+            int count = base.read(bytes, pos, bytes.length - pos);
+            if (count <= 0) {
+                throw new IOException("Read from base stream failed");
+            }
+            pos += count;
+        }
+    }
+}
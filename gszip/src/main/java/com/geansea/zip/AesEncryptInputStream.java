@@ -0,0 +1,100 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+
+/**
+ * Encrypts data with WinZip AES, the salt and verifier are put before data and the MAC after.
+ * The salt is kept on restart, so reading again gives the same bytes.
+ */
+final class AesEncryptInputStream extends GsZipInputStream {
+    @NonNull
+    private final GsZipInputStream base;
+    @NonNull
+    private final AesKey key;
+    @NonNull
+    private final byte[] header;
+    private int headerPos;
+    @NonNull
+    private byte[] trailer;
+    private int trailerPos;
+
+    AesEncryptInputStream(@NonNull GsZipInputStream base,
+                          @NonNull byte[] password,
+                          int strength) throws IOException, GsZipException {
+        this.base = base;
+        byte[] salt = new byte[AesKey.saltLength(strength)];
+        new SecureRandom().nextBytes(salt);
+        key = new AesKey(password, salt, strength);
+        header = new byte[salt.length + AesKey.VERIFIER_LEN];
+        System.arraycopy(salt, 0, header, 0, salt.length);
+        System.arraycopy(key.getVerifier(), 0, header, salt.length, AesKey.VERIFIER_LEN);
+        trailer = new byte[0];
+        restart();
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        if (headerPos < header.length) {
+            return header.length - headerPos;
+        }
+        if (trailerPos < trailer.length) {
+            return trailer.length - trailerPos;
+        }
+        return base.available();
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+        if (headerPos < header.length) {
+            int count = Math.min(header.length - headerPos, len);
+            System.arraycopy(header, headerPos, b, off, count);
+            headerPos += count;
+            return count;
+        }
+        if (trailer.length == 0) {
+            int count = base.read(b, off, len);
+            if (count >= 0) {
+                try {
+                    key.encrypt(b, off, count);
+                } catch (GsZipException e) {
+                    throw new IOException(e.getMessage());
+                }
+                return count;
+            }
+            // End of data, the MAC follows
+            trailer = key.finishMac();
+            trailerPos = 0;
+        }
+        if (trailerPos < trailer.length) {
+            int count = Math.min(trailer.length - trailerPos, len);
+            System.arraycopy(trailer, trailerPos, b, off, count);
+            trailerPos += count;
+            return count;
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        base.close();
+        super.close();
+    }
+
+    @Override
+    public void restart() throws IOException {
+        ensureOpen();
+        base.restart();
+        key.reset();
+        headerPos = 0;
+        trailer = new byte[0];
+        trailerPos = 0;
+    }
+}
@@ -0,0 +1,254 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Keys and cipher state of WinZip AES encryption (AE-1 and AE-2).
+ * The data is encrypted with AES in CTR mode, with little endian counter from 1,
+ * and authenticated by HMAC-SHA1 of the encrypted data, truncated to 10 bytes.
+ * JCE CTR mode counts in big endian, so counter blocks are encrypted in batches with ECB instead,
+ * which still goes to the hardware AES instructions when the JVM has them.
+ */
+final class AesKey {
+    static final int STRENGTH_128 = 1;
+    static final int STRENGTH_192 = 2;
+    static final int STRENGTH_256 = 3;
+
+    static final int VERIFIER_LEN = 2;
+    static final int MAC_LEN = 10;
+
+    private static final int ITERATIONS = 1000;
+    private static final int BLOCK_SIZE = 16;
+    private static final int BATCH_BLOCKS = 256;
+
+    @NonNull
+    private final Cipher cipher;
+    @NonNull
+    private final Mac mac;
+    @NonNull
+    private final byte[] verifier;
+    @NonNull
+    private final byte[] counters;
+    @NonNull
+    private final byte[] keyStream;
+    private long counter;
+    private int keyStreamPos;
+    private int keyStreamLen;
+
+    /**
+     * Derive the keys of password and salt.
+     *
+     * @param password the password bytes, not empty
+     * @param salt     the salt, its length should match the strength
+     * @param strength the key strength, STRENGTH_128, STRENGTH_192 or STRENGTH_256
+     * @throws GsZipException if the strength is invalid or AES is not available
+     */
+    AesKey(@NonNull byte[] password, @NonNull byte[] salt, int strength) throws GsZipException {
+        this(deriveKeys(password, salt, strength), strength);
+    }
+
+    /**
+     * Take the keys of salt from the cache of a password, derived on the first use.
+     *
+     * @param cache    the derived keys of password
+     * @param salt     the salt, its length should match the strength
+     * @param strength the key strength, STRENGTH_128, STRENGTH_192 or STRENGTH_256
+     * @throws GsZipException if the strength is invalid or AES is not available
+     */
+    AesKey(@NonNull AesKeyCache cache, @NonNull byte[] salt, int strength) throws GsZipException {
+        this(cache.getKeys(salt, strength), strength);
+    }
+
+    private AesKey(@NonNull byte[] keys, int strength) throws GsZipException {
+        int keyLength = keyLength(strength);
+        try {
+            cipher = Cipher.getInstance("AES/ECB/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keys, 0, keyLength, "AES"));
+            mac = Mac.getInstance("HmacSHA1");
+            mac.init(new SecretKeySpec(keys, keyLength, keyLength, "HmacSHA1"));
+        } catch (GeneralSecurityException e) {
+            throw new GsZipException("AES not available: " + e.getMessage());
+        }
+        verifier = Arrays.copyOfRange(keys, keyLength * 2, keyLength * 2 + VERIFIER_LEN);
+        counters = new byte[BATCH_BLOCKS * BLOCK_SIZE];
+        keyStream = new byte[BATCH_BLOCKS * BLOCK_SIZE];
+        reset();
+    }
+
+    static int saltLength(int strength) throws GsZipException {
+        return keyLength(strength) / 2;
+    }
+
+    static int keyLength(int strength) throws GsZipException {
+        GsZipUtil.check(strength >= STRENGTH_128 && strength <= STRENGTH_256, "Error AES strength");
+        return 8 + strength * 8;
+    }
+
+    /**
+     * Get the bytes added to data by encryption, the salt and verifier before and the MAC after.
+     *
+     * @param strength the key strength
+     * @return the byte count
+     * @throws GsZipException if the strength is invalid
+     */
+    static int overhead(int strength) throws GsZipException {
+        return saltLength(strength) + VERIFIER_LEN + MAC_LEN;
+    }
+
+    /**
+     * Reset the counter and MAC to the start of data.
+     */
+    void reset() {
+        counter = 0;
+        keyStreamPos = 0;
+        keyStreamLen = 0;
+        mac.reset();
+    }
+
+    @NonNull
+    byte[] getVerifier() {
+        return verifier.clone();
+    }
+
+    /**
+     * Encrypt the bytes in place, the MAC is updated with the encrypted bytes.
+     *
+     * @param b   the bytes to encrypt
+     * @param off the start offset
+     * @param len the count of bytes
+     * @throws GsZipException if the cipher fails
+     */
+    void encrypt(@NonNull byte[] b, int off, int len) throws GsZipException {
+        crypt(b, off, len);
+        mac.update(b, off, len);
+    }
+
+    /**
+     * Decrypt the bytes in place, the MAC is updated with the encrypted bytes.
+     *
+     * @param b   the bytes to decrypt
+     * @param off the start offset
+     * @param len the count of bytes
+     * @throws GsZipException if the cipher fails
+     */
+    void decrypt(@NonNull byte[] b, int off, int len) throws GsZipException {
+        mac.update(b, off, len);
+        crypt(b, off, len);
+    }
+
+    /**
+     * Finish the MAC of data since last reset.
+     *
+     * @return the authentication code, MAC_LEN bytes
+     */
+    @NonNull
+    byte[] finishMac() {
+        return Arrays.copyOf(mac.doFinal(), MAC_LEN);
+    }
+
+    private void crypt(@NonNull byte[] b, int off, int len) throws GsZipException {
+        int end = off + len;
+        while (off < end) {
+            if (keyStreamPos == keyStreamLen) {
+                nextKeyStream(end - off);
+            }
+            int count = Math.min(end - off, keyStreamLen - keyStreamPos);
+            byte[] stream = keyStream;
+            int pos = keyStreamPos;
+            for (int i = 0; i < count; ++i) {
+                b[off + i] ^= stream[pos + i];
+            }
+            off += count;
+            keyStreamPos += count;
+        }
+    }
+
+    /**
+     * Encrypt a batch of counter blocks in one call, enough for the bytes wanted if possible.
+     *
+     * @param wanted the count of bytes to crypt
+     * @throws GsZipException if the cipher fails
+     */
+    private void nextKeyStream(int wanted) throws GsZipException {
+        int blocks = Math.min((wanted + BLOCK_SIZE - 1) / BLOCK_SIZE, BATCH_BLOCKS);
+        for (int i = 0; i < blocks; ++i) {
+            ++counter;
+            int pos = i * BLOCK_SIZE;
+            for (int j = 0; j < 8; ++j) {
+                counters[pos + j] = (byte) (counter >>> (j * 8));
+            }
+        }
+        try {
+            keyStreamLen = cipher.update(counters, 0, blocks * BLOCK_SIZE, keyStream, 0);
+        } catch (GeneralSecurityException e) {
+            throw new GsZipException("AES failed: " + e.getMessage());
+        }
+        GsZipUtil.check(keyStreamLen == blocks * BLOCK_SIZE, "AES failed");
+        keyStreamPos = 0;
+    }
+
+    /**
+     * Derive the AES key, the MAC key and the verifier from password and salt.
+     *
+     * @param password the password bytes, not empty
+     * @param salt     the salt, its length should match the strength
+     * @param strength the key strength
+     * @return the keys and verifier in a row
+     * @throws GsZipException if the strength is invalid or HMAC-SHA1 is not available
+     */
+    @NonNull
+    static byte[] deriveKeys(@NonNull byte[] password, @NonNull byte[] salt, int strength)
+            throws GsZipException {
+        GsZipUtil.check(password.length > 0, "Need password");
+        GsZipUtil.check(salt.length == saltLength(strength), "Error salt length");
+        try {
+            return pbkdf2(password, salt, ITERATIONS, keyLength(strength) * 2 + VERIFIER_LEN);
+        } catch (GeneralSecurityException e) {
+            throw new GsZipException("HMAC-SHA1 not available: " + e.getMessage());
+        }
+    }
+
+    /**
+     * PBKDF2 with HMAC-SHA1 on the password bytes as is.
+     * The JCE key factory takes chars and encodes them differently across platforms, so it is not used.
+     *
+     * @param password   the password bytes
+     * @param salt       the salt
+     * @param iterations the count of iterations
+     * @param length     the length of derived key
+     * @return the derived key
+     * @throws GeneralSecurityException if HMAC-SHA1 is not available
+     */
+    @NonNull
+    static byte[] pbkdf2(@NonNull byte[] password, @NonNull byte[] salt, int iterations, int length)
+            throws GeneralSecurityException {
+        Mac prf = Mac.getInstance("HmacSHA1");
+        prf.init(new SecretKeySpec(password, "HmacSHA1"));
+        int hashLength = prf.getMacLength();
+        byte[] result = new byte[length];
+        byte[] u = new byte[hashLength];
+        byte[] t = new byte[hashLength];
+        for (int block = 1, pos = 0; pos < length; ++block, pos += hashLength) {
+            prf.update(salt);
+            prf.update(new byte[]{(byte) (block >>> 24), (byte) (block >>> 16), (byte) (block >>> 8), (byte) block});
+            prf.doFinal(u, 0);
+            System.arraycopy(u, 0, t, 0, hashLength);
+            for (int i = 1; i < iterations; ++i) {
+                prf.update(u);
+                prf.doFinal(u, 0);
+                for (int j = 0; j < hashLength; ++j) {
+                    t[j] ^= u[j];
+                }
+            }
+            System.arraycopy(t, 0, result, pos, Math.min(hashLength, length - pos));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,70 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Derived AES keys of one password by strength and salt, so reopening an entry or restarting a stream
+ * skips the derivation. Held by the archive the password is set on, and cleared when it is closed.
+ * Only keys of entries read are kept, encryption takes a new random salt each time and derives directly.
+ */
+final class AesKeyCache {
+    private static final int CACHE_SIZE = 16;
+
+    @NonNull
+    private final byte[] password;
+    @NonNull
+    private final Map<ByteBuffer, byte[]> keys;
+
+    AesKeyCache(@NonNull byte[] password) {
+        this.password = password;
+        keys = new LinkedHashMap<ByteBuffer, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, byte[]> eldest) {
+                // Not wiped here, a stream may be taking the keys
+                return size() > CACHE_SIZE;
+            }
+        };
+    }
+
+    /**
+     * Get the keys of salt, derived on the first call.
+     *
+     * @param salt     the salt, its length should match the strength
+     * @param strength the key strength
+     * @return the keys and verifier in a row, should not be changed
+     * @throws GsZipException if failed to derive
+     */
+    @NonNull
+    byte[] getKeys(@NonNull byte[] salt, int strength) throws GsZipException {
+        ByteBuffer cacheKey = ByteBuffer.allocate(salt.length + 1);
+        cacheKey.put((byte) strength).put(salt).flip();
+        synchronized (keys) {
+            byte[] cached = keys.get(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        byte[] derived = AesKey.deriveKeys(password, salt, strength);
+        synchronized (keys) {
+            keys.put(cacheKey, derived);
+        }
+        return derived;
+    }
+
+    /**
+     * Drop all keys, the key bytes are wiped.
+     */
+    void clear() {
+        synchronized (keys) {
+            for (byte[] value : keys.values()) {
+                Arrays.fill(value, (byte) 0);
+            }
+            keys.clear();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * Process wide pool of I/O byte buffers, keyed by buffer size.
+ * Idle buffers are bounded in count per size and in total bytes, others are left to GC.
+ */
+final class BufferPool {
+    private static final int MAX_IDLE_PER_SIZE = Math.max(Runtime.getRuntime().availableProcessors() * 2, 4);
+    private static final long MAX_IDLE_BYTES = 32L * 1024 * 1024;
+
+    @NonNull
+    private static final HashMap<Integer, ArrayDeque<byte[]>> buffers = new HashMap<>();
+    private static long idleBytes = 0;
+
+    private BufferPool() {
+    }
+
+    /**
+     * Take a buffer, should be returned by release.
+     *
+     * @param size the buffer size
+     * @return the buffer of exact size, content not cleared
+     */
+    @NonNull
+    static byte[] obtain(int size) {
+        synchronized (BufferPool.class) {
+            ArrayDeque<byte[]> queue = buffers.get(size);
+            if (queue != null && !queue.isEmpty()) {
+                idleBytes -= size;
+                return queue.pollLast();
+            }
+        }
+        return new byte[size];
+    }
+
+    /**
+     * Return a buffer, it should not be used by caller any more.
+     *
+     * @param buffer the buffer from obtain
+     */
+    static synchronized void release(@NonNull byte[] buffer) {
+        if (idleBytes + buffer.length > MAX_IDLE_BYTES) {
+            return;
+        }
+        ArrayDeque<byte[]> queue = buffers.get(buffer.length);
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            buffers.put(buffer.length, queue);
+        }
+        if (queue.size() < MAX_IDLE_PER_SIZE) {
+            queue.addLast(buffer);
+            idleBytes += buffer.length;
+        }
+    }
+}
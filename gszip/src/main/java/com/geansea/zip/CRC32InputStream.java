@@ -0,0 +1,72 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * Pass-through stream that calculates the CRC32 and length of data read from base stream.
+ */
+final class CRC32InputStream extends GsZipInputStream {
+    @NonNull
+    private final GsZipInputStream base;
+    @NonNull
+    private final CRC32 crc32;
+    private long length;
+
+    CRC32InputStream(@NonNull GsZipInputStream base) throws IOException {
+        this.base = base;
+        crc32 = new CRC32();
+        restart();
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return base.available();
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        int count = base.read(b, off, len);
+        if (count > 0) {
+            crc32.update(b, off, count);
+            length += count;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        base.close();
+        super.close();
+    }
+
+    @Override
+    public void restart() throws IOException {
+        ensureOpen();
+        base.restart();
+        crc32.reset();
+        length = 0;
+    }
+
+    /**
+     * Get the CRC32 of data read since last restart.
+     *
+     * @return the CRC32 value
+     */
+    int getCRC() {
+        return (int) crc32.getValue();
+    }
+
+    /**
+     * Get the length of data read since last restart.
+     *
+     * @return the length in bytes
+     */
+    long getLength() {
+        return length;
+    }
+}
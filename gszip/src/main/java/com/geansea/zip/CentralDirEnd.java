@@ -9,6 +9,14 @@ import java.nio.charset.Charset;
 final class CentralDirEnd {
     static final int MAGIC = 0x06054b50; // "PK\x05\x06"
     static final int BASE_SIZE = 0x16;
+    static final int LOCATOR_MAGIC = 0x07064b50; // "PK\x06\x07"
+    static final int LOCATOR_SIZE = 0x14;
+    /**
+     * The max size of file tail to contain end record with comment, and ZIP64 end locator before it.
+     */
+    static final int MAX_TAIL_SIZE = LOCATOR_SIZE + BASE_SIZE + 0xFFFF;
+    static final int ZIP64_MAGIC = 0x06064b50; // "PK\x06\x06"
+    static final int ZIP64_BASE_SIZE = 0x38;
 
     private int sign;
     private short diskNum;
@@ -19,6 +27,11 @@ final class CentralDirEnd {
     private int dirOffset;
     private short commentLen;
     private byte[] comment;
+    private long zip64EndOffset;
+    private boolean zip64;
+    private long zip64EntryNum;
+    private long zip64DirSize;
+    private long zip64DirOffset;
 
     CentralDirEnd() {
         sign = MAGIC;
@@ -30,28 +43,158 @@ final class CentralDirEnd {
         dirOffset = 0;
         commentLen = 0;
         comment = new byte[commentLen];
+        zip64EndOffset = -1;
+        zip64 = false;
+        zip64EntryNum = 0;
+        zip64DirSize = 0;
+        zip64DirOffset = 0;
     }
 
-    int getEntryCount() {
-        return entryNum & 0xFFFF;
+    /**
+     * Find the end record in the tail of file, scanning backward in memory.
+     * A candidate is accepted only if its comment fits in the tail and its central dir is before it.
+     *
+     * @param tail       the tail of file in little endian order, from position 0 to limit
+     * @param tailOffset the offset of tail in file
+     * @return the position of end record in tail, or -1 if not found
+     */
+    static int locate(@NonNull ByteBuffer tail, long tailOffset) {
+        for (int pos = tail.limit() - BASE_SIZE; pos >= 0; --pos) {
+            // Cheap check on the first byte before the whole sign
+            if (tail.get(pos) != 'P' || tail.getInt(pos) != MAGIC) {
+                continue;
+            }
+            int commentSize = tail.getShort(pos + 20) & 0xFFFF;
+            if (pos + BASE_SIZE + commentSize > tail.limit()) {
+                continue;
+            }
+            short diskNumber = tail.getShort(pos + 4);
+            short startDiskNumber = tail.getShort(pos + 6);
+            if ((diskNumber != 0 || startDiskNumber != 0) && (diskNumber != -1 || startDiskNumber != -1)) {
+                continue;
+            }
+            if (tail.getShort(pos + 8) != tail.getShort(pos + 10)) {
+                continue;
+            }
+            long size = tail.getInt(pos + 12) & 0xFFFFFFFFL;
+            long offset = tail.getInt(pos + 16) & 0xFFFFFFFFL;
+            if (size != 0xFFFFFFFFL && offset != 0xFFFFFFFFL && offset + size > tailOffset + pos) {
+                continue;
+            }
+            return pos;
+        }
+        return -1;
     }
 
-    void setEntryCount(int count) {
-        entryNum = (short) count;
+    /**
+     * Read the ZIP64 end locator right before the end record, if exists.
+     *
+     * @param tail   the tail of file in little endian order
+     * @param endPos the position of end record in tail
+     */
+    void readLocatorFrom(@NonNull ByteBuffer tail, int endPos) {
+        int pos = endPos - LOCATOR_SIZE;
+        if (pos < 0 || tail.getInt(pos) != LOCATOR_MAGIC) {
+            zip64EndOffset = -1;
+            return;
+        }
+        // Disk number at pos + 4 and total disks at pos + 16 are not used
+        zip64EndOffset = tail.getLong(pos + 8);
+    }
+
+    /**
+     * Get the offset of ZIP64 end record found by locator.
+     *
+     * @return the offset, or -1 if no ZIP64 end locator
+     */
+    long getZip64EndOffset() {
+        return zip64EndOffset;
+    }
+
+    /**
+     * Read the ZIP64 end record, its values replace the ones of end record.
+     *
+     * @param buffer the ZIP64 end record in little endian order, from position 0
+     * @throws GsZipException if not enough bytes or invalid
+     */
+    void readZip64From(@NonNull ByteBuffer buffer) throws GsZipException {
+        GsZipUtil.check(buffer.remaining() >= ZIP64_BASE_SIZE, "Not enough length");
+        GsZipUtil.check(buffer.getInt() == ZIP64_MAGIC, "Error sign");
+        // Record size, version made by and version needed are not used
+        buffer.getLong();
+        buffer.getShort();
+        buffer.getShort();
+        GsZipUtil.check(buffer.getInt() == 0, "Disk number should be 0");
+        GsZipUtil.check(buffer.getInt() == 0, "Start Disk number should be 0");
+        long diskEntryCount = buffer.getLong();
+        long entryCount = buffer.getLong();
+        GsZipUtil.check(diskEntryCount == entryCount, "Entry number not match");
+        long size = buffer.getLong();
+        long offset = buffer.getLong();
+        GsZipUtil.check(entryCount >= 0 && size >= 0 && offset >= 0, "Error ZIP64 end record");
+        zip64EntryNum = entryCount;
+        zip64DirSize = size;
+        zip64DirOffset = offset;
+        zip64 = true;
+    }
+
+    /**
+     * Check if the values of end record are marked to be in ZIP64 end record.
+     *
+     * @return true if ZIP64 end record is required
+     */
+    boolean isZip64Marked() {
+        // Entry count 0xFFFF is also a valid count, not checked
+        return (diskNum == -1 || dirSize == -1 || dirOffset == -1);
+    }
+
+    boolean isZip64() {
+        return zip64;
+    }
+
+    long getEntryCount() {
+        return zip64 ? zip64EntryNum : (entryNum & 0xFFFF);
+    }
+
+    /**
+     * Set the count of entries to write, ZIP64 end record is written for 0xFFFF or more.
+     *
+     * @param count the count of entries
+     */
+    void setEntryCount(long count) {
+        zip64EntryNum = count;
+        entryNum = (short) Math.min(count, 0xFFFF);
         diskEntryNum = entryNum;
+        updateZip64();
     }
 
     long getDirOffset() {
-        return ((long) dirOffset) & 0xFFFFFFFFL;
+        return zip64 ? zip64DirOffset : (((long) dirOffset) & 0xFFFFFFFFL);
     }
 
     long getDirSize() {
-        return ((long) dirSize) & 0xFFFFFFFFL;
+        return zip64 ? zip64DirSize : (((long) dirSize) & 0xFFFFFFFFL);
     }
 
+    /**
+     * Set the range of central dir to write, ZIP64 end record is written for 32-bit overflow.
+     * The end records are written right after the central dir.
+     *
+     * @param offset the offset of central dir
+     * @param size   the byte size of central dir
+     */
     void setDirRange(long offset, long size) {
-        dirOffset = (int) offset;
-        dirSize = (int) size;
+        zip64DirOffset = offset;
+        zip64DirSize = size;
+        dirOffset = (int) Math.min(offset, EntryHeader.ZIP64_MAGIC_VALUE);
+        dirSize = (int) Math.min(size, EntryHeader.ZIP64_MAGIC_VALUE);
+        updateZip64();
+    }
+
+    private void updateZip64() {
+        zip64 = (zip64EntryNum >= 0xFFFF
+                || zip64DirOffset >= EntryHeader.ZIP64_MAGIC_VALUE
+                || zip64DirSize >= EntryHeader.ZIP64_MAGIC_VALUE);
     }
 
     @NonNull
@@ -71,29 +214,54 @@ final class CentralDirEnd {
         sign = byteBuffer.getInt();
         GsZipUtil.check(sign == MAGIC, "Error sign");
         diskNum = byteBuffer.getShort();
-        GsZipUtil.check(diskNum == 0, "Disk number should be 0");
         startDiskNum = byteBuffer.getShort();
-        GsZipUtil.check(startDiskNum == 0, "Start Disk number should be 0");
+        // Both are 0xFFFF if the real ones are in ZIP64 end record
+        GsZipUtil.check(diskNum == startDiskNum, "Start Disk number not match");
+        GsZipUtil.check(diskNum == 0 || diskNum == -1, "Disk number should be 0");
         diskEntryNum = byteBuffer.getShort();
         entryNum = byteBuffer.getShort();
         GsZipUtil.check(diskEntryNum == entryNum, "Entry number not match");
         dirSize = byteBuffer.getInt();
         dirOffset = byteBuffer.getInt();
         commentLen = byteBuffer.getShort();
-        comment = new byte[commentLen];
+        comment = new byte[commentLen & 0xFFFF];
         GsZipUtil.check(byteBuffer.position() == BASE_SIZE, "Error size");
         GsZipUtil.check(bytes.length >= byteSize(), "Not enough length");
         byteBuffer.get(comment);
     }
 
+    /**
+     * Get the byte size of end records, with ZIP64 end record and locator if needed.
+     *
+     * @return the byte size
+     */
     int byteSize() {
-        return BASE_SIZE + commentLen & 0xFFFF;
+        return (zip64 ? ZIP64_BASE_SIZE + LOCATOR_SIZE : 0) + BASE_SIZE + (commentLen & 0xFFFF);
     }
 
     void writeTo(@NonNull byte[] bytes) throws GsZipException {
         GsZipUtil.check(bytes.length >= byteSize(), "Not enough length");
 
         ByteBuffer byteBuffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (zip64) {
+            byteBuffer.putInt(ZIP64_MAGIC);
+            byteBuffer.putLong(ZIP64_BASE_SIZE - 12);
+            byteBuffer.putShort((short) 0x002D);
+            byteBuffer.putShort((short) 0x002D);
+            byteBuffer.putInt(0);
+            byteBuffer.putInt(0);
+            byteBuffer.putLong(zip64EntryNum);
+            byteBuffer.putLong(zip64EntryNum);
+            byteBuffer.putLong(zip64DirSize);
+            byteBuffer.putLong(zip64DirOffset);
+
+            byteBuffer.putInt(LOCATOR_MAGIC);
+            byteBuffer.putInt(0);
+            byteBuffer.putLong(zip64DirOffset + zip64DirSize);
+            byteBuffer.putInt(1);
+            GsZipUtil.check(byteBuffer.position() == ZIP64_BASE_SIZE + LOCATOR_SIZE, "Error size");
+            byteBuffer = byteBuffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
         byteBuffer.putInt(sign);
         byteBuffer.putShort(diskNum);
         byteBuffer.putShort(startDiskNum);
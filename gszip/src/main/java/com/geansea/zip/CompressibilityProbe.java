@@ -0,0 +1,77 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Deflater;
+
+/**
+ * Predicts the deflate ratio of a file by deflating the head, middle and tail windows at best speed.
+ * Best speed underestimates the ratio of higher levels a little, so a file stored by prediction
+ * would not have been much smaller deflated.
+ */
+final class CompressibilityProbe {
+    static final int WINDOW_SIZE = 64 * 1024;
+    /**
+     * Smaller files are not probed, deflating them entirely costs not much more than probing.
+     */
+    static final long MIN_FILE_SIZE = 4L * WINDOW_SIZE;
+
+    private CompressibilityProbe() {
+    }
+
+    /**
+     * Probe a file.
+     *
+     * @param name      the entry name
+     * @param channel   the file channel, read with positional reads
+     * @param size      the file size, no less than MIN_FILE_SIZE
+     * @param threshold the ratio over which the file is stored
+     * @return the result
+     * @throws IOException if throws
+     */
+    @NonNull
+    static GsZipProbeResult probe(@NonNull String name,
+                                  @NonNull FileChannel channel,
+                                  long size,
+                                  double threshold) throws IOException {
+        long[] offsets = new long[]{0, (size - WINDOW_SIZE) / 2, size - WINDOW_SIZE};
+        byte[] input = BufferPool.obtain(WINDOW_SIZE);
+        byte[] output = BufferPool.obtain(WINDOW_SIZE);
+        Deflater deflater = GsZipCodecPool.obtainDeflater(Deflater.BEST_SPEED, Deflater.DEFAULT_STRATEGY);
+        long sampledBytes = 0;
+        long compressedBytes = 0;
+        try {
+            for (long offset : offsets) {
+                int length = readWindow(channel, offset, input);
+                deflater.reset();
+                deflater.setInput(input, 0, length);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    compressedBytes += deflater.deflate(output);
+                }
+                sampledBytes += length;
+            }
+        } finally {
+            GsZipCodecPool.releaseDeflater(deflater, Deflater.BEST_SPEED, Deflater.DEFAULT_STRATEGY);
+            BufferPool.release(output);
+            BufferPool.release(input);
+        }
+        boolean stored = (sampledBytes > 0 && (double) compressedBytes / sampledBytes > threshold);
+        return new GsZipProbeResult(name, size, sampledBytes, compressedBytes, stored);
+    }
+
+    private static int readWindow(@NonNull FileChannel channel, long offset, @NonNull byte[] window)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(window);
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, offset + buffer.position());
+            if (count <= 0) {
+                break;
+            }
+        }
+        return buffer.position();
+    }
+}
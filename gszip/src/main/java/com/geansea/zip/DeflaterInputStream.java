@@ -12,12 +12,23 @@ final class DeflaterInputStream extends GsZipInputStream {
     private final Deflater deflater;
     @NonNull
     private final byte[] inputBuffer;
+    private final int level;
+    private final int strategy;
     private int inputLength;
+    private boolean released;
 
     DeflaterInputStream(@NonNull GsZipInputStream base) throws IOException {
+        this(base, Deflater.BEST_COMPRESSION, Deflater.DEFAULT_STRATEGY, GsZipUtil.DEFAULT_BUFFER_SIZE);
+    }
+
+    DeflaterInputStream(@NonNull GsZipInputStream base, int level, int strategy, int bufferSize)
+            throws IOException {
         this.base = base;
-        deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
-        inputBuffer = new byte[GsZipUtil.BUFFER_SIZE];
+        this.level = level;
+        this.strategy = strategy;
+        deflater = GsZipCodecPool.obtainDeflater(level, strategy);
+        released = false;
+        inputBuffer = BufferPool.obtain(bufferSize);
         restart();
     }
 
@@ -51,7 +62,12 @@ final class DeflaterInputStream extends GsZipInputStream {
 
     @Override
     public void close() throws IOException {
-        deflater.end();
+        if (!released) {
+            // Return to pool only once, the deflater may be taken by another stream after it
+            released = true;
+            GsZipCodecPool.releaseDeflater(deflater, level, strategy);
+            BufferPool.release(inputBuffer);
+        }
         base.close();
         super.close();
     }
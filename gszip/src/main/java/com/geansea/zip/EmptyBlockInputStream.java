@@ -0,0 +1,113 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * Stream of deflate data starting at a bit position, for Inflater which only takes whole bytes.
+ * An empty dynamic block is put ahead, ending at the same bit of first byte as the data starts,
+ * so the data keeps its alignment in bytes, as padding of stored blocks depends on it.
+ */
+final class EmptyBlockInputStream extends GsZipInputStream {
+    private static final int CODE_LENGTH_COUNT = 18;
+
+    @NonNull
+    private final GsZipInputStream base;
+    private final int shift;
+    @NonNull
+    private byte[] head;
+    private int headPos;
+
+    /**
+     * @param base  the base stream, from the byte where data starts
+     * @param shift the bits of first byte before data, from 1 to 7
+     * @throws IOException if throws
+     */
+    EmptyBlockInputStream(@NonNull GsZipInputStream base, int shift) throws IOException {
+        this.base = base;
+        this.shift = shift;
+        head = new byte[0];
+        restart();
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+        if (headPos < head.length) {
+            int count = Math.min(len, head.length - headPos);
+            System.arraycopy(head, headPos, b, off, count);
+            headPos += count;
+            return count;
+        }
+        return base.read(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        base.close();
+        super.close();
+    }
+
+    @Override
+    public void restart() throws IOException {
+        ensureOpen();
+        base.restart();
+        int first = base.read();
+        if (first < 0) {
+            throw new IOException("Unexpected end of ZLib input stream");
+        }
+        head = emptyBlock(shift, first);
+        headPos = 0;
+    }
+
+    /**
+     * Build a non-final dynamic block with no output, whose bit count modulo 8 is the shift.
+     * Code lengths 0 and 1 have 1-bit codes, literal 0 and end of block have 1-bit codes,
+     * so the block has 3 + 14 + 18 * 3 + 257 + distCount + 1 bits, and distCount adjusts the length.
+     *
+     * @param shift the bits of first byte before data
+     * @param first the first byte, its bits after shift are kept in the last byte of block
+     * @return the block bytes
+     */
+    @NonNull
+    private static byte[] emptyBlock(int shift, int first) {
+        int distCount = (shift + 6) % 8 + 1;
+        int bitCount = 3 + 14 + CODE_LENGTH_COUNT * 3 + 257 + distCount + 1;
+        byte[] block = new byte[(bitCount + 7) / 8];
+        int pos = 0;
+        pos = putBits(block, pos, 0, 1); // Not final
+        pos = putBits(block, pos, 2, 2); // Dynamic
+        pos = putBits(block, pos, 0, 5); // 257 literal and length codes
+        pos = putBits(block, pos, distCount - 1, 5);
+        pos = putBits(block, pos, CODE_LENGTH_COUNT - 4, 4);
+        for (int i = 0; i < CODE_LENGTH_COUNT; ++i) {
+            // Symbol 0 and 1 are the 4th and the 18th in order of code length code lengths
+            pos = putBits(block, pos, (i == 3 || i == 17) ? 1 : 0, 3);
+        }
+        pos = putBits(block, pos, 1, 1); // Literal 0
+        for (int i = 1; i < 256; ++i) {
+            pos = putBits(block, pos, 0, 1);
+        }
+        pos = putBits(block, pos, 1, 1); // End of block
+        pos = putBits(block, pos, 1, 1); // Single distance code
+        for (int i = 1; i < distCount; ++i) {
+            pos = putBits(block, pos, 0, 1);
+        }
+        pos = putBits(block, pos, 1, 1); // Code of end of block
+        block[block.length - 1] |= (byte) (first & (0xFF << shift));
+        return block;
+    }
+
+    private static int putBits(@NonNull byte[] bytes, int pos, int value, int count) {
+        for (int i = 0; i < count; ++i, ++pos) {
+            if (((value >>> i) & 1) != 0) {
+                bytes[pos >>> 3] |= (byte) (1 << (pos & 7));
+            }
+        }
+        return pos;
+    }
+}
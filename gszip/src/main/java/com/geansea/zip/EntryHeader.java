@@ -1,6 +1,7 @@
 package com.geansea.zip;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -17,9 +18,10 @@ import java.util.zip.CRC32;
 
 final class EntryHeader {
     private static final int CENTRAL_MAGIC = 0x02014b50; // "PK\x01\x02"
-    private static final int LOCAL_MAGIC = 0x04034b50; // "PK\x03\x04"
+    static final int LOCAL_MAGIC = 0x04034b50; // "PK\x03\x04"
+    static final int DESCRIPTOR_MAGIC = 0x08074b50; // "PK\x07\x08"
 
-    private static final int CENTRAL_HEADER_SIZE = 0x2E;
+    static final int CENTRAL_HEADER_SIZE = 0x2E;
     private static final int LOCAL_HEADER_SIZE = 0x1E;
 
     private static final short BITFLAG_ENCRYPTED = 0x0001;
@@ -31,11 +33,33 @@ final class EntryHeader {
 
     static final short ENCRYPT_NONE = 0x00;
     static final short ENCRYPT_PKWARE = BITFLAG_ENCRYPTED;
+    /**
+     * Not a bit flag value, the encrypted flag with method 99 and AES extra field.
+     */
+    static final short ENCRYPT_AES = 0x0101;
+    private static final short ENCRYPT_UNKNOWN = -1;
 
     static final short COMPRESS_STORED = 0x00;
     static final short COMPRESS_FLATE = 0x08;
+    private static final short COMPRESS_AES = 0x63;
 
     private static final short UNICODE_PATH_EXTRA_FIELD_ID = 0x7075;
+    private static final short ZIP64_EXTRA_FIELD_ID = 0x0001;
+    private static final short AES_EXTRA_FIELD_ID = (short) 0x9901;
+    private static final short AES_EXTRA_FIELD_SIZE = 7;
+    private static final short AES_VENDOR_ID = 0x4541; // "AE"
+    static final short AES_VERSION_1 = 0x0001;
+    static final short AES_VERSION_2 = 0x0002; // CRC is not stored
+    private static final short AES_VERSION_NEEDED = 0x0033;
+
+    /**
+     * The 32-bit size or offset value telling the real value is in ZIP64 extra field.
+     */
+    static final long ZIP64_MAGIC_VALUE = 0xFFFFFFFFL;
+    private static final short ZIP64_VERSION = 0x002D;
+
+    @NonNull
+    private static final byte[] EMPTY_BYTES = new byte[0];
 
     private int sign;            // (cl)
     private short versionMadeBy; // (c)
@@ -45,18 +69,21 @@ final class EntryHeader {
     private short lastModTime;   // (cl)
     private short lastModDate;   // (cl)
     private int CRC;             // (cl) CRC-32
-    private int compSize;        // (cl)
-    private int uncompSize;      // (cl)
+    private long compSize;       // (cl) 32-bit, or 64-bit in ZIP64 extra field
+    private long uncompSize;     // (cl) 32-bit, or 64-bit in ZIP64 extra field
     private short fileNameLen;   // (cl)
     private short extraFieldLen; // (cl)
     private short commentLen;    // (c)
     private short diskNumber;    // (c)
     private short intAttrib;     // (c)
     private int extAttrib;       // (c)
-    private int localOffset;     // (c)
+    private long localOffset;    // (c) 32-bit, or 64-bit in ZIP64 extra field
     private byte[] fileName;
     private byte[] extraField;
     private byte[] comment;
+    private boolean zip64Reserved;
+    private short aesVersion;    // 0 if not AES encrypted
+    private byte aesStrength;    // 0 if not AES encrypted
 
     EntryHeader() {
         sign = CENTRAL_MAGIC;
@@ -79,6 +106,9 @@ final class EntryHeader {
         fileName = new byte[fileNameLen];
         extraField = new byte[extraFieldLen];
         comment = new byte[commentLen];
+        zip64Reserved = false;
+        aesVersion = 0;
+        aesStrength = 0;
     }
 
     private void checkValid(boolean central) throws GsZipException {
@@ -92,6 +122,47 @@ final class EntryHeader {
         GsZipUtil.check(compMethod == COMPRESS_STORED || compMethod == COMPRESS_FLATE, "Error compress method");
     }
 
+    /**
+     * Copy the header for the same data in another archive, with new name in UTF-8.
+     * The data descriptor flag is kept only for PKWare encryption, as the check byte of encryption header
+     * is from time instead of CRC with the flag.
+     *
+     * @param name the new entry name
+     * @return the new header, not signed and without local offset
+     */
+    @NonNull
+    EntryHeader copyWithName(@NonNull String name) {
+        EntryHeader header = new EntryHeader();
+        boolean utf8 = ((bitFlags & BITFLAG_LANGUAGE_UTF8) != 0);
+        int flags = bitFlags | BITFLAG_LANGUAGE_UTF8;
+        if (getEncMethod() != ENCRYPT_PKWARE) {
+            flags &= ~BITFLAG_DATA_DESCRIPTOR;
+        }
+        header.versionMadeBy = versionMadeBy;
+        header.versionNeeded = versionNeeded;
+        header.bitFlags = (short) flags;
+        header.compMethod = compMethod;
+        header.lastModTime = lastModTime;
+        header.lastModDate = lastModDate;
+        header.CRC = CRC;
+        header.compSize = compSize;
+        header.uncompSize = uncompSize;
+        header.intAttrib = intAttrib;
+        header.extAttrib = extAttrib;
+        header.aesVersion = aesVersion;
+        header.aesStrength = aesStrength;
+        header.setFileName(name);
+        // The name is in UTF-8 now, so the unicode path is dropped, ZIP64 and AES are rebuilt on writing
+        header.extraField = removeExtraField(extraField, UNICODE_PATH_EXTRA_FIELD_ID);
+        header.extraFieldLen = (short) header.extraField.length;
+        // Comment in other charset can not be flagged as UTF-8
+        if (utf8) {
+            header.comment = comment;
+            header.commentLen = commentLen;
+        }
+        return header;
+    }
+
     boolean matchLocal(@NonNull EntryHeader header) {
         boolean match = (compMethod == header.compMethod
                 && (bitFlags & BITFLAG_ENCRYPT_MASK) == (header.bitFlags & BITFLAG_ENCRYPT_MASK)
@@ -105,16 +176,169 @@ final class EntryHeader {
         return match;
     }
 
+    /**
+     * Get the byte size of a raw central header record.
+     *
+     * @param dir the central dir bytes in little endian order
+     * @param pos the position of record
+     * @return the byte size of record
+     * @throws GsZipException if the record is invalid or out of range
+     */
+    static int rawCentralSize(@NonNull ByteBuffer dir, int pos) throws GsZipException {
+        GsZipUtil.check(pos >= 0 && dir.limit() - pos >= CENTRAL_HEADER_SIZE, "Read fail");
+        GsZipUtil.check(dir.getInt(pos) == CENTRAL_MAGIC, "Error sign");
+        int size = CENTRAL_HEADER_SIZE
+                + (dir.getShort(pos + 28) & 0xFFFF)
+                + (dir.getShort(pos + 30) & 0xFFFF)
+                + (dir.getShort(pos + 32) & 0xFFFF);
+        GsZipUtil.check(dir.limit() - pos >= size, "Read fail");
+        return size;
+    }
+
+    /**
+     * Set the local offset of a raw central header record in place, in ZIP64 extra field if marked so.
+     * The record size is not changed, so the offset should fit the 32-bit field if it is not marked.
+     *
+     * @param dir    the central dir bytes in little endian order
+     * @param pos    the position of record
+     * @param offset the new local offset
+     * @throws GsZipException if the offset does not fit, or ZIP64 extra field is missing
+     */
+    static void rawCentralSetLocalOffset(@NonNull ByteBuffer dir, int pos, long offset) throws GsZipException {
+        if ((dir.getInt(pos + 42) & 0xFFFFFFFFL) != ZIP64_MAGIC_VALUE) {
+            GsZipUtil.check(offset < ZIP64_MAGIC_VALUE, "Offset out of range");
+            dir.putInt(pos + 42, (int) offset);
+            return;
+        }
+        // The 64-bit offset follows the marked sizes
+        int valuePos = 0;
+        valuePos += ((dir.getInt(pos + 24) & 0xFFFFFFFFL) == ZIP64_MAGIC_VALUE) ? 8 : 0;
+        valuePos += ((dir.getInt(pos + 20) & 0xFFFFFFFFL) == ZIP64_MAGIC_VALUE) ? 8 : 0;
+        int dataPos = rawCentralZip64Data(dir, pos);
+        GsZipUtil.check(dataPos >= 0, "ZIP64 extra field missing");
+        GsZipUtil.check(valuePos + 8 <= (dir.getShort(dataPos - 2) & 0xFFFF), "ZIP64 extra field too short");
+        dir.putLong(dataPos + valuePos, offset);
+    }
+
+    /**
+     * Find the data of ZIP64 extra field in a raw central header record.
+     *
+     * @param dir the central dir bytes in little endian order
+     * @param pos the position of record
+     * @return the position of field data, or -1 if not found
+     */
+    private static int rawCentralZip64Data(@NonNull ByteBuffer dir, int pos) {
+        int extraPos = pos + CENTRAL_HEADER_SIZE + rawCentralNameLength(dir, pos);
+        int extraEnd = extraPos + rawCentralExtraLength(dir, pos);
+        while (extraEnd - extraPos >= 4) {
+            short id = dir.getShort(extraPos);
+            int dataSize = dir.getShort(extraPos + 2) & 0xFFFF;
+            if (extraPos + 4 + dataSize > extraEnd) {
+                return -1;
+            }
+            if (id == ZIP64_EXTRA_FIELD_ID) {
+                return extraPos + 4;
+            }
+            extraPos += 4 + dataSize;
+        }
+        return -1;
+    }
+
+    /**
+     * Check the encryption flags of a raw central header record.
+     *
+     * @param dir the central dir bytes in little endian order
+     * @param pos the position of record
+     * @return true if encrypted
+     */
+    static boolean rawCentralEncrypted(@NonNull ByteBuffer dir, int pos) {
+        return (dir.getShort(pos + 8) & BITFLAG_ENCRYPT_MASK) != 0;
+    }
+
+    /**
+     * Get the original size of a raw central header record, from ZIP64 extra field if marked so.
+     *
+     * @param dir the central dir bytes in little endian order
+     * @param pos the position of record
+     * @return the original size, or the marked value if ZIP64 extra field is missing or too short
+     */
+    static long rawCentralUncompSize(@NonNull ByteBuffer dir, int pos) {
+        long size = dir.getInt(pos + 24) & 0xFFFFFFFFL;
+        if (size != ZIP64_MAGIC_VALUE) {
+            return size;
+        }
+        // The original size is the first value of ZIP64 extra field
+        int dataPos = rawCentralZip64Data(dir, pos);
+        if (dataPos < 0 || (dir.getShort(dataPos - 2) & 0xFFFF) < 8) {
+            return size;
+        }
+        return dir.getLong(dataPos);
+    }
+
+    static int rawCentralNameLength(@NonNull ByteBuffer dir, int pos) {
+        return dir.getShort(pos + 28) & 0xFFFF;
+    }
+
+    static int rawCentralExtraLength(@NonNull ByteBuffer dir, int pos) {
+        return dir.getShort(pos + 30) & 0xFFFF;
+    }
+
+    /**
+     * Check the UTF-8 flag of a raw central header record.
+     *
+     * @param dir the central dir bytes in little endian order
+     * @param pos the position of record
+     * @return true if the name is flagged as UTF-8
+     */
+    static boolean rawCentralUtf8(@NonNull ByteBuffer dir, int pos) {
+        return (dir.getShort(pos + 8) & BITFLAG_LANGUAGE_UTF8) != 0;
+    }
+
+    boolean hasZip64Extra() {
+        return findExtraField(ZIP64_EXTRA_FIELD_ID) != null;
+    }
+
+    boolean hasDataDescriptor() {
+        return (bitFlags & BITFLAG_DATA_DESCRIPTOR) != 0;
+    }
+
     void setSign(boolean central) {
         sign = (central ? CENTRAL_MAGIC : LOCAL_MAGIC);
     }
 
     int getEncMethod() {
-        return bitFlags & BITFLAG_ENCRYPT_MASK;
+        int flags = bitFlags & BITFLAG_ENCRYPT_MASK;
+        if (flags == ENCRYPT_PKWARE && aesStrength != 0) {
+            return ENCRYPT_AES;
+        }
+        // Method 99 without valid AES extra field
+        return (compMethod == COMPRESS_AES ? ENCRYPT_UNKNOWN : flags);
     }
 
+    /**
+     * Set the encryption method, AES is written as AE-2 with 256-bit key.
+     *
+     * @param method ENCRYPT_NONE, ENCRYPT_PKWARE or ENCRYPT_AES
+     */
     void setEncMethod(int method) {
-        bitFlags |= (short) method;
+        bitFlags &= ~BITFLAG_ENCRYPT_MASK;
+        if (method == ENCRYPT_AES) {
+            bitFlags |= BITFLAG_ENCRYPTED;
+            aesVersion = AES_VERSION_2;
+            aesStrength = AesKey.STRENGTH_256;
+        } else {
+            bitFlags |= (short) method;
+            aesVersion = 0;
+            aesStrength = 0;
+        }
+    }
+
+    int getAesStrength() {
+        return aesStrength;
+    }
+
+    int getAesVersion() {
+        return aesVersion;
     }
 
     int getCompMethod() {
@@ -163,19 +387,19 @@ final class EntryHeader {
         CRC = crc;
     }
 
-    int getCompSize() {
+    long getCompSize() {
         return compSize;
     }
 
-    void setCompSize(int size) {
+    void setCompSize(long size) {
         compSize = size;
     }
 
-    int getUncompSize() {
+    long getUncompSize() {
         return uncompSize;
     }
 
-    void setUncompSize(int size) {
+    void setUncompSize(long size) {
         uncompSize = size;
     }
 
@@ -224,11 +448,21 @@ final class EntryHeader {
         fileNameLen = (short) fileName.length;
     }
 
-    int getLocalOffset() {
+    /**
+     * Always write ZIP64 extra field with both sizes in local header.
+     * It is for headers written before sizes are known, so patching with real sizes keeps the header size.
+     *
+     * @param reserved whether to reserve ZIP64 extra field in local header
+     */
+    void setZip64Reserved(boolean reserved) {
+        zip64Reserved = reserved;
+    }
+
+    long getLocalOffset() {
         return localOffset;
     }
 
-    void setLocalOffset(int offset) {
+    void setLocalOffset(long offset) {
         localOffset = offset;
     }
 
@@ -236,25 +470,8 @@ final class EntryHeader {
         int headerSize = central ? CENTRAL_HEADER_SIZE : LOCAL_HEADER_SIZE;
         byte[] bytes = new byte[headerSize];
         GsZipUtil.check(stream.read(bytes) == bytes.length, "Read fail");
-
         ByteBuffer byteBuffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
-        sign = byteBuffer.getInt();
-        versionMadeBy = central ? byteBuffer.getShort() : 0;
-        versionNeeded = byteBuffer.getShort();
-        bitFlags = byteBuffer.getShort();
-        compMethod = byteBuffer.getShort();
-        lastModTime = byteBuffer.getShort();
-        lastModDate = byteBuffer.getShort();
-        CRC = byteBuffer.getInt();
-        compSize = byteBuffer.getInt();
-        uncompSize = byteBuffer.getInt();
-        fileNameLen = byteBuffer.getShort();
-        extraFieldLen = byteBuffer.getShort();
-        commentLen = central ? byteBuffer.getShort() : 0;
-        diskNumber = central ? byteBuffer.getShort() : 0;
-        intAttrib = central ? byteBuffer.getShort() : 0;
-        extAttrib = central ? byteBuffer.getInt() : 0;
-        localOffset = central ? byteBuffer.getInt() : 0;
+        readFixedFields(byteBuffer, central);
         GsZipUtil.check(byteBuffer.remaining() == 0, "Error size");
 
         fileName = new byte[fileNameLen];
@@ -264,8 +481,159 @@ final class EntryHeader {
         comment = new byte[commentLen];
         GsZipUtil.check(stream.read(comment) == commentLen, "Read fail");
         checkValid(central);
+        readZip64Extra(central);
+        readAesExtra();
     }
 
+    /**
+     * Read header in place from buffer, the buffer position is moved to the end of header.
+     *
+     * @param buffer  the buffer in little endian order
+     * @param central whether to read central or local header
+     * @throws GsZipException if not enough bytes or invalid
+     */
+    void readFrom(@NonNull ByteBuffer buffer, boolean central) throws GsZipException {
+        int headerSize = central ? CENTRAL_HEADER_SIZE : LOCAL_HEADER_SIZE;
+        GsZipUtil.check(buffer.remaining() >= headerSize, "Read fail");
+        readFixedFields(buffer, central);
+        GsZipUtil.check(buffer.remaining() >= (fileNameLen & 0xFFFF) + (extraFieldLen & 0xFFFF) + (commentLen & 0xFFFF),
+                "Read fail");
+        fileName = readBytes(buffer, fileNameLen);
+        extraField = readBytes(buffer, extraFieldLen);
+        comment = readBytes(buffer, commentLen);
+        checkValid(central);
+        readZip64Extra(central);
+        readAesExtra();
+    }
+
+    private void readFixedFields(@NonNull ByteBuffer buffer, boolean central) {
+        sign = buffer.getInt();
+        versionMadeBy = central ? buffer.getShort() : 0;
+        versionNeeded = buffer.getShort();
+        bitFlags = buffer.getShort();
+        compMethod = buffer.getShort();
+        lastModTime = buffer.getShort();
+        lastModDate = buffer.getShort();
+        CRC = buffer.getInt();
+        compSize = buffer.getInt() & 0xFFFFFFFFL;
+        uncompSize = buffer.getInt() & 0xFFFFFFFFL;
+        fileNameLen = buffer.getShort();
+        extraFieldLen = buffer.getShort();
+        commentLen = central ? buffer.getShort() : 0;
+        diskNumber = central ? buffer.getShort() : 0;
+        intAttrib = central ? buffer.getShort() : 0;
+        extAttrib = central ? buffer.getInt() : 0;
+        localOffset = central ? (buffer.getInt() & 0xFFFFFFFFL) : 0;
+    }
+
+    /**
+     * Replace the 32-bit values marked as 0xFFFFFFFF with the 64-bit values in ZIP64 extra field.
+     * The 64-bit values are in the order of original size, compressed size and local offset,
+     * each present only if the 32-bit value is marked, except that local headers may always keep both sizes.
+     *
+     * @param central whether the header is central or local
+     * @throws GsZipException if the ZIP64 extra field is missing or too short
+     */
+    private void readZip64Extra(boolean central) throws GsZipException {
+        boolean uncompMarked = (uncompSize == ZIP64_MAGIC_VALUE);
+        boolean compMarked = (compSize == ZIP64_MAGIC_VALUE);
+        boolean offsetMarked = (central && localOffset == ZIP64_MAGIC_VALUE);
+        if (!uncompMarked && !compMarked && !offsetMarked) {
+            return;
+        }
+        ByteBuffer data = findExtraField(ZIP64_EXTRA_FIELD_ID);
+        GsZipUtil.check(data != null, "ZIP64 extra field missing");
+        if (!central && data.remaining() >= 16) {
+            long uncomp = data.getLong();
+            long comp = data.getLong();
+            uncompSize = uncompMarked ? uncomp : uncompSize;
+            compSize = compMarked ? comp : compSize;
+        } else {
+            if (uncompMarked) {
+                GsZipUtil.check(data.remaining() >= 8, "ZIP64 extra field too short");
+                uncompSize = data.getLong();
+            }
+            if (compMarked) {
+                GsZipUtil.check(data.remaining() >= 8, "ZIP64 extra field too short");
+                compSize = data.getLong();
+            }
+            if (offsetMarked) {
+                GsZipUtil.check(data.remaining() >= 8, "ZIP64 extra field too short");
+                localOffset = data.getLong();
+            }
+        }
+        GsZipUtil.check(uncompSize >= 0 && compSize >= 0 && localOffset >= 0, "ZIP64 value out of range");
+    }
+
+    /**
+     * Read the AES extra field of method 99, the compress method is replaced with the actual one.
+     * Without valid AES extra field, the method is kept and the entry is not supported.
+     */
+    private void readAesExtra() {
+        aesVersion = 0;
+        aesStrength = 0;
+        if (compMethod != COMPRESS_AES) {
+            return;
+        }
+        ByteBuffer data = findExtraField(AES_EXTRA_FIELD_ID);
+        if (data == null || data.remaining() < AES_EXTRA_FIELD_SIZE) {
+            return;
+        }
+        short version = data.getShort();
+        short vendor = data.getShort();
+        byte strength = data.get();
+        short method = data.getShort();
+        if ((version == AES_VERSION_1 || version == AES_VERSION_2)
+                && vendor == AES_VENDOR_ID
+                && strength >= AesKey.STRENGTH_128 && strength <= AesKey.STRENGTH_256) {
+            aesVersion = version;
+            aesStrength = strength;
+            compMethod = method;
+        }
+    }
+
+    /**
+     * Find the data of extra field by header ID.
+     *
+     * @param headerId the header ID of extra field
+     * @return the data in little endian order, or null if not found
+     */
+    @Nullable
+    private ByteBuffer findExtraField(short headerId) {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(extraField).order(ByteOrder.LITTLE_ENDIAN);
+        while (byteBuffer.remaining() >= 4) {
+            short id = byteBuffer.getShort();
+            int dataSize = byteBuffer.getShort() & 0xFFFF;
+            if (dataSize > byteBuffer.remaining()) {
+                break;
+            }
+            if (id == headerId) {
+                ByteBuffer data = byteBuffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+                data.limit(dataSize);
+                return data;
+            }
+            byteBuffer.position(byteBuffer.position() + dataSize);
+        }
+        return null;
+    }
+
+    @NonNull
+    private static byte[] readBytes(@NonNull ByteBuffer buffer, short length) {
+        if (length == 0) {
+            return EMPTY_BYTES;
+        }
+        byte[] bytes = new byte[length & 0xFFFF];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Get the byte size of header as read, with the extra field stored in it.
+     * For the size writeTo writes, use writeSize.
+     *
+     * @param central whether central or local header
+     * @return the byte size
+     */
     int byteSize(boolean central) {
         if (central) {
             return CENTRAL_HEADER_SIZE + fileNameLen + extraFieldLen + commentLen;
@@ -274,36 +642,178 @@ final class EntryHeader {
         }
     }
 
+    /**
+     * Get the byte size writeTo writes, with the ZIP64 and AES extra fields it builds.
+     *
+     * @param central whether central or local header
+     * @return the byte size
+     * @throws GsZipException if the extra field is too long
+     */
+    int writeSize(boolean central) throws GsZipException {
+        int size = (central ? CENTRAL_HEADER_SIZE : LOCAL_HEADER_SIZE) + fileName.length
+                + buildExtraField(central).length;
+        return central ? size + comment.length : size;
+    }
+
+    /**
+     * Write the header, ZIP64 extra field is added only for sizes or offset over 32-bit,
+     * or if reserved for local header.
+     *
+     * @param stream  the stream to write
+     * @param central whether to write central or local header
+     * @throws IOException    if throws
+     * @throws GsZipException if invalid
+     */
     void writeTo(@NonNull OutputStream stream, boolean central) throws IOException, GsZipException {
         checkValidForWrite(central);
+        boolean bigUncomp = isBigUncompSize(central);
+        boolean bigComp = isBigCompSize(central);
+        boolean bigOffset = isBigLocalOffset(central);
+        boolean zip64 = (bigUncomp || bigComp || bigOffset);
+        boolean aes = (aesStrength != 0);
+        // With data descriptor, CRC and sizes follow the data
+        boolean descriptor = (!central && hasDataDescriptor());
+        byte[] extra = buildExtraField(central);
+        short version = versionNeeded;
+        version = zip64 ? (short) Math.max(version, ZIP64_VERSION) : version;
+        version = aes ? (short) Math.max(version, AES_VERSION_NEEDED) : version;
+
         int headerSize = central ? CENTRAL_HEADER_SIZE : LOCAL_HEADER_SIZE;
         byte[] bytes = new byte[headerSize];
         ByteBuffer byteBuffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
         byteBuffer.putInt(sign);
         if (central) {
-            byteBuffer.putShort(versionMadeBy);
+            byteBuffer.putShort((zip64 || aes) ? (short) Math.max(versionMadeBy, version) : versionMadeBy);
         }
-        byteBuffer.putShort(versionNeeded);
+        byteBuffer.putShort(version);
         byteBuffer.putShort(bitFlags);
-        byteBuffer.putShort(compMethod);
+        byteBuffer.putShort(aes ? COMPRESS_AES : compMethod);
         byteBuffer.putShort(lastModTime);
         byteBuffer.putShort(lastModDate);
-        byteBuffer.putInt(CRC);
-        byteBuffer.putInt(compSize);
-        byteBuffer.putInt(uncompSize);
+        byteBuffer.putInt((aesVersion == AES_VERSION_2 || descriptor) ? 0 : CRC);
+        byteBuffer.putInt(bigComp ? (int) ZIP64_MAGIC_VALUE : (descriptor ? 0 : (int) compSize));
+        byteBuffer.putInt(bigUncomp ? (int) ZIP64_MAGIC_VALUE : (descriptor ? 0 : (int) uncompSize));
         byteBuffer.putShort(fileNameLen);
-        byteBuffer.putShort(extraFieldLen);
+        byteBuffer.putShort((short) extra.length);
         if (central) {
             byteBuffer.putShort(commentLen);
             byteBuffer.putShort(diskNumber);
             byteBuffer.putShort(intAttrib);
             byteBuffer.putInt(extAttrib);
-            byteBuffer.putInt(localOffset);
+            byteBuffer.putInt(bigOffset ? (int) ZIP64_MAGIC_VALUE : (int) localOffset);
         }
         GsZipUtil.check(byteBuffer.remaining() == 0, "Error size");
         stream.write(bytes);
         stream.write(fileName);
-        stream.write(extraField);
-        stream.write(comment);
+        stream.write(extra);
+        if (central) {
+            stream.write(comment);
+        }
+    }
+
+    /**
+     * Write the data descriptor after data, for header with the data descriptor flag.
+     * The sizes are 64-bit if the local header has ZIP64 extra field.
+     *
+     * @param stream the stream to write
+     * @throws IOException if throws
+     */
+    void writeDataDescriptor(@NonNull OutputStream stream) throws IOException {
+        boolean zip64 = (zip64Reserved || uncompSize >= ZIP64_MAGIC_VALUE || compSize >= ZIP64_MAGIC_VALUE);
+        ByteBuffer byteBuffer = ByteBuffer.allocate(zip64 ? 24 : 16).order(ByteOrder.LITTLE_ENDIAN);
+        byteBuffer.putInt(DESCRIPTOR_MAGIC);
+        byteBuffer.putInt(aesVersion == AES_VERSION_2 ? 0 : CRC);
+        if (zip64) {
+            byteBuffer.putLong(compSize);
+            byteBuffer.putLong(uncompSize);
+        } else {
+            byteBuffer.putInt((int) compSize);
+            byteBuffer.putInt((int) uncompSize);
+        }
+        stream.write(byteBuffer.array());
+    }
+
+    private boolean isLocalZip64() {
+        return (zip64Reserved || uncompSize >= ZIP64_MAGIC_VALUE || compSize >= ZIP64_MAGIC_VALUE);
+    }
+
+    private boolean isBigUncompSize(boolean central) {
+        // Local ZIP64 extra field should have both sizes
+        return (uncompSize >= ZIP64_MAGIC_VALUE || (!central && isLocalZip64()));
+    }
+
+    private boolean isBigCompSize(boolean central) {
+        return (compSize >= ZIP64_MAGIC_VALUE || (!central && isLocalZip64()));
+    }
+
+    private boolean isBigLocalOffset(boolean central) {
+        return (central && localOffset >= ZIP64_MAGIC_VALUE);
+    }
+
+    /**
+     * Build the extra field to write, any old ZIP64 or AES extra field is replaced.
+     *
+     * @param central whether for central or local header
+     * @return the extra field bytes
+     * @throws GsZipException if too long
+     */
+    @NonNull
+    private byte[] buildExtraField(boolean central) throws GsZipException {
+        boolean bigUncomp = isBigUncompSize(central);
+        boolean bigComp = isBigCompSize(central);
+        boolean bigOffset = isBigLocalOffset(central);
+        int zip64Size = (bigUncomp ? 8 : 0) + (bigComp ? 8 : 0) + (bigOffset ? 8 : 0);
+        int aesSize = (aesStrength != 0 ? 4 + AES_EXTRA_FIELD_SIZE : 0);
+        ByteBuffer result = ByteBuffer.allocate(extraField.length + 4 + zip64Size + aesSize)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer byteBuffer = ByteBuffer.wrap(extraField).order(ByteOrder.LITTLE_ENDIAN);
+        while (byteBuffer.remaining() >= 4) {
+            int start = byteBuffer.position();
+            short id = byteBuffer.getShort();
+            int dataSize = Math.min(byteBuffer.getShort() & 0xFFFF, byteBuffer.remaining());
+            byteBuffer.position(byteBuffer.position() + dataSize);
+            if (id != ZIP64_EXTRA_FIELD_ID && id != AES_EXTRA_FIELD_ID) {
+                result.put(extraField, start, byteBuffer.position() - start);
+            }
+        }
+        if (zip64Size > 0) {
+            result.putShort(ZIP64_EXTRA_FIELD_ID);
+            result.putShort((short) zip64Size);
+            if (bigUncomp) {
+                result.putLong(uncompSize);
+            }
+            if (bigComp) {
+                result.putLong(compSize);
+            }
+            if (bigOffset) {
+                result.putLong(localOffset);
+            }
+        }
+        if (aesSize > 0) {
+            result.putShort(AES_EXTRA_FIELD_ID);
+            result.putShort(AES_EXTRA_FIELD_SIZE);
+            result.putShort(aesVersion);
+            result.putShort(AES_VENDOR_ID);
+            result.put(aesStrength);
+            result.putShort(compMethod);
+        }
+        GsZipUtil.check(result.position() <= 0xFFFF, "Extra field too long");
+        return Arrays.copyOf(result.array(), result.position());
+    }
+
+    @NonNull
+    private static byte[] removeExtraField(@NonNull byte[] extraField, short headerId) {
+        ByteBuffer result = ByteBuffer.allocate(extraField.length);
+        ByteBuffer byteBuffer = ByteBuffer.wrap(extraField).order(ByteOrder.LITTLE_ENDIAN);
+        while (byteBuffer.remaining() >= 4) {
+            int start = byteBuffer.position();
+            short id = byteBuffer.getShort();
+            int dataSize = Math.min(byteBuffer.getShort() & 0xFFFF, byteBuffer.remaining());
+            byteBuffer.position(byteBuffer.position() + dataSize);
+            if (id != headerId) {
+                result.put(extraField, start, byteBuffer.position() - start);
+            }
+        }
+        return Arrays.copyOf(result.array(), result.position());
     }
 }
@@ -0,0 +1,627 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact entry table over the raw central dir bytes.
+ * Only the record offsets, normalized names in UTF-8 and name hashes are kept in primitive arrays,
+ * entries with their names and times are created on demand.
+ * Lookups hash and compare the names byte by byte, without splitting or allocating strings.
+ */
+final class EntryTable {
+    private static final int FNV_BASIS = 0x811C9DC5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    @NonNull
+    private final ByteBuffer dir;
+    @NonNull
+    private final Charset charset;
+    @NonNull
+    private final int[] offsets;
+    /**
+     * Normalized names in UTF-8, one after another, the name of entry i is from nameStarts[i] to nameStarts[i + 1].
+     */
+    @NonNull
+    private final byte[] names;
+    @NonNull
+    private final int[] nameStarts;
+    @NonNull
+    private final int[] nameHashes;
+    /**
+     * Open addressing index from name hash to entry index + 1, 0 for empty slot.
+     */
+    @NonNull
+    private final int[] slots;
+    /**
+     * Same as nameHashes and slots for case folded names, built on first case-insensitive lookup.
+     */
+    @Nullable
+    private int[] foldedHashes;
+    @Nullable
+    private int[] foldedSlots;
+
+    /**
+     * Scan the central dir and build the table.
+     *
+     * @param dir        the central dir bytes, from position 0 to limit
+     * @param entryCount the count of entries
+     * @param charset    the charset for names not in UTF-8
+     * @throws GsZipException if the central dir is invalid or has duplicated names
+     */
+    EntryTable(@NonNull ByteBuffer dir, int entryCount, @NonNull Charset charset) throws GsZipException {
+        this.dir = dir.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.charset = charset;
+        offsets = new int[entryCount];
+        nameStarts = new int[entryCount + 1];
+        nameHashes = new int[entryCount];
+        slots = new int[slotCount(entryCount)];
+        byte[] pool = new byte[Math.max(this.dir.limit() / 2, 16)];
+        int pos = 0;
+        for (int i = 0; i < entryCount; ++i) {
+            offsets[i] = pos;
+            int size = EntryHeader.rawCentralSize(this.dir, pos);
+            pool = appendName(pool, i, pos);
+            nameHashes[i] = hashName(pool, nameStarts[i], nameStarts[i + 1]);
+            GsZipUtil.check(insert(i, pool), "Entry already exist");
+            pos += size;
+        }
+        names = Arrays.copyOf(pool, nameStarts[entryCount]);
+    }
+
+    int size() {
+        return offsets.length;
+    }
+
+    /**
+     * Create the entry at index.
+     *
+     * @param index the entry index, should be in range
+     * @return the new entry
+     * @throws GsZipException if the record is invalid
+     */
+    @NonNull
+    GsZipEntry getEntry(int index) throws GsZipException {
+        return new GsZipEntry(index, newHeader(index), charset);
+    }
+
+    /**
+     * Find entry by name, empty segments and leading or trailing slashes are ignored.
+     *
+     * @param name the entry name
+     * @return the entry index, or -1 if not found
+     */
+    int find(@NonNull CharSequence name) {
+        int hash = hashChars(name);
+        int mask = slots.length - 1;
+        for (int slot = mix(hash) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int index = slots[slot] - 1;
+            if (nameHashes[index] == hash && matchChars(index, name)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find entry by name in UTF-8, empty segments and leading or trailing slashes are ignored.
+     *
+     * @param name the entry name in UTF-8
+     * @param off  the start offset of name
+     * @param len  the length of name
+     * @return the entry index, or -1 if not found
+     */
+    int find(@NonNull byte[] name, int off, int len) {
+        int hash = hashBytes(name, off, off + len);
+        int mask = slots.length - 1;
+        for (int slot = mix(hash) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int index = slots[slot] - 1;
+            if (nameHashes[index] == hash && matchBytes(index, name, off, off + len)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find entry by name ignoring case, the first entry in central dir is taken if several match.
+     *
+     * @param name the entry name
+     * @return the entry index, or -1 if not found
+     */
+    int findIgnoreCase(@NonNull CharSequence name) {
+        int[] hashes;
+        int[] folded;
+        synchronized (this) {
+            if (foldedSlots == null) {
+                buildFolded();
+            }
+            hashes = foldedHashes;
+            folded = foldedSlots;
+        }
+        int hash = hashFoldedChars(name);
+        int mask = folded.length - 1;
+        for (int slot = mix(hash) & mask; folded[slot] != 0; slot = (slot + 1) & mask) {
+            int index = folded[slot] - 1;
+            if (hashes[index] == hash && matchFoldedChars(index, name)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    boolean isEncrypted(int index) {
+        return EntryHeader.rawCentralEncrypted(dir, offsets[index]);
+    }
+
+    /**
+     * Check the raw record, same as GsZipEntry.isFile without creating the entry.
+     *
+     * @param index the entry index
+     * @return false if the name ends with slash and the size is 0, the size of ZIP64 extra field if marked
+     */
+    boolean isFile(int index) {
+        int pos = offsets[index];
+        int nameLength = EntryHeader.rawCentralNameLength(dir, pos);
+        boolean folder = (dir.get(pos + EntryHeader.CENTRAL_HEADER_SIZE + nameLength - 1) == '/'
+                && EntryHeader.rawCentralUncompSize(dir, pos) == 0);
+        return !folder;
+    }
+
+    /**
+     * Get the name with empty segments and leading or trailing slashes dropped.
+     *
+     * @param index the entry index
+     * @return the normalized name
+     */
+    @NonNull
+    String getNormalizedName(int index) {
+        int start = nameStarts[index];
+        return new String(names, start, nameStarts[index + 1] - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Append the normalized UTF-8 name of entry to pool.
+     * Names in valid UTF-8 are copied from the record, others are decoded as the entry name and encoded again.
+     *
+     * @return the pool, grown if needed
+     */
+    @NonNull
+    private byte[] appendName(@NonNull byte[] pool, int index, int pos) throws GsZipException {
+        int start = nameStarts[index];
+        int nameStart = pos + EntryHeader.CENTRAL_HEADER_SIZE;
+        int nameEnd = nameStart + EntryHeader.rawCentralNameLength(dir, pos);
+        GsZipUtil.check(nameEnd > nameStart, "Empty file name");
+        boolean raw = EntryHeader.rawCentralUtf8(dir, pos)
+                || (charset.equals(StandardCharsets.UTF_8) && EntryHeader.rawCentralExtraLength(dir, pos) == 0);
+        if (raw && isValidUtf8(dir, nameStart, nameEnd)) {
+            pool = ensureCapacity(pool, start + nameEnd - nameStart);
+            int end = start;
+            boolean started = false;
+            boolean pendingSlash = false;
+            for (int i = nameStart; i < nameEnd; ++i) {
+                byte b = dir.get(i);
+                if (b == '/') {
+                    pendingSlash = started;
+                    continue;
+                }
+                if (pendingSlash) {
+                    pool[end++] = '/';
+                    pendingSlash = false;
+                }
+                pool[end++] = b;
+                started = true;
+            }
+            nameStarts[index + 1] = end;
+        } else {
+            byte[] bytes = normalizeName(newHeader(index).getFileName(charset)).getBytes(StandardCharsets.UTF_8);
+            pool = ensureCapacity(pool, start + bytes.length);
+            System.arraycopy(bytes, 0, pool, start, bytes.length);
+            nameStarts[index + 1] = start + bytes.length;
+        }
+        return pool;
+    }
+
+    private boolean insert(int index, @NonNull byte[] pool) {
+        int hash = nameHashes[index];
+        int start = nameStarts[index];
+        int end = nameStarts[index + 1];
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int other = slots[slot] - 1;
+            if (nameHashes[other] == hash
+                    && rangeEquals(pool, start, end, pool, nameStarts[other], nameStarts[other + 1])) {
+                return false;
+            }
+        }
+        slots[slot] = index + 1;
+        return true;
+    }
+
+    private void buildFolded() {
+        int[] hashes = new int[offsets.length];
+        int[] folded = new int[slots.length];
+        int mask = folded.length - 1;
+        for (int index = 0; index < offsets.length; ++index) {
+            int hash = hashFoldedName(index);
+            hashes[index] = hash;
+            int slot = mix(hash) & mask;
+            boolean duplicated = false;
+            for (; folded[slot] != 0; slot = (slot + 1) & mask) {
+                int other = folded[slot] - 1;
+                if (hashes[other] == hash && foldedEquals(index, other)) {
+                    duplicated = true;
+                    break;
+                }
+            }
+            if (!duplicated) {
+                folded[slot] = index + 1;
+            }
+        }
+        foldedHashes = hashes;
+        foldedSlots = folded;
+    }
+
+    @NonNull
+    private EntryHeader newHeader(int index) throws GsZipException {
+        ByteBuffer buffer = dir.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(offsets[index]);
+        EntryHeader header = new EntryHeader();
+        header.readFrom(buffer, true);
+        return header;
+    }
+
+    private static int hashName(@NonNull byte[] pool, int start, int end) {
+        int hash = FNV_BASIS;
+        for (int i = start; i < end; ++i) {
+            hash = (hash ^ (pool[i] & 0xFF)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static int hashBytes(@NonNull byte[] name, int start, int end) {
+        int hash = FNV_BASIS;
+        boolean started = false;
+        boolean pendingSlash = false;
+        for (int i = start; i < end; ++i) {
+            byte b = name[i];
+            if (b == '/') {
+                pendingSlash = started;
+                continue;
+            }
+            if (pendingSlash) {
+                hash = (hash ^ '/') * FNV_PRIME;
+                pendingSlash = false;
+            }
+            hash = (hash ^ (b & 0xFF)) * FNV_PRIME;
+            started = true;
+        }
+        return hash;
+    }
+
+    private boolean matchBytes(int index, @NonNull byte[] name, int start, int end) {
+        int pos = nameStarts[index];
+        int posEnd = nameStarts[index + 1];
+        boolean started = false;
+        boolean pendingSlash = false;
+        for (int i = start; i < end; ++i) {
+            byte b = name[i];
+            if (b == '/') {
+                pendingSlash = started;
+                continue;
+            }
+            if (pendingSlash) {
+                if (pos == posEnd || names[pos++] != '/') {
+                    return false;
+                }
+                pendingSlash = false;
+            }
+            if (pos == posEnd || names[pos++] != b) {
+                return false;
+            }
+            started = true;
+        }
+        return pos == posEnd;
+    }
+
+    /**
+     * Hash the normalized name as UTF-8 bytes, same as String.getBytes does, without encoding it.
+     */
+    private static int hashChars(@NonNull CharSequence name) {
+        int hash = FNV_BASIS;
+        boolean started = false;
+        boolean pendingSlash = false;
+        int length = name.length();
+        for (int i = 0; i < length; ) {
+            int cp = codePointAt(name, i);
+            i += Character.charCount(cp);
+            if (cp == '/') {
+                pendingSlash = started;
+                continue;
+            }
+            if (pendingSlash) {
+                hash = (hash ^ '/') * FNV_PRIME;
+                pendingSlash = false;
+            }
+            for (int k = 0, count = utf8Length(cp); k < count; ++k) {
+                hash = (hash ^ utf8Byte(cp, count, k)) * FNV_PRIME;
+            }
+            started = true;
+        }
+        return hash;
+    }
+
+    private boolean matchChars(int index, @NonNull CharSequence name) {
+        int pos = nameStarts[index];
+        int posEnd = nameStarts[index + 1];
+        boolean started = false;
+        boolean pendingSlash = false;
+        int length = name.length();
+        for (int i = 0; i < length; ) {
+            int cp = codePointAt(name, i);
+            i += Character.charCount(cp);
+            if (cp == '/') {
+                pendingSlash = started;
+                continue;
+            }
+            if (pendingSlash) {
+                if (pos == posEnd || names[pos++] != '/') {
+                    return false;
+                }
+                pendingSlash = false;
+            }
+            int count = utf8Length(cp);
+            if (posEnd - pos < count) {
+                return false;
+            }
+            for (int k = 0; k < count; ++k) {
+                if ((names[pos++] & 0xFF) != utf8Byte(cp, count, k)) {
+                    return false;
+                }
+            }
+            started = true;
+        }
+        return pos == posEnd;
+    }
+
+    private int hashFoldedName(int index) {
+        int hash = FNV_BASIS;
+        int end = nameStarts[index + 1];
+        for (int pos = nameStarts[index]; pos < end; pos += utf8SeqLength(names[pos])) {
+            hash = (hash ^ fold(decodeUtf8(names, pos))) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static int hashFoldedChars(@NonNull CharSequence name) {
+        int hash = FNV_BASIS;
+        boolean started = false;
+        boolean pendingSlash = false;
+        int length = name.length();
+        for (int i = 0; i < length; ) {
+            int cp = codePointAt(name, i);
+            i += Character.charCount(cp);
+            if (cp == '/') {
+                pendingSlash = started;
+                continue;
+            }
+            if (pendingSlash) {
+                hash = (hash ^ '/') * FNV_PRIME;
+                pendingSlash = false;
+            }
+            hash = (hash ^ fold(cp)) * FNV_PRIME;
+            started = true;
+        }
+        return hash;
+    }
+
+    private boolean matchFoldedChars(int index, @NonNull CharSequence name) {
+        int pos = nameStarts[index];
+        int posEnd = nameStarts[index + 1];
+        boolean started = false;
+        boolean pendingSlash = false;
+        int length = name.length();
+        for (int i = 0; i < length; ) {
+            int cp = codePointAt(name, i);
+            i += Character.charCount(cp);
+            if (cp == '/') {
+                pendingSlash = started;
+                continue;
+            }
+            if (pendingSlash) {
+                if (pos == posEnd || names[pos++] != '/') {
+                    return false;
+                }
+                pendingSlash = false;
+            }
+            if (pos == posEnd || fold(decodeUtf8(names, pos)) != fold(cp)) {
+                return false;
+            }
+            pos += utf8SeqLength(names[pos]);
+            started = true;
+        }
+        return pos == posEnd;
+    }
+
+    private boolean foldedEquals(int index, int other) {
+        int pos = nameStarts[index];
+        int end = nameStarts[index + 1];
+        int otherPos = nameStarts[other];
+        int otherEnd = nameStarts[other + 1];
+        while (pos < end && otherPos < otherEnd) {
+            if (fold(decodeUtf8(names, pos)) != fold(decodeUtf8(names, otherPos))) {
+                return false;
+            }
+            pos += utf8SeqLength(names[pos]);
+            otherPos += utf8SeqLength(names[otherPos]);
+        }
+        return pos == end && otherPos == otherEnd;
+    }
+
+    /**
+     * Code point at index, unpaired surrogates become '?' as String.getBytes does.
+     */
+    private static int codePointAt(@NonNull CharSequence name, int index) {
+        char c = name.charAt(index);
+        if (Character.isHighSurrogate(c) && index + 1 < name.length()
+                && Character.isLowSurrogate(name.charAt(index + 1))) {
+            return Character.toCodePoint(c, name.charAt(index + 1));
+        }
+        return Character.isSurrogate(c) ? '?' : c;
+    }
+
+    private static int fold(int cp) {
+        return Character.toLowerCase(Character.toUpperCase(cp));
+    }
+
+    private static int utf8Length(int cp) {
+        return (cp < 0x80 ? 1 : (cp < 0x800 ? 2 : (cp < 0x10000 ? 3 : 4)));
+    }
+
+    private static int utf8Byte(int cp, int count, int k) {
+        if (count == 1) {
+            return cp;
+        }
+        int shift = (count - 1 - k) * 6;
+        if (k == 0) {
+            return ((0xF00 >> count) & 0xF0) | (cp >> shift);
+        }
+        return 0x80 | ((cp >> shift) & 0x3F);
+    }
+
+    private static int utf8SeqLength(byte lead) {
+        int b = lead & 0xFF;
+        return (b < 0x80 ? 1 : (b < 0xE0 ? 2 : (b < 0xF0 ? 3 : 4)));
+    }
+
+    /**
+     * Decode a code point from valid UTF-8, the names in pool are always valid.
+     */
+    private static int decodeUtf8(@NonNull byte[] bytes, int pos) {
+        int b = bytes[pos] & 0xFF;
+        int count = utf8SeqLength(bytes[pos]);
+        if (count == 1) {
+            return b;
+        }
+        int cp = b & (0x7F >> count);
+        for (int k = 1; k < count; ++k) {
+            cp = (cp << 6) | (bytes[pos + k] & 0x3F);
+        }
+        return cp;
+    }
+
+    private static boolean isValidUtf8(@NonNull ByteBuffer buffer, int start, int end) {
+        int i = start;
+        while (i < end) {
+            int b = buffer.get(i) & 0xFF;
+            if (b < 0x80) {
+                ++i;
+                continue;
+            }
+            int count;
+            int min;
+            if (b >= 0xC2 && b < 0xE0) {
+                count = 2;
+                min = 0x80;
+            } else if (b >= 0xE0 && b < 0xF0) {
+                count = 3;
+                min = 0x800;
+            } else if (b >= 0xF0 && b < 0xF5) {
+                count = 4;
+                min = 0x10000;
+            } else {
+                return false;
+            }
+            if (end - i < count) {
+                return false;
+            }
+            int cp = b & (0x7F >> count);
+            for (int k = 1; k < count; ++k) {
+                int c = buffer.get(i + k) & 0xFF;
+                if ((c & 0xC0) != 0x80) {
+                    return false;
+                }
+                cp = (cp << 6) | (c & 0x3F);
+            }
+            if (cp < min || cp > 0x10FFFF || (cp >= 0xD800 && cp < 0xE000)) {
+                return false;
+            }
+            i += count;
+        }
+        return true;
+    }
+
+    private static boolean rangeEquals(@NonNull byte[] a, int aStart, int aEnd,
+                                       @NonNull byte[] b, int bStart, int bEnd) {
+        if (aEnd - aStart != bEnd - bStart) {
+            return false;
+        }
+        for (int i = aStart, j = bStart; i < aEnd; ++i, ++j) {
+            if (a[i] != b[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @NonNull
+    private static byte[] ensureCapacity(@NonNull byte[] pool, int capacity) {
+        if (capacity <= pool.length) {
+            return pool;
+        }
+        return Arrays.copyOf(pool, Math.max(capacity, pool.length * 2));
+    }
+
+    private static int slotCount(int entryCount) {
+        // Power of 2, load factor no more than 0.5
+        int count = 2;
+        while (count < entryCount * 2L) {
+            count <<= 1;
+        }
+        return count;
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Drop empty segments, so "a//b/" and "a/b" are the same name.
+     *
+     * @param name the name to normalize
+     * @return the normalized name
+     */
+    @NonNull
+    static String normalizeName(@NonNull String name) {
+        int length = name.length();
+        boolean normalized = (length == 0 || (name.charAt(0) != '/' && name.charAt(length - 1) != '/'))
+                && !name.contains("//");
+        if (normalized) {
+            return name;
+        }
+        StringBuilder builder = new StringBuilder(length);
+        int start = 0;
+        while (start < length) {
+            int end = name.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end > start) {
+                if (builder.length() > 0) {
+                    builder.append('/');
+                }
+                builder.append(name, start, end);
+            }
+            start = end + 1;
+        }
+        return builder.toString();
+    }
+}
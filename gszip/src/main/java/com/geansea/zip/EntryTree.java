@@ -0,0 +1,249 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Compact tree of entries in arrays, nodes are referred by id and root is 0.
+ * Node names are interned segments, children of each node are a range of ids sorted by name.
+ * GsZipEntryNode is a light view of a node id, created on demand.
+ */
+final class EntryTree {
+    static final int ROOT = 0;
+
+    @NonNull
+    private final EntryTable table;
+    @NonNull
+    private final String[] names;
+    @NonNull
+    private final int[] parents;
+    /**
+     * Entry index of node, -1 for folder without entry.
+     */
+    @NonNull
+    private final int[] entries;
+    /**
+     * Children of node i are children[childStarts[i]] to children[childStarts[i + 1] - 1].
+     */
+    @NonNull
+    private final int[] childStarts;
+    @NonNull
+    private final int[] children;
+
+    /**
+     * Build the tree of all entries.
+     * Entries conflicting with the tree, like a file with children, are left out of the tree.
+     * Of a file and its children, the ones coming later are left out, whichever they are.
+     *
+     * @param table the entry table
+     */
+    EntryTree(@NonNull EntryTable table) {
+        this.table = table;
+        int capacity = table.size() + 1;
+        String[] nodeNames = new String[capacity];
+        int[] nodeParents = new int[capacity];
+        int[] nodeEntries = new int[capacity];
+        boolean[] nodeHasChildren = new boolean[capacity];
+        nodeNames[ROOT] = "";
+        nodeParents[ROOT] = -1;
+        nodeEntries[ROOT] = -1;
+        int count = 1;
+
+        // Only for building, full path to node and segment interning
+        HashMap<String, Integer> pathNodes = new HashMap<>();
+        HashMap<String, String> segments = new HashMap<>();
+        for (int index = 0; index < table.size(); ++index) {
+            String path = table.getNormalizedName(index);
+            if (path.isEmpty()) {
+                continue;
+            }
+            int node = ROOT;
+            boolean conflict = false;
+            int start = 0;
+            while (start <= path.length()) {
+                if (nodeEntries[node] >= 0 && table.isFile(nodeEntries[node])) {
+                    // Adding child for file node
+                    conflict = true;
+                    break;
+                }
+                int end = path.indexOf('/', start);
+                end = (end < 0 ? path.length() : end);
+                String prefix = path.substring(0, end);
+                Integer child = pathNodes.get(prefix);
+                if (child == null) {
+                    if (count == nodeNames.length) {
+                        int newCapacity = count * 2;
+                        nodeNames = Arrays.copyOf(nodeNames, newCapacity);
+                        nodeParents = Arrays.copyOf(nodeParents, newCapacity);
+                        nodeEntries = Arrays.copyOf(nodeEntries, newCapacity);
+                        nodeHasChildren = Arrays.copyOf(nodeHasChildren, newCapacity);
+                    }
+                    String name = path.substring(start, end);
+                    String interned = segments.get(name);
+                    if (interned == null) {
+                        interned = name;
+                        segments.put(name, name);
+                    }
+                    nodeNames[count] = interned;
+                    nodeParents[count] = node;
+                    nodeEntries[count] = -1;
+                    nodeHasChildren[node] = true;
+                    child = count++;
+                    pathNodes.put(prefix, child);
+                }
+                node = child;
+                start = end + 1;
+            }
+            if (!conflict && nodeHasChildren[node] && table.isFile(index)) {
+                // File for node with children
+                conflict = true;
+            }
+            if (!conflict && nodeEntries[node] < 0) {
+                nodeEntries[node] = index;
+            }
+        }
+        names = Arrays.copyOf(nodeNames, count);
+        parents = Arrays.copyOf(nodeParents, count);
+        entries = Arrays.copyOf(nodeEntries, count);
+
+        // Sort by parent then name, so children of each node are in a sorted range
+        Integer[] sorted = new Integer[count - 1];
+        for (int id = 1; id < count; ++id) {
+            sorted[id - 1] = id;
+        }
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                int lhsParent = parents[lhs];
+                int rhsParent = parents[rhs];
+                if (lhsParent != rhsParent) {
+                    return (lhsParent < rhsParent ? -1 : 1);
+                }
+                return names[lhs].compareTo(names[rhs]);
+            }
+        });
+        children = new int[sorted.length];
+        childStarts = new int[count + 1];
+        for (int i = 0; i < sorted.length; ++i) {
+            children[i] = sorted[i];
+            ++childStarts[parents[sorted[i]] + 1];
+        }
+        for (int id = 0; id < count; ++id) {
+            childStarts[id + 1] += childStarts[id];
+        }
+    }
+
+    @NonNull
+    String getName(int id) {
+        return names[id];
+    }
+
+    int getParent(int id) {
+        return parents[id];
+    }
+
+    boolean isFile(int id) {
+        int index = entries[id];
+        return (index >= 0 && table.isFile(index));
+    }
+
+    /**
+     * Create the entry of node.
+     *
+     * @param id the node id
+     * @return the entry, or null for folder without entry or invalid record
+     */
+    @Nullable
+    GsZipEntry getEntry(int id) {
+        int index = entries[id];
+        if (index < 0) {
+            return null;
+        }
+        try {
+            return table.getEntry(index);
+        } catch (GsZipException e) {
+            return null;
+        }
+    }
+
+    @NonNull
+    List<GsZipEntryNode> getChildren(int id) {
+        return new ChildList(childStarts[id], childStarts[id + 1]);
+    }
+
+    /**
+     * Find child by name in a range of string, with binary search.
+     *
+     * @param id    the node id
+     * @param name  the string having the name
+     * @param start the start of name
+     * @param end   the end of name
+     * @return the child id, or -1 if not found
+     */
+    int findChild(int id, @NonNull String name, int start, int end) {
+        int low = childStarts[id];
+        int high = childStarts[id + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int result = compareName(names[children[mid]], name, start, end);
+            if (result < 0) {
+                low = mid + 1;
+            } else if (result > 0) {
+                high = mid - 1;
+            } else {
+                return children[mid];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Same order as String.compareTo, with the other string as a range.
+     */
+    private static int compareName(@NonNull String lhs, @NonNull String rhs, int start, int end) {
+        int lhsLength = lhs.length();
+        int rhsLength = end - start;
+        int length = Math.min(lhsLength, rhsLength);
+        for (int i = 0; i < length; ++i) {
+            char lhsChar = lhs.charAt(i);
+            char rhsChar = rhs.charAt(start + i);
+            if (lhsChar != rhsChar) {
+                return lhsChar - rhsChar;
+            }
+        }
+        return lhsLength - rhsLength;
+    }
+
+    /**
+     * Read-only view of children, nodes are created on get.
+     */
+    private final class ChildList extends AbstractList<GsZipEntryNode> implements RandomAccess {
+        private final int start;
+        private final int end;
+
+        ChildList(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public GsZipEntryNode get(int index) {
+            if (index < 0 || index >= end - start) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+            return new GsZipEntryNode(EntryTree.this, children[start + index]);
+        }
+
+        @Override
+        public int size() {
+            return end - start;
+        }
+    }
+}
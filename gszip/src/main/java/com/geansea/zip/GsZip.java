@@ -3,46 +3,33 @@ package com.geansea.zip;
 import android.support.annotation.NonNull;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 
 public class GsZip {
     public static boolean unpackToFolder(@NonNull String zipPath, @NonNull String dirPath, @NonNull String password) {
         try {
             GsZipFile zip = GsZipFile.create(zipPath);
-            File dir = new File(dirPath);
-            GsZipUtil.check(!dir.exists(), "Folder already exist: " + dirPath);
-            GsZipUtil.check(dir.mkdirs(), "Make dirs Failed");
-            if (zip.needPassword()) {
-                GsZipUtil.check(!password.isEmpty(), "Password is empty");
-                zip.setPassword(password);
-            }
-            for (int index = 0; index < zip.size(); ++index) {
-                GsZipEntry entry = zip.getEntry(index);
-                File file = new File(dir.getPath(), entry.getName());
-                if (entry.isFile()) {
-                    GsZipUtil.check(!file.exists(), "File already exists");
-                    if (file.getParentFile() != null && !file.getParentFile().exists()) {
-                        GsZipUtil.check(file.getParentFile().mkdirs(), "Create parent dirs fail");
-                    }
-                    GsZipUtil.check(file.createNewFile(), "Create file fail");
-                    InputStream entryStream = zip.getInputStream(index);
-                    OutputStream outStream = new FileOutputStream(file);
-                    byte[] buffer = new byte[1024];
-                    int count;
-                    while ((count = entryStream.read(buffer)) > 0) {
-                        outStream.write(buffer, 0, count);
-                    }
-                } else {
-                    if (!file.exists()) {
-                        GsZipUtil.check(file.mkdirs(), "Create dirs fail");
-                    }
+            try {
+                File dir = new File(dirPath);
+                GsZipUtil.check(!dir.exists(), "Folder already exist: " + dirPath);
+                GsZipUtil.check(dir.mkdirs(), "Make dirs Failed");
+                if (zip.needPassword()) {
+                    GsZipUtil.check(!password.isEmpty(), "Password is empty");
+                    zip.setPassword(password);
                 }
+                GsZipUnpacker unpacker = new GsZipUnpacker(zip);
+                if (!unpacker.unpackTo(dirPath)) {
+                    // Messages of each entry are kept by unpacker
+                    throw new GsZipException("Unpack fail: " + unpacker.getFailures().keySet());
+                }
+                return true;
+            } finally {
+                zip.close();
             }
-            return true;
         } catch (@NonNull IOException | GsZipException e) {
             e.printStackTrace();
             return false;
@@ -95,6 +82,59 @@ public class GsZip {
         return packFolder(filePath, zipPath, password, true);
     }
 
+    /**
+     * Merge zip files into a new one, the entries are copied as stored without compressing again.
+     * Encrypted entries are kept encrypted with their passwords.
+     *
+     * @param zipPaths the paths of zip files, entries of each are added in turn
+     * @param outPath  the path of new zip file, should not exist
+     * @return true if succeeded, it fails if two zip files have the same file entry
+     */
+    public static boolean mergeZips(@NonNull List<String> zipPaths, @NonNull String outPath) {
+        return copyEntries(zipPaths, GsZipEntryFilter.all(), outPath);
+    }
+
+    /**
+     * Copy selected entries of zip file into a new one, renamed by filter, without compressing again.
+     *
+     * @param zipPath the path of zip file
+     * @param filter  the filter to select and rename entries
+     * @param outPath the path of new zip file, should not exist
+     * @return true if succeeded
+     */
+    public static boolean filterZip(@NonNull String zipPath,
+                                    @NonNull GsZipEntryFilter filter,
+                                    @NonNull String outPath) {
+        return copyEntries(Collections.singletonList(zipPath), filter, outPath);
+    }
+
+    private static boolean copyEntries(@NonNull List<String> zipPaths,
+                                       @NonNull GsZipEntryFilter filter,
+                                       @NonNull String outPath) {
+        ArrayList<GsZipFile> zips = new ArrayList<>();
+        try {
+            GsZipPacker packer = new GsZipPacker();
+            for (String zipPath : zipPaths) {
+                GsZipFile zip = GsZipFile.create(zipPath);
+                zips.add(zip);
+                GsZipUtil.check(packer.addRawEntries(zip, filter), "Add entries fail: " + zipPath);
+            }
+            GsZipUtil.check(packer.packTo(outPath, ""), "Pack fail");
+            return true;
+        } catch (GsZipException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            for (GsZipFile zip : zips) {
+                try {
+                    zip.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
     private static void collectFilePaths(@NonNull File folder,
                                          @NonNull String baseDir,
                                          @NonNull LinkedList<String> paths) {
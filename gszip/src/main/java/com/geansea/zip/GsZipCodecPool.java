@@ -0,0 +1,187 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Process wide pool of raw Inflater and Deflater, to reuse native zlib contexts between streams.
+ * Streams of GsZip take instances on creation and return them on close, reset.
+ * Idle instances are bounded per key, instances over the bound are ended at once.
+ */
+public final class GsZipCodecPool {
+    private static final int DEFAULT_MAX_IDLE = Math.max(Runtime.getRuntime().availableProcessors() * 2, 4);
+
+    @NonNull
+    private static final ArrayDeque<Inflater> inflaters = new ArrayDeque<>();
+    @NonNull
+    private static final HashMap<Integer, ArrayDeque<Deflater>> deflaters = new HashMap<>();
+    @NonNull
+    private static final AtomicLong inflaterHits = new AtomicLong();
+    @NonNull
+    private static final AtomicLong inflaterMisses = new AtomicLong();
+    @NonNull
+    private static final AtomicLong deflaterHits = new AtomicLong();
+    @NonNull
+    private static final AtomicLong deflaterMisses = new AtomicLong();
+    private static int maxIdle = DEFAULT_MAX_IDLE;
+
+    private GsZipCodecPool() {
+    }
+
+    /**
+     * Set the max count of idle instances kept for each key, 0 to disable pooling.
+     *
+     * @param maxIdle the max count of idle instances
+     */
+    public static synchronized void setMaxIdle(int maxIdle) {
+        GsZipCodecPool.maxIdle = Math.max(maxIdle, 0);
+        trim(inflaters);
+        for (ArrayDeque<Deflater> queue : deflaters.values()) {
+            trim(queue);
+        }
+    }
+
+    /**
+     * End all idle instances to free their native memory.
+     */
+    public static synchronized void clear() {
+        for (Inflater inflater : inflaters) {
+            inflater.end();
+        }
+        inflaters.clear();
+        for (ArrayDeque<Deflater> queue : deflaters.values()) {
+            for (Deflater deflater : queue) {
+                deflater.end();
+            }
+        }
+        deflaters.clear();
+    }
+
+    public static long getInflaterHits() {
+        return inflaterHits.get();
+    }
+
+    public static long getInflaterMisses() {
+        return inflaterMisses.get();
+    }
+
+    public static long getDeflaterHits() {
+        return deflaterHits.get();
+    }
+
+    public static long getDeflaterMisses() {
+        return deflaterMisses.get();
+    }
+
+    public static void resetStats() {
+        inflaterHits.set(0);
+        inflaterMisses.set(0);
+        deflaterHits.set(0);
+        deflaterMisses.set(0);
+    }
+
+    /**
+     * Take a raw inflater, should be returned by releaseInflater.
+     *
+     * @return the inflater
+     */
+    @NonNull
+    static Inflater obtainInflater() {
+        Inflater inflater;
+        synchronized (GsZipCodecPool.class) {
+            inflater = inflaters.pollLast();
+        }
+        if (inflater != null) {
+            inflaterHits.incrementAndGet();
+            return inflater;
+        }
+        inflaterMisses.incrementAndGet();
+        return new Inflater(true);
+    }
+
+    /**
+     * Return a raw inflater, it should not be used by caller any more.
+     *
+     * @param inflater the inflater from obtainInflater
+     */
+    static void releaseInflater(@NonNull Inflater inflater) {
+        inflater.reset();
+        synchronized (GsZipCodecPool.class) {
+            if (inflaters.size() < maxIdle) {
+                inflaters.addLast(inflater);
+                return;
+            }
+        }
+        inflater.end();
+    }
+
+    /**
+     * Take a raw deflater of level and strategy, should be returned by releaseDeflater with the same ones.
+     *
+     * @param level    the compression level
+     * @param strategy the compression strategy
+     * @return the deflater
+     */
+    @NonNull
+    static Deflater obtainDeflater(int level, int strategy) {
+        Deflater deflater = null;
+        synchronized (GsZipCodecPool.class) {
+            ArrayDeque<Deflater> queue = deflaters.get(deflaterKey(level, strategy));
+            if (queue != null) {
+                deflater = queue.pollLast();
+            }
+        }
+        if (deflater != null) {
+            deflaterHits.incrementAndGet();
+            return deflater;
+        }
+        deflaterMisses.incrementAndGet();
+        deflater = new Deflater(level, true);
+        deflater.setStrategy(strategy);
+        return deflater;
+    }
+
+    /**
+     * Return a raw deflater, it should not be used by caller any more.
+     *
+     * @param deflater the deflater from obtainDeflater
+     * @param level    the compression level to obtain it
+     * @param strategy the compression strategy to obtain it
+     */
+    static void releaseDeflater(@NonNull Deflater deflater, int level, int strategy) {
+        deflater.reset();
+        synchronized (GsZipCodecPool.class) {
+            int key = deflaterKey(level, strategy);
+            ArrayDeque<Deflater> queue = deflaters.get(key);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                deflaters.put(key, queue);
+            }
+            if (queue.size() < maxIdle) {
+                queue.addLast(deflater);
+                return;
+            }
+        }
+        deflater.end();
+    }
+
+    private static int deflaterKey(int level, int strategy) {
+        return (level << 8) | (strategy & 0xFF);
+    }
+
+    private static void trim(@NonNull ArrayDeque<?> queue) {
+        while (queue.size() > maxIdle) {
+            Object codec = queue.pollFirst();
+            if (codec instanceof Inflater) {
+                ((Inflater) codec).end();
+            } else if (codec instanceof Deflater) {
+                ((Deflater) codec).end();
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Policy of GsZipPacker to decide how each file entry is compressed.
+ * It is consulted once per file with entry name, file size and the first bytes of file,
+ * and may be called from several threads at the same time when packing with threads.
+ */
+public abstract class GsZipCompressionPolicy {
+    /**
+     * The max count of first bytes given to decide.
+     */
+    public static final int HEAD_SIZE = 4096;
+
+    /**
+     * Extensions of file types already compressed, in lower case.
+     */
+    @NonNull
+    public static final Set<String> INCOMPRESSIBLE_EXTENSIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "jpg", "jpeg", "png", "gif", "webp", "heic",
+            "mp3", "m4a", "aac", "ogg", "opus", "flac",
+            "mp4", "m4v", "mkv", "webm", "avi", "mov",
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "zst",
+            "jar", "apk", "docx", "xlsx", "pptx", "epub")));
+
+    /**
+     * How to compress an entry.
+     */
+    public static final class Decision {
+        @NonNull
+        public static final Decision STORED = new Decision(true, Deflater.NO_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+
+        private final boolean stored;
+        private final int level;
+        private final int strategy;
+
+        private Decision(boolean stored, int level, int strategy) {
+            this.stored = stored;
+            this.level = level;
+            this.strategy = strategy;
+        }
+
+        /**
+         * Deflate with level and strategy, level 0 is the same as stored.
+         *
+         * @param level    the compression level, 0 to 9
+         * @param strategy the strategy, Deflater.DEFAULT_STRATEGY, FILTERED or HUFFMAN_ONLY
+         * @return the decision
+         */
+        @NonNull
+        public static Decision deflate(int level, int strategy) {
+            if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+                throw new IllegalArgumentException("Invalid level " + level);
+            }
+            if (strategy != Deflater.DEFAULT_STRATEGY
+                    && strategy != Deflater.FILTERED
+                    && strategy != Deflater.HUFFMAN_ONLY) {
+                throw new IllegalArgumentException("Invalid strategy " + strategy);
+            }
+            if (level == Deflater.NO_COMPRESSION) {
+                return STORED;
+            }
+            return new Decision(false, level, strategy);
+        }
+
+        public boolean isStored() {
+            return stored;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public int getStrategy() {
+            return strategy;
+        }
+
+        @Override
+        public String toString() {
+            return stored ? "STORED" : ("FLATE(" + level + "," + strategy + ")");
+        }
+    }
+
+    /**
+     * Decide how to compress a file entry.
+     * Even if deflate is decided, the packer stores the file when deflated data is not smaller.
+     *
+     * @param name the entry name
+     * @param size the file size, more than 0
+     * @param head the first bytes of file, up to HEAD_SIZE
+     * @return the decision
+     */
+    @NonNull
+    public abstract Decision decide(@NonNull String name, long size, @NonNull byte[] head);
+
+    /**
+     * Deflate all files with the same level and default strategy.
+     *
+     * @param level the compression level, 0 to 9
+     * @return the policy
+     */
+    @NonNull
+    public static GsZipCompressionPolicy level(int level) {
+        final Decision decision = Decision.deflate(level, Deflater.DEFAULT_STRATEGY);
+        return new GsZipCompressionPolicy() {
+            @NonNull
+            @Override
+            public Decision decide(@NonNull String name, long size, @NonNull byte[] head) {
+                return decision;
+            }
+        };
+    }
+
+    /**
+     * Deflate all files at best compression, the default policy.
+     *
+     * @return the policy
+     */
+    @NonNull
+    public static GsZipCompressionPolicy best() {
+        return level(Deflater.BEST_COMPRESSION);
+    }
+
+    /**
+     * Deflate all files at best speed, for latency sensitive packing.
+     *
+     * @return the policy
+     */
+    @NonNull
+    public static GsZipCompressionPolicy fast() {
+        return level(Deflater.BEST_SPEED);
+    }
+
+    /**
+     * Store files of INCOMPRESSIBLE_EXTENSIONS or with signature of compressed formats, others by base policy.
+     *
+     * @param base the policy for other files
+     * @return the policy
+     */
+    @NonNull
+    public static GsZipCompressionPolicy storeIncompressible(@NonNull GsZipCompressionPolicy base) {
+        return storeExtensions(base, INCOMPRESSIBLE_EXTENSIONS);
+    }
+
+    /**
+     * Store files of extensions or with signature of compressed formats, others by base policy.
+     *
+     * @param base       the policy for other files
+     * @param extensions the extensions without dot, case insensitive
+     * @return the policy
+     */
+    @NonNull
+    public static GsZipCompressionPolicy storeExtensions(@NonNull final GsZipCompressionPolicy base,
+                                                         @NonNull Collection<String> extensions) {
+        final Set<String> extensionSet = new HashSet<>();
+        for (String extension : extensions) {
+            extensionSet.add(extension.toLowerCase(Locale.ROOT));
+        }
+        return new GsZipCompressionPolicy() {
+            @NonNull
+            @Override
+            public Decision decide(@NonNull String name, long size, @NonNull byte[] head) {
+                if (extensionSet.contains(getExtension(name)) || hasCompressedSignature(head)) {
+                    return Decision.STORED;
+                }
+                return base.decide(name, size, head);
+            }
+        };
+    }
+
+    @NonNull
+    static String getExtension(@NonNull String name) {
+        int slashPos = name.lastIndexOf('/');
+        int dotPos = name.lastIndexOf('.');
+        if (dotPos <= slashPos + 1) {
+            return "";
+        }
+        return name.substring(dotPos + 1).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Check the signatures of JPEG, PNG, GIF, ZIP, GZIP, BZIP2, XZ, 7Z, RAR and ZSTD.
+     *
+     * @param head the first bytes of file
+     * @return true if matched
+     */
+    static boolean hasCompressedSignature(@NonNull byte[] head) {
+        return startsWith(head, 0xFF, 0xD8, 0xFF)
+                || startsWith(head, 0x89, 'P', 'N', 'G')
+                || startsWith(head, 'G', 'I', 'F', '8')
+                || startsWith(head, 'P', 'K', 0x03, 0x04)
+                || startsWith(head, 0x1F, 0x8B)
+                || startsWith(head, 'B', 'Z', 'h')
+                || startsWith(head, 0xFD, '7', 'z', 'X', 'Z', 0x00)
+                || startsWith(head, '7', 'z', 0xBC, 0xAF, 0x27, 0x1C)
+                || startsWith(head, 'R', 'a', 'r', '!')
+                || startsWith(head, 0x28, 0xB5, 0x2F, 0xFD);
+    }
+
+    private static boolean startsWith(@NonNull byte[] head, int... signature) {
+        if (head.length < signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; ++i) {
+            if ((head[i] & 0xFF) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
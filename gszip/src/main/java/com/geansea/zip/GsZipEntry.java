@@ -1,6 +1,7 @@
 package com.geansea.zip;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import java.nio.charset.Charset;
 import java.util.Date;
@@ -15,6 +16,7 @@ public class GsZipEntry {
     enum EncryptMethod {
         NONE,
         PKWARE,
+        AES,
         NONSUPPORT
     }
 
@@ -22,32 +24,41 @@ public class GsZipEntry {
     @NonNull
     private final EntryHeader header;
     @NonNull
-    private final String name;
-    @NonNull
-    private final Date time;
+    private final Charset charset;
+    @Nullable
+    private String name;
+    @Nullable
+    private Date time;
 
     GsZipEntry(int index, @NonNull EntryHeader header, @NonNull Charset charset) {
         this.index = index;
         this.header = header;
-        name = header.getFileName(charset);
-        time = header.getLastModifiedTime();
+        this.charset = charset;
+        // Name and time are decoded on first use
+        name = null;
+        time = null;
     }
 
     public int getIndex() {
         return index;
     }
 
-    boolean matchLocal(@NonNull GsZipEntry entry) {
-        return header.matchLocal(entry.header);
+    boolean matchLocal(@NonNull EntryHeader localHeader) {
+        return header.matchLocal(localHeader);
     }
 
     @NonNull
     public String getName() {
-        return name;
+        String entryName = name;
+        if (entryName == null) {
+            entryName = header.getFileName(charset);
+            name = entryName;
+        }
+        return entryName;
     }
 
     public boolean isFile() {
-        return !(name.endsWith("/") && header.getUncompSize() == 0);
+        return !(getName().endsWith("/") && header.getUncompSize() == 0);
     }
 
     @NonNull
@@ -57,6 +68,8 @@ public class GsZipEntry {
                 return EncryptMethod.NONE;
             case EntryHeader.ENCRYPT_PKWARE:
                 return EncryptMethod.PKWARE;
+            case EntryHeader.ENCRYPT_AES:
+                return EncryptMethod.AES;
             default:
                 return EncryptMethod.NONSUPPORT;
         }
@@ -84,9 +97,19 @@ public class GsZipEntry {
 
     @NonNull
     public Date getTime() {
-        return time;
+        Date entryTime = time;
+        if (entryTime == null) {
+            entryTime = header.getLastModifiedTime();
+            time = entryTime;
+        }
+        return entryTime;
     }
 
+    /**
+     * Get the CRC32 of original data, it is 0 for AES entries in AE-2 format.
+     *
+     * @return the CRC32 value
+     */
     public int getCRC() {
         return header.getCRC();
     }
@@ -99,15 +122,24 @@ public class GsZipEntry {
         return header.getCrcCheck();
     }
 
-    public int getCompressedSize() {
+    int getAesStrength() {
+        return header.getAesStrength();
+    }
+
+    public long getCompressedSize() {
         return header.getCompSize();
     }
 
-    public int getOriginalSize() {
+    public long getOriginalSize() {
         return header.getUncompSize();
     }
 
-    int getLocalOffset() {
+    long getLocalOffset() {
         return header.getLocalOffset();
     }
+
+    @NonNull
+    EntryHeader copyHeader(@NonNull String name) {
+        return header.copyWithName(name);
+    }
 }
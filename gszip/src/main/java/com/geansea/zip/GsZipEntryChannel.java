@@ -0,0 +1,145 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Read-only seekable channel over the data of a STORED entry without encryption.
+ * Positions are mapped onto the archive directly, so a read at any position is one positional read of archive,
+ * or one copy from mapping when opened in mapped mode.
+ * Positional reads do not change the channel position and can be used concurrently.
+ * Closing the channel does not close the archive.
+ */
+public final class GsZipEntryChannel implements SeekableByteChannel {
+    @NonNull
+    private final FileChannel channel;
+    @Nullable
+    private final MappedArchive mappedArchive;
+    private final long start;
+    private final long size;
+    private long position;
+    private volatile boolean open;
+
+    GsZipEntryChannel(@NonNull FileChannel channel, @Nullable MappedArchive mappedArchive, long start, long size)
+            throws IOException, GsZipException {
+        GsZipUtil.check(start >= 0 && size >= 0 && start + size <= channel.size(), "Entry data out of file");
+        this.channel = channel;
+        this.mappedArchive = mappedArchive;
+        this.start = start;
+        this.size = size;
+        position = 0;
+        open = true;
+    }
+
+    /**
+     * Read bytes from the channel position, the position is moved by the count read.
+     *
+     * @param dst the buffer to read into
+     * @return the count read, or -1 if at the end of entry
+     * @throws IOException if closed or failed
+     */
+    @Override
+    public synchronized int read(@NonNull ByteBuffer dst) throws IOException {
+        int count = read(dst, position);
+        if (count > 0) {
+            position += count;
+        }
+        return count;
+    }
+
+    /**
+     * Read bytes from the given position of entry, the channel position is not changed.
+     *
+     * @param dst      the buffer to read into
+     * @param position the position in entry, not negative
+     * @return the count read, may be less than remaining of buffer, or -1 if the position is at or after the end
+     * @throws IOException if closed or failed
+     */
+    public int read(@NonNull ByteBuffer dst, long position) throws IOException {
+        ensureOpen();
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        if (position >= size) {
+            return -1;
+        }
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        int count = (int) Math.min(dst.remaining(), size - position);
+        int limit = dst.limit();
+        dst.limit(dst.position() + count);
+        try {
+            if (mappedArchive != null) {
+                return mappedArchive.read(start + position, dst);
+            }
+            return channel.read(dst, start + position);
+        } finally {
+            dst.limit(limit);
+        }
+    }
+
+    @Override
+    public int write(@NonNull ByteBuffer src) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    /**
+     * Set the channel position, a position after the end is allowed and reads return -1 there.
+     *
+     * @param newPosition the new position, not negative
+     * @return this channel
+     * @throws IOException if closed
+     */
+    @NonNull
+    @Override
+    public synchronized GsZipEntryChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @NonNull
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+}
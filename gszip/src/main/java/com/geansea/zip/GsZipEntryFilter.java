@@ -0,0 +1,63 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Filter of GsZipPacker to select and rename entries copied from another archive.
+ * It is consulted once per entry, in the order of central dir.
+ */
+public abstract class GsZipEntryFilter {
+    /**
+     * Decide whether to copy an entry, and its name in the new archive.
+     *
+     * @param entry the entry of source archive
+     * @return the new entry name, or null to skip the entry
+     */
+    @Nullable
+    public abstract String filter(@NonNull GsZipEntry entry);
+
+    /**
+     * Copy all entries with their names.
+     *
+     * @return the filter
+     */
+    @NonNull
+    public static GsZipEntryFilter all() {
+        return new GsZipEntryFilter() {
+            @Nullable
+            @Override
+            public String filter(@NonNull GsZipEntry entry) {
+                return entry.getName();
+            }
+        };
+    }
+
+    /**
+     * Copy entries under a folder only, and move them to another folder.
+     *
+     * @param fromDir the folder in source archive, empty for all entries
+     * @param toDir   the folder in new archive, empty for the root
+     * @return the filter
+     */
+    @NonNull
+    public static GsZipEntryFilter move(@NonNull String fromDir, @NonNull String toDir) {
+        final String fromPath = GsZipUtil.normalizePath(fromDir);
+        final String toPath = GsZipUtil.normalizePath(toDir);
+        return new GsZipEntryFilter() {
+            @Nullable
+            @Override
+            public String filter(@NonNull GsZipEntry entry) {
+                String path = GsZipUtil.normalizePath(entry.getName());
+                if (fromPath.isEmpty()) {
+                    return toPath.isEmpty() ? path : (toPath + "/" + path);
+                }
+                if (!path.startsWith(fromPath + "/")) {
+                    return null;
+                }
+                String subPath = path.substring(fromPath.length() + 1);
+                return toPath.isEmpty() ? subPath : (toPath + "/" + subPath);
+            }
+        };
+    }
+}
@@ -3,86 +3,92 @@ package com.geansea.zip;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
-import java.lang.ref.WeakReference;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.List;
 
+/**
+ * Node of the entry tree, a light view of a node in the compact tree.
+ * Nodes are created on demand, so compare them with equals.
+ */
 public class GsZipEntryNode {
     @NonNull
-    private final WeakReference<GsZipEntryNode> parent;
-    @NonNull
-    private final HashMap<String, GsZipEntryNode> children;
-    @NonNull
-    private final String name;
-    @Nullable
-    private GsZipEntry entry;
+    private final EntryTree tree;
+    private final int id;
 
-    GsZipEntryNode(@Nullable GsZipEntryNode nodeParent, @NonNull String nodeName) {
-        parent = new WeakReference<>(nodeParent);
-        children = new HashMap<>();
-        name = nodeName;
-        entry = null;
+    GsZipEntryNode(@NonNull EntryTree tree, int id) {
+        this.tree = tree;
+        this.id = id;
     }
 
     @Nullable
     public GsZipEntryNode getParent() {
-        return parent.get();
+        int parent = tree.getParent(id);
+        return (parent >= 0 ? new GsZipEntryNode(tree, parent) : null);
     }
 
+    /**
+     * Get the children sorted by name.
+     *
+     * @return the read-only view of children, not copied
+     */
     @NonNull
-    public ArrayList<GsZipEntryNode> getChildren() {
-        return new ArrayList<>(children.values());
+    public List<GsZipEntryNode> getChildren() {
+        return tree.getChildren(id);
     }
 
     @NonNull
     public String getName() {
-        return name;
+        return tree.getName(id);
     }
 
+    /**
+     * Get the entry of node, created on each call.
+     *
+     * @return the entry, or null for folder without entry
+     */
     @Nullable
     public GsZipEntry getEntry() {
-        return entry;
+        return tree.getEntry(id);
     }
 
     public boolean isFile() {
-        return (entry != null && entry.isFile());
+        return tree.isFile(id);
     }
 
+    @Nullable
     public GsZipEntryNode getChildWithPath(@NonNull String path) {
-        GsZipEntryNode node = this;
-        String[] names = path.split("/");
-        for (String name : names) {
-            if (name.isEmpty()) {
-                continue;
-            }
-            node = node.getChild(name);
-            if (node == null) {
-                break;
+        int node = id;
+        int start = 0;
+        while (start < path.length()) {
+            int end = path.indexOf('/', start);
+            end = (end < 0 ? path.length() : end);
+            if (end > start) {
+                node = tree.findChild(node, path, start, end);
+                if (node < 0) {
+                    return null;
+                }
             }
+            start = end + 1;
         }
-        return node;
+        return new GsZipEntryNode(tree, node);
     }
 
+    @Nullable
     public GsZipEntryNode getChild(@NonNull String name) {
-        return children.get(name);
+        int child = tree.findChild(id, name, 0, name.length());
+        return (child >= 0 ? new GsZipEntryNode(tree, child) : null);
     }
 
-    void addChild(@NonNull String path, @NonNull GsZipEntry entry) throws GsZipException {
-        GsZipEntryNode node = this;
-        String[] names = path.split("/");
-        for (String name : names) {
-            if (name.isEmpty()) {
-                continue;
-            }
-            GsZipUtil.check(!node.isFile(), "Adding child for file node");
-            GsZipEntryNode child = node.getChild(name);
-            if (child == null) {
-                child = new GsZipEntryNode(node, name);
-                node.children.put(name, child);
-            }
-            node = child;
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof GsZipEntryNode)) {
+            return false;
         }
-        GsZipUtil.check(null == node.entry, "Entry already exist");
-        node.entry = entry;
+        GsZipEntryNode other = (GsZipEntryNode) obj;
+        return (tree == other.tree && id == other.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(tree) * 31 + id;
     }
 }
@@ -3,46 +3,82 @@ package com.geansea.zip;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 
-public class GsZipFile {
+public class GsZipFile implements Closeable {
     @NonNull
     private final RandomAccessFile file;
     @NonNull
-    private final CentralDirEnd dirEnd;
-    @NonNull
-    private final ArrayList<GsZipEntry> entryList;
+    private final FileChannel channel;
+    @Nullable
+    private final MappedArchive mappedArchive;
     @NonNull
-    private final GsZipEntryNode entryTree;
+    private final CentralDirEnd dirEnd;
+    @Nullable
+    private EntryTable entryTable;
+    @Nullable
+    private EntryTree entryTree;
     @NonNull
     private Charset defaultCharset;
-    @NonNull
-    private String password;
+    @Nullable
+    private PasswordKeys passwordKeys;
+    private int bufferSize;
 
     @NonNull
     public static GsZipFile create(@NonNull String path) throws GsZipException {
+        return create(path, false);
+    }
+
+    /**
+     * Open a zip file.
+     * In mapped mode the archive is memory mapped, entry streams copy from the mapping without system calls,
+     * and STORED entries without encryption can be viewed by getByteBuffer without copying.
+     *
+     * @param path   the path of zip file
+     * @param mapped whether to map the archive into memory
+     * @return the zip file
+     * @throws GsZipException if failed
+     */
+    @NonNull
+    public static GsZipFile create(@NonNull String path, boolean mapped) throws GsZipException {
+        GsZipFile zip = null;
         try {
-            GsZipFile zip = new GsZipFile(path);
+            zip = new GsZipFile(path, mapped);
             zip.readCentralDirEnd();
             zip.readCentralDir();
             return zip;
         } catch (IOException e) {
+            closeQuietly(zip);
             String message = e.getMessage();
             throw new GsZipException(message != null ? message : "Create zip file failed");
+        } catch (GsZipException e) {
+            closeQuietly(zip);
+            throw e;
         }
     }
 
-    private GsZipFile(@NonNull String path) throws IOException {
+    private GsZipFile(@NonNull String path, boolean mapped) throws IOException {
         file = new RandomAccessFile(path, "r");
+        channel = file.getChannel();
+        try {
+            mappedArchive = mapped ? new MappedArchive(channel) : null;
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
         dirEnd = new CentralDirEnd();
-        entryList = new ArrayList<>();
-        entryTree = new GsZipEntryNode(null, "");
+        entryTable = null;
+        entryTree = null;
         defaultCharset = StandardCharsets.UTF_8;
-        password = "";
+        passwordKeys = null;
+        bufferSize = GsZipUtil.DEFAULT_BUFFER_SIZE;
     }
 
     public void setDefaultCharset(@NonNull Charset defaultCharset) {
@@ -50,22 +86,41 @@ public class GsZipFile {
     }
 
     public boolean needPassword() {
-        boolean encrypted = false;
-        for (GsZipEntry entry : entryList) {
-            if (GsZipEntry.EncryptMethod.NONE != entry.getEncryptMethod()) {
-                encrypted = true;
-                break;
+        EntryTable table = getEntryTable();
+        for (int index = 0; index < table.size(); ++index) {
+            if (table.isEncrypted(index)) {
+                return true;
             }
         }
-        return encrypted;
+        return false;
     }
 
+    /**
+     * Set the password to decrypt entries, the key state of password is computed here once for all entries.
+     * If an entry rejects the password before any entry accepts it, later encrypted entries fail fast
+     * until the password is set again.
+     *
+     * @param password the password, empty for none
+     */
     public void setPassword(@NonNull String password) {
-        this.password = password;
+        passwordKeys = password.isEmpty() ? null : new PasswordKeys(password.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Set the size of I/O buffers taken by entry streams from the buffer pool, 64K by default.
+     *
+     * @param bufferSize the buffer size in bytes, no less than 1K
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = Math.max(bufferSize, GsZipUtil.MIN_BUFFER_SIZE);
+    }
+
+    int getBufferSize() {
+        return bufferSize;
     }
 
     public int size() {
-        return entryList.size();
+        return getEntryTable().size();
     }
 
     @NonNull
@@ -73,63 +128,347 @@ public class GsZipFile {
         return dirEnd.getComment(defaultCharset);
     }
 
+    @NonNull
+    String getComment(@NonNull Charset charset) {
+        return dirEnd.getComment(charset);
+    }
+
+    boolean startsWithEntry() throws IOException, GsZipException {
+        return channel.size() >= 4 && readBulk(0, 4).getInt(0) == EntryHeader.LOCAL_MAGIC;
+    }
+
+    long getDirOffset() {
+        return dirEnd.getDirOffset();
+    }
+
+    /**
+     * Read the central dir records as they are, for appending entries after them.
+     *
+     * @return the bytes of central dir
+     * @throws IOException    if throws
+     * @throws GsZipException if out of file
+     */
+    @NonNull
+    byte[] readCentralDirBytes() throws IOException, GsZipException {
+        ByteBuffer buffer = readBulk(dirEnd.getDirOffset(), (int) dirEnd.getDirSize());
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Get the entry at index, the entry object is created on each call.
+     *
+     * @param index the entry index
+     * @return the entry
+     * @throws GsZipException if index out of range
+     */
     @NonNull
     public GsZipEntry getEntry(int index) throws GsZipException {
         GsZipUtil.check(index >= 0, "");
-        GsZipUtil.check(index < entryList.size(), "");
-        return entryList.get(index);
+        GsZipUtil.check(index < size(), "");
+        return getEntryTable().getEntry(index);
     }
 
+    /**
+     * Get the stream of entry data.
+     * Streams read the archive with positional reads and take no shared lock, so they can be used concurrently.
+     * Interrupting a thread blocked in reading closes the archive channel, as for any interruptible channel.
+     *
+     * @param index the entry index
+     * @return the entry stream
+     * @throws GsZipException if failed
+     */
     @NonNull
     public GsZipInputStream getInputStream(int index) throws GsZipException {
         GsZipEntry entry = getEntry(index);
         if (!entry.isFile()) {
             return new GsZipInputStream();
         }
-        synchronized (this) {
+        try {
+            long offset = getDataOffset(entry);
+            // Sizes in local header may be zero with data descriptor, or not in ZIP64 form
+            GsZipInputStream subStream = openRange(offset, offset + entry.getCompressedSize());
+            GsZipInputStream decryptStream = decryptStream(entry, subStream);
+
+            GsZipInputStream uncompressStream;
+            if (entry.getCompressMethod() == GsZipEntry.CompressMethod.STORED) {
+                uncompressStream = decryptStream;
+            } else if (entry.getCompressMethod() == GsZipEntry.CompressMethod.FLATE) {
+                uncompressStream = new InflaterInputStream(decryptStream, bufferSize);
+            } else {
+                throw new IOException("Not supported compress method");
+            }
+
+            return uncompressStream;
+        } catch (IOException e) {
+            String message = e.getMessage();
+            throw new GsZipException(message != null ? message : "Get entry stream failed");
+        }
+    }
+
+    /**
+     * Get the stream of entry data as stored, still compressed and encrypted if so.
+     * For encrypted entries, it starts with the encryption header, and ends with the MAC for AES.
+     *
+     * @param index the entry index
+     * @return the raw data stream, empty for folders
+     * @throws GsZipException if failed
+     */
+    @NonNull
+    public GsZipInputStream getRawInputStream(int index) throws GsZipException {
+        GsZipEntry entry = getEntry(index);
+        if (!entry.isFile()) {
+            return new GsZipInputStream();
+        }
+        try {
+            long offset = getDataOffset(entry);
+            return openRange(offset, offset + entry.getCompressedSize());
+        } catch (IOException e) {
+            String message = e.getMessage();
+            throw new GsZipException(message != null ? message : "Get entry stream failed");
+        }
+    }
+
+    /**
+     * Copy the raw data of entry to pack output, from the archive channel directly.
+     *
+     * @param entry  the file entry
+     * @param output the output to write
+     * @throws IOException    if throws
+     * @throws GsZipException if failed
+     */
+    void transferRawData(@NonNull GsZipEntry entry, @NonNull PackOutput output) throws IOException, GsZipException {
+        long offset = getDataOffset(entry);
+        GsZipUtil.check(offset + entry.getCompressedSize() <= channel.size(), "Entry data out of file");
+        output.transferFrom(channel, offset, entry.getCompressedSize());
+    }
+
+    /**
+     * Get the end offset of entry in archive, after its data and data descriptor.
+     *
+     * @param entry the entry
+     * @return the end offset
+     * @throws IOException    if throws
+     * @throws GsZipException if failed
+     */
+    long getEntryEnd(@NonNull GsZipEntry entry) throws IOException, GsZipException {
+        EntryHeader localHeader = readLocalHeader(entry);
+        long end = entry.getLocalOffset() + localHeader.byteSize(false) + entry.getCompressedSize();
+        if (localHeader.hasDataDescriptor()) {
+            // The signature is optional, sizes are 64-bit with ZIP64 extra field
+            if (readBulk(end, 4).getInt(0) == EntryHeader.DESCRIPTOR_MAGIC) {
+                end += 4;
+            }
+            end += 4 + (localHeader.hasZip64Extra() ? 16 : 8);
+        }
+        GsZipUtil.check(end <= channel.size(), "Entry data out of file");
+        return end;
+    }
+
+    @NonNull
+    private GsZipInputStream decryptStream(@NonNull GsZipEntry entry, @NonNull GsZipInputStream subStream)
+            throws IOException, GsZipException {
+        if (entry.getEncryptMethod() == GsZipEntry.EncryptMethod.NONE) {
+            return subStream;
+        }
+        PasswordKeys keys = passwordKeys;
+        GsZipUtil.check(keys != null, "Need password");
+        GsZipUtil.check(keys.verified || !keys.rejected, "Password rejected by other entry");
+        if (entry.getEncryptMethod() == GsZipEntry.EncryptMethod.PKWARE) {
+            byte timeCheck = entry.getTimeCheck();
+            byte crcCheck = entry.getCrcCheck();
+            PKWareDecryptInputStream stream = new PKWareDecryptInputStream(subStream, keys.pkwareKey,
+                    timeCheck, crcCheck);
+            if (!stream.isPasswordMatched()) {
+                keys.reject();
+                stream.close();
+                throw new GsZipException("Check byte not matched, the password maybe incorrect");
+            }
+            keys.verified = true;
+            return stream;
+        } else if (entry.getEncryptMethod() == GsZipEntry.EncryptMethod.AES) {
+            AesDecryptInputStream stream = new AesDecryptInputStream(subStream, keys.aesKeys,
+                    entry.getAesStrength(), entry.getCompressedSize());
+            if (!stream.isPasswordMatched()) {
+                keys.reject();
+                stream.close();
+                throw new GsZipException("Verifier not matched, the password maybe incorrect");
+            }
+            keys.verified = true;
+            return stream;
+        } else {
+            throw new IOException("Not supported encrypt method");
+        }
+    }
+
+    /**
+     * Get the data of a STORED entry without encryption as a read-only view of mapping, without copying.
+     * Only supported when opened in mapped mode.
+     *
+     * @param index the entry index
+     * @return the read-only view of entry data
+     * @throws GsZipException if not mapped, or the entry is compressed or encrypted
+     */
+    @NonNull
+    public ByteBuffer getByteBuffer(int index) throws GsZipException {
+        GsZipUtil.check(mappedArchive != null, "Not opened in mapped mode");
+        GsZipEntry entry = getEntry(index);
+        GsZipUtil.check(entry.getCompressMethod() == GsZipEntry.CompressMethod.STORED, "Entry is compressed");
+        GsZipUtil.check(entry.getEncryptMethod() == GsZipEntry.EncryptMethod.NONE, "Entry is encrypted");
+        try {
+            long offset = getDataOffset(entry);
+            GsZipUtil.check(entry.getCompressedSize() <= Integer.MAX_VALUE, "Entry too large for buffer");
+            return mappedArchive.slice(offset, (int) entry.getCompressedSize());
+        } catch (IOException e) {
+            String message = e.getMessage();
+            throw new GsZipException(message != null ? message : "Get entry buffer failed");
+        }
+    }
+
+    /**
+     * Get a seekable channel over the data of a STORED entry without encryption, for random reads in place.
+     * Each read at any position is one positional read of archive, or one copy from mapping in mapped mode.
+     *
+     * @param index the entry index
+     * @return the read-only channel of entry data, it should be closed before the archive
+     * @throws GsZipException if the entry is compressed or encrypted, or failed
+     */
+    @NonNull
+    public GsZipEntryChannel getEntryChannel(int index) throws GsZipException {
+        GsZipEntry entry = getEntry(index);
+        GsZipUtil.check(entry.getCompressMethod() == GsZipEntry.CompressMethod.STORED, "Entry is compressed");
+        GsZipUtil.check(entry.getEncryptMethod() == GsZipEntry.EncryptMethod.NONE, "Entry is encrypted");
+        try {
+            long offset = getDataOffset(entry);
+            return new GsZipEntryChannel(channel, mappedArchive, offset, entry.getCompressedSize());
+        } catch (IOException e) {
+            String message = e.getMessage();
+            throw new GsZipException(message != null ? message : "Get entry channel failed");
+        }
+    }
+
+    /**
+     * Build the access index of a FLATE entry without encryption, by decoding its data once.
+     * The entry data is checked by CRC as well.
+     *
+     * @param index   the entry index
+     * @param spacing the min bytes of original data between checkpoints, see GsZipInflateIndex.DEFAULT_SPACING
+     * @return the index
+     * @throws GsZipException if the entry is not deflated or encrypted, or failed
+     */
+    @NonNull
+    public GsZipInflateIndex buildInflateIndex(int index, long spacing) throws GsZipException {
+        GsZipEntry entry = getEntry(index);
+        GsZipUtil.check(entry.getCompressMethod() == GsZipEntry.CompressMethod.FLATE, "Entry is not deflated");
+        GsZipUtil.check(entry.getEncryptMethod() == GsZipEntry.EncryptMethod.NONE, "Entry is encrypted");
+        GsZipUtil.check(spacing > 0, "Spacing should be positive");
+        try {
+            GsZipInputStream stream = getRawInputStream(index);
             try {
-                GsZipInputStream entryStream = new SubInputStream(file, entry.getLocalOffset());
-                EntryHeader localHeader = new EntryHeader();
-                localHeader.readFrom(entryStream, false);
-                GsZipEntry localEntry = new GsZipEntry(0, localHeader, StandardCharsets.UTF_8);
-                GsZipUtil.check(entry.matchLocal(localEntry), "Entry header mismatch");
-
-                long offset = entry.getLocalOffset() + localHeader.byteSize(false);
-                GsZipInputStream subStream = new SubInputStream(file, offset, offset + localHeader.getCompSize());
-                GsZipInputStream decryptStream;
-                if (entry.getEncryptMethod() == GsZipEntry.EncryptMethod.NONE) {
-                    decryptStream = subStream;
-                } else if (entry.getEncryptMethod() == GsZipEntry.EncryptMethod.PKWARE) {
-                    GsZipUtil.check(!password.isEmpty(), "Need password");
-                    byte[] pwBytes = password.getBytes(StandardCharsets.UTF_8);
-                    byte timeCheck = entry.getTimeCheck();
-                    byte crcCheck = entry.getCrcCheck();
-                    decryptStream = new PKWareDecryptInputStream(subStream, pwBytes, timeCheck, crcCheck);
-                } else {
-                    throw new IOException("Not supported encrypt method");
-                }
-
-                GsZipInputStream uncompressStream;
-                if (entry.getCompressMethod() == GsZipEntry.CompressMethod.STORED) {
-                    uncompressStream = decryptStream;
-                } else if (entry.getCompressMethod() == GsZipEntry.CompressMethod.FLATE) {
-                    uncompressStream = new InflaterInputStream(decryptStream);
-                } else {
-                    throw new IOException("Not supported compress method");
-                }
-
-                return uncompressStream;
-            } catch (IOException e) {
-                String message = e.getMessage();
-                throw new GsZipException(message != null ? message : "Get entry stream failed");
+                return GsZipInflateIndex.build(entry, stream, spacing, bufferSize);
+            } finally {
+                stream.close();
             }
+        } catch (IOException e) {
+            String message = e.getMessage();
+            throw new GsZipException(message != null ? message : "Build inflate index failed");
         }
     }
 
+    /**
+     * Get the stream of entry data from an offset, inflating from the nearest checkpoint of index before it.
+     * Restarting the stream goes back to the offset.
+     *
+     * @param index        the entry index
+     * @param offset       the offset in original data
+     * @param inflateIndex the access index built for the entry
+     * @return the entry stream from the offset
+     * @throws GsZipException if the index is not for the entry, or failed
+     */
+    @NonNull
+    public GsZipInputStream getInputStream(int index, long offset, @NonNull GsZipInflateIndex inflateIndex)
+            throws GsZipException {
+        GsZipEntry entry = getEntry(index);
+        GsZipUtil.check(entry.getCompressMethod() == GsZipEntry.CompressMethod.FLATE, "Entry is not deflated");
+        GsZipUtil.check(entry.getEncryptMethod() == GsZipEntry.EncryptMethod.NONE, "Entry is encrypted");
+        GsZipUtil.check(inflateIndex.matches(entry), "Inflate index not match entry");
+        GsZipUtil.check(offset >= 0 && offset <= entry.getOriginalSize(), "Offset out of entry");
+        try {
+            long dataOffset = getDataOffset(entry);
+            long dataEnd = dataOffset + entry.getCompressedSize();
+            GsZipInflateIndex.Checkpoint checkpoint = inflateIndex.findCheckpoint(offset);
+            if (checkpoint == null) {
+                return new InflaterInputStream(openRange(dataOffset, dataEnd), bufferSize, null, offset);
+            }
+            GsZipInputStream stream = openRange(dataOffset + checkpoint.bitOffset / 8, dataEnd);
+            int shift = (int) (checkpoint.bitOffset % 8);
+            if (shift != 0) {
+                stream = new EmptyBlockInputStream(stream, shift);
+            }
+            return new InflaterInputStream(stream, bufferSize, checkpoint.window, offset - checkpoint.offset);
+        } catch (IOException e) {
+            String message = e.getMessage();
+            throw new GsZipException(message != null ? message : "Get entry stream failed");
+        }
+    }
+
+    /**
+     * Find entry by path, empty segments and trailing slash in path are ignored.
+     *
+     * @param path the entry path
+     * @return the entry, or null if not found
+     */
     @Nullable
     public GsZipEntry getEntry(@NonNull String path) {
-        GsZipEntryNode node = entryTree.getChildWithPath(path);
-        return ((node != null) ? node.getEntry() : null);
+        int index = getEntryTable().find(path);
+        try {
+            return ((index >= 0) ? getEntry(index) : null);
+        } catch (GsZipException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Find entry by path, ignoring case if asked.
+     * With ignoring case, the first entry in central dir is taken if several match.
+     *
+     * @param path       the entry path
+     * @param ignoreCase whether to ignore case
+     * @return the entry, or null if not found
+     */
+    @Nullable
+    public GsZipEntry getEntry(@NonNull CharSequence path, boolean ignoreCase) {
+        int index = getEntryIndex(path, ignoreCase);
+        try {
+            return ((index >= 0) ? getEntry(index) : null);
+        } catch (GsZipException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Find entry index by path, without creating entry, empty segments and trailing slash in path are ignored.
+     *
+     * @param path       the entry path
+     * @param ignoreCase whether to ignore case
+     * @return the entry index, or -1 if not found
+     */
+    public int getEntryIndex(@NonNull CharSequence path, boolean ignoreCase) {
+        EntryTable table = getEntryTable();
+        return (ignoreCase ? table.findIgnoreCase(path) : table.find(path));
+    }
+
+    /**
+     * Find entry index by path in UTF-8 bytes, without decoding it.
+     *
+     * @param path the entry path in UTF-8
+     * @param off  the start offset of path
+     * @param len  the length of path
+     * @return the entry index, or -1 if not found
+     */
+    public int getEntryIndex(@NonNull byte[] path, int off, int len) {
+        return getEntryTable().find(path, off, len);
     }
 
     @Nullable
@@ -138,49 +477,169 @@ public class GsZipFile {
         return ((entry != null) ? getInputStream(entry.getIndex()) : null);
     }
 
+    /**
+     * Get the tree of entries, it is built on first call.
+     * Entries conflicting with the tree, like a file with children, are left out of the tree.
+     *
+     * @return the root node of tree
+     */
     @NonNull
-    public GsZipEntryNode getEntryTree() {
-        return entryTree;
+    public synchronized GsZipEntryNode getEntryTree() {
+        EntryTree tree = entryTree;
+        if (tree == null) {
+            tree = new EntryTree(getEntryTable());
+            entryTree = tree;
+        }
+        return new GsZipEntryNode(tree, EntryTree.ROOT);
     }
 
-    private void readCentralDirEnd() throws IOException, GsZipException {
-        long scanOffset = file.length() - CentralDirEnd.BASE_SIZE;
-        GsZipUtil.check(scanOffset >= 0, "File too short to be a zip file");
-
-        long stopOffset = Math.max(scanOffset - 0xFFFF, 0);
-        long dirEndOffset = -1;
-        while (stopOffset <= scanOffset) {
-            file.seek(scanOffset);
-            if (Integer.reverseBytes(file.readInt()) == CentralDirEnd.MAGIC) {
-                dirEndOffset = scanOffset;
-                break;
+    @Override
+    public void close() throws IOException {
+        PasswordKeys keys = passwordKeys;
+        if (keys != null) {
+            keys.aesKeys.clear();
+        }
+        file.close();
+    }
+
+    private static void closeQuietly(@Nullable GsZipFile zip) {
+        if (zip != null) {
+            try {
+                zip.close();
+            } catch (IOException e) {
+                e.printStackTrace();
             }
-            scanOffset--;
         }
+    }
+
+    @NonNull
+    private GsZipInputStream openRange(long start, long end) throws IOException, GsZipException {
+        if (mappedArchive != null) {
+            return new MappedInputStream(mappedArchive, start, end);
+        }
+        return new SubInputStream(channel, start, end);
+    }
+
+    @NonNull
+    private EntryHeader readLocalHeader(@NonNull GsZipEntry entry) throws IOException, GsZipException {
+        GsZipInputStream entryStream = openRange(entry.getLocalOffset(), channel.size());
+        EntryHeader localHeader = new EntryHeader();
+        localHeader.readFrom(entryStream, false);
+        GsZipUtil.check(entry.matchLocal(localHeader), "Entry header mismatch");
+        return localHeader;
+    }
+
+    private long getDataOffset(@NonNull GsZipEntry entry) throws IOException, GsZipException {
+        EntryHeader localHeader = readLocalHeader(entry);
+        return entry.getLocalOffset() + localHeader.byteSize(false);
+    }
 
-        GsZipUtil.check(dirEndOffset >= 0, "Find central dir fail");
-        int eocdSize = (int) (file.length() - dirEndOffset);
-        byte[] bytes = new byte[eocdSize];
-        file.seek(dirEndOffset);
-        file.read(bytes);
+    private void readCentralDirEnd() throws IOException, GsZipException {
+        long fileLength = channel.size();
+        GsZipUtil.check(fileLength >= CentralDirEnd.BASE_SIZE, "File too short to be a zip file");
+
+        // Read the max possible tail at once, and scan it in memory
+        int tailSize = (int) Math.min(fileLength, CentralDirEnd.MAX_TAIL_SIZE);
+        long tailOffset = fileLength - tailSize;
+        ByteBuffer tail = readBulk(tailOffset, tailSize);
+        int dirEndPos = CentralDirEnd.locate(tail, tailOffset);
+        GsZipUtil.check(dirEndPos >= 0, "Find central dir fail");
 
+        byte[] bytes = new byte[tailSize - dirEndPos];
+        tail.position(dirEndPos);
+        tail.get(bytes);
         dirEnd.readFrom(bytes);
+        dirEnd.readLocatorFrom(tail, dirEndPos);
+
+        long zip64EndOffset = dirEnd.getZip64EndOffset();
+        if (zip64EndOffset >= 0) {
+            long locatorOffset = tailOffset + dirEndPos - CentralDirEnd.LOCATOR_SIZE;
+            GsZipUtil.check(zip64EndOffset + CentralDirEnd.ZIP64_BASE_SIZE <= locatorOffset,
+                    "ZIP64 end record out of range");
+            dirEnd.readZip64From(readBulk(zip64EndOffset, CentralDirEnd.ZIP64_BASE_SIZE));
+        }
+        GsZipUtil.check(dirEnd.isZip64() || !dirEnd.isZip64Marked(), "ZIP64 end record missing");
     }
 
     private void readCentralDir() throws IOException, GsZipException {
         long dirOffset = dirEnd.getDirOffset();
         long dirSize = dirEnd.getDirSize();
-        SubInputStream rafStream = new SubInputStream(file, dirOffset, dirOffset + dirSize);
+        GsZipUtil.check(dirOffset + dirSize <= channel.size(), "Central dir out of file");
+        GsZipUtil.check(dirSize <= Integer.MAX_VALUE, "Central dir too large");
+        long entryCount = dirEnd.getEntryCount();
+        // Each record takes at least the fixed header size, to reject a fake count before allocating
+        GsZipUtil.check(entryCount <= dirSize / EntryHeader.CENTRAL_HEADER_SIZE, "Error entry count");
+        ByteBuffer dirBuffer = readBulk(dirOffset, (int) dirSize);
+        entryTable = new EntryTable(dirBuffer, (int) entryCount, defaultCharset);
+    }
 
-        int entryCount = dirEnd.getEntryCount();
-        entryList.ensureCapacity(entryCount);
-        for (int i = 0; i < entryCount; ++i) {
-            EntryHeader header = new EntryHeader();
-            header.readFrom(rafStream, true);
+    @NonNull
+    private EntryTable getEntryTable() {
+        EntryTable table = entryTable;
+        if (table == null) {
+            throw new IllegalStateException("Central dir not read");
+        }
+        return table;
+    }
 
-            GsZipEntry entry = new GsZipEntry(i, header, defaultCharset);
-            entryList.add(entry);
-            entryTree.addChild(entry.getName(), entry);
+    /**
+     * Read a range of archive in one go, or view it from mapping.
+     *
+     * @param offset the start offset
+     * @param size   the byte size
+     * @return the buffer of range in little endian order
+     * @throws IOException    if throws
+     * @throws GsZipException if out of file
+     */
+    @NonNull
+    private ByteBuffer readBulk(long offset, int size) throws IOException, GsZipException {
+        ByteBuffer buffer;
+        if (mappedArchive != null) {
+            buffer = mappedArchive.slice(offset, size);
+        } else {
+            buffer = ByteBuffer.allocate(size);
+            while (buffer.hasRemaining()) {
+                int count = channel.read(buffer, offset + buffer.position());
+                GsZipUtil.check(count > 0, "Read fail");
+            }
+            buffer.flip();
+        }
+        return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * The PKWare key state after password and the derived AES keys, computed once and shared by entry streams.
+     */
+    private static final class PasswordKeys {
+        @NonNull
+        final PKWareKey pkwareKey;
+        @NonNull
+        final AesKeyCache aesKeys;
+        /**
+         * Set when an entry accepts the password, later mismatches fail only their own entries.
+         */
+        volatile boolean verified;
+        /**
+         * Set when an entry rejects the password before any entry accepts it, so a wrong password fails fast.
+         */
+        volatile boolean rejected;
+
+        PasswordKeys(@NonNull byte[] bytes) {
+            pkwareKey = new PKWareKey();
+            pkwareKey.update(bytes);
+            aesKeys = new AesKeyCache(bytes);
+            verified = false;
+            rejected = false;
+        }
+
+        /**
+         * Mark the password rejected, unless an entry accepted it already.
+         * A corrupt entry or one with another password does not fail the entries of this password.
+         */
+        void reject() {
+            if (!verified) {
+                rejected = true;
+            }
         }
     }
 }
@@ -0,0 +1,221 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Access index of a deflated entry, to read from any offset of original data without inflating from the start.
+ * It is built by decoding the entry once, with a snapshot of the 32K window at a block boundary every spacing bytes.
+ * A read resumes from the nearest checkpoint before the offset, with the inflater primed by its window.
+ * It can be written next to the archive and read back later, and is checked against the entry when used.
+ */
+public final class GsZipInflateIndex {
+    public static final long DEFAULT_SPACING = 1024 * 1024;
+
+    private static final int MAGIC = 0x495A5347; // GSZI
+    private static final int VERSION = 1;
+
+    private final long compressedSize;
+    private final long originalSize;
+    private final int crc;
+    private final long spacing;
+    @NonNull
+    private final Checkpoint[] checkpoints;
+
+    private GsZipInflateIndex(long compressedSize, long originalSize, int crc, long spacing,
+                              @NonNull Checkpoint[] checkpoints) {
+        this.compressedSize = compressedSize;
+        this.originalSize = originalSize;
+        this.crc = crc;
+        this.spacing = spacing;
+        this.checkpoints = checkpoints;
+    }
+
+    /**
+     * Build the index by decoding the entry data once.
+     *
+     * @param entry      the FLATE entry without encryption
+     * @param stream     the raw data stream of entry
+     * @param spacing    the min bytes of original data between checkpoints
+     * @param bufferSize the size of input buffer
+     * @return the index
+     * @throws IOException    if throws
+     * @throws GsZipException if the data is invalid or does not match the entry
+     */
+    @NonNull
+    static GsZipInflateIndex build(@NonNull GsZipEntry entry, @NonNull GsZipInputStream stream, long spacing,
+                                   int bufferSize) throws IOException, GsZipException {
+        InflateScanner scanner = new InflateScanner(stream, bufferSize);
+        List<Checkpoint> checkpoints = scanner.scan(spacing);
+        GsZipUtil.check(scanner.getLength() == entry.getOriginalSize(), "Entry size not match");
+        GsZipUtil.check(scanner.getCRC() == entry.getCRC(), "Entry CRC not match");
+        return new GsZipInflateIndex(entry.getCompressedSize(), entry.getOriginalSize(), entry.getCRC(), spacing,
+                checkpoints.toArray(new Checkpoint[checkpoints.size()]));
+    }
+
+    /**
+     * Read an index written by writeTo.
+     *
+     * @param stream the stream to read, not closed
+     * @return the index
+     * @throws IOException    if throws
+     * @throws GsZipException if the data is not an index
+     */
+    @NonNull
+    public static GsZipInflateIndex readFrom(@NonNull InputStream stream) throws IOException, GsZipException {
+        DataInputStream input = new DataInputStream(stream);
+        GsZipUtil.check(input.readInt() == MAGIC, "Not an inflate index");
+        GsZipUtil.check(input.readInt() == VERSION, "Not supported inflate index version");
+        long compressedSize = input.readLong();
+        long originalSize = input.readLong();
+        int crc = input.readInt();
+        long spacing = input.readLong();
+        int count = input.readInt();
+        GsZipUtil.check(count >= 0, "Invalid checkpoint count");
+        Checkpoint[] checkpoints = new Checkpoint[count];
+        long lastOffset = 0;
+        for (int i = 0; i < count; ++i) {
+            long offset = input.readLong();
+            long bitOffset = input.readLong();
+            int windowSize = input.readInt();
+            GsZipUtil.check(offset > lastOffset && offset <= originalSize
+                            && bitOffset >= 0 && bitOffset < compressedSize * 8
+                            && windowSize == Math.min(offset, InflateScanner.WINDOW_SIZE),
+                    "Invalid checkpoint");
+            checkpoints[i] = new Checkpoint(offset, bitOffset, new byte[windowSize]);
+            lastOffset = offset;
+        }
+
+        // Windows are deflated with their length ahead, so the stream is not read beyond
+        int windowsLength = input.readInt();
+        GsZipUtil.check(windowsLength >= 0, "Invalid windows length");
+        byte[] windows = new byte[windowsLength];
+        input.readFully(windows);
+        Inflater inflater = new Inflater();
+        try {
+            DataInputStream windowInput = new DataInputStream(
+                    new java.util.zip.InflaterInputStream(new ByteArrayInputStream(windows), inflater));
+            for (Checkpoint checkpoint : checkpoints) {
+                windowInput.readFully(checkpoint.window);
+            }
+        } finally {
+            inflater.end();
+        }
+        return new GsZipInflateIndex(compressedSize, originalSize, crc, spacing, checkpoints);
+    }
+
+    /**
+     * Write the index, windows are deflated.
+     *
+     * @param stream the stream to write, not closed
+     * @throws IOException if throws
+     */
+    public void writeTo(@NonNull OutputStream stream) throws IOException {
+        DataOutputStream output = new DataOutputStream(stream);
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeLong(compressedSize);
+        output.writeLong(originalSize);
+        output.writeInt(crc);
+        output.writeLong(spacing);
+        output.writeInt(checkpoints.length);
+        for (Checkpoint checkpoint : checkpoints) {
+            output.writeLong(checkpoint.offset);
+            output.writeLong(checkpoint.bitOffset);
+            output.writeInt(checkpoint.window.length);
+        }
+
+        ByteArrayOutputStream windows = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater();
+        try {
+            DeflaterOutputStream deflateStream = new DeflaterOutputStream(windows, deflater);
+            for (Checkpoint checkpoint : checkpoints) {
+                deflateStream.write(checkpoint.window);
+            }
+            deflateStream.finish();
+        } finally {
+            deflater.end();
+        }
+        output.writeInt(windows.size());
+        windows.writeTo(output);
+        output.flush();
+    }
+
+    public long getSpacing() {
+        return spacing;
+    }
+
+    public long getOriginalSize() {
+        return originalSize;
+    }
+
+    /**
+     * Get the count of checkpoints, not including the start of data.
+     *
+     * @return the checkpoint count
+     */
+    public int getCheckpointCount() {
+        return checkpoints.length;
+    }
+
+    /**
+     * Check if the index is built for the entry, by its sizes and CRC.
+     *
+     * @param entry the entry
+     * @return true if matches
+     */
+    public boolean matches(@NonNull GsZipEntry entry) {
+        return entry.getCompressedSize() == compressedSize
+                && entry.getOriginalSize() == originalSize
+                && entry.getCRC() == crc;
+    }
+
+    /**
+     * Find the last checkpoint at or before an offset.
+     *
+     * @param offset the offset in original data
+     * @return the checkpoint, or null to start from the start of data
+     */
+    @Nullable
+    Checkpoint findCheckpoint(long offset) {
+        int low = 0;
+        int high = checkpoints.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (checkpoints[mid].offset <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return (high >= 0) ? checkpoints[high] : null;
+    }
+
+    /**
+     * Position of a deflate block boundary, with the window of original data before it.
+     */
+    static final class Checkpoint {
+        final long offset;
+        final long bitOffset;
+        @NonNull
+        final byte[] window;
+
+        Checkpoint(long offset, long bitOffset, @NonNull byte[] window) {
+            this.offset = offset;
+            this.bitOffset = bitOffset;
+            this.window = window;
+        }
+    }
+}
@@ -1,19 +1,41 @@
 package com.geansea.zip;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class GsZipPacker {
+    private static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+    private static final long DEFAULT_CHUNK_THRESHOLD = 16L * 1024 * 1024;
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final double DEFAULT_PROBE_THRESHOLD = 0.95;
+    /**
+     * Recorded as the file path of raw entries, to tell them from folders.
+     */
+    @NonNull
+    private static final String RAW_PATH = "<raw>";
+
     @NonNull
     private final LinkedList<EntryInfo> entryList;
     @NonNull
@@ -22,18 +44,131 @@ public class GsZipPacker {
     private Charset defaultCharset;
     @NonNull
     private String comment;
+    private int threadCount;
+    private long memoryBudget;
+    private long chunkThreshold;
+    private int bufferSize;
+    @NonNull
+    private GsZipCompressionPolicy compressionPolicy;
+    private boolean probeEnabled;
+    private double probeThreshold;
+    private boolean aesEncryption;
+    @NonNull
+    private final List<GsZipProbeResult> probeResults;
+    @Nullable
+    private ExecutorService chunkExecutor;
 
     public GsZipPacker() {
         entryList = new LinkedList<>();
         entries = new LinkedHashMap<>();
         defaultCharset = StandardCharsets.UTF_8;
         comment = "";
+        threadCount = 1;
+        memoryBudget = DEFAULT_MEMORY_BUDGET;
+        chunkThreshold = DEFAULT_CHUNK_THRESHOLD;
+        bufferSize = GsZipUtil.DEFAULT_BUFFER_SIZE;
+        compressionPolicy = GsZipCompressionPolicy.best();
+        probeEnabled = true;
+        probeThreshold = DEFAULT_PROBE_THRESHOLD;
+        aesEncryption = false;
+        probeResults = Collections.synchronizedList(new ArrayList<GsZipProbeResult>());
+        chunkExecutor = null;
     }
 
     public void setDefaultCharset(@NonNull Charset defaultCharset) {
         this.defaultCharset = defaultCharset;
     }
 
+    /**
+     * Set the count of threads to compress entries, 1 for packing on the caller thread only.
+     * With more threads, files are compressed in parallel and written in adding order.
+     *
+     * @param threadCount the count of compressor threads
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = Math.max(threadCount, 1);
+    }
+
+    /**
+     * Set the max bytes of compressed entries held in memory when packing with threads.
+     * Files larger than it are compressed on the caller thread directly to output.
+     *
+     * @param memoryBudget the memory budget in bytes
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = Math.max(memoryBudget, 0);
+    }
+
+    /**
+     * Set the min file size to be split into chunks and deflated by threads concurrently.
+     * It takes effect only when thread count is more than 1.
+     *
+     * @param chunkThreshold the file size threshold in bytes
+     */
+    public void setChunkThreshold(long chunkThreshold) {
+        this.chunkThreshold = Math.max(chunkThreshold, 1);
+    }
+
+    /**
+     * Set the size of I/O buffers taken from the buffer pool for reading, compressing and writing, 64K by default.
+     *
+     * @param bufferSize the buffer size in bytes, no less than 1K
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = Math.max(bufferSize, GsZipUtil.MIN_BUFFER_SIZE);
+    }
+
+    /**
+     * Set the policy to decide level, strategy or stored for each file, GsZipCompressionPolicy.best() by default.
+     *
+     * @param compressionPolicy the compression policy
+     */
+    public void setCompressionPolicy(@NonNull GsZipCompressionPolicy compressionPolicy) {
+        this.compressionPolicy = compressionPolicy;
+    }
+
+    /**
+     * Enable or disable the compressibility probe, enabled by default.
+     * Files to deflate of 256K or more are probed by deflating head, middle and tail windows at best speed,
+     * and stored without deflating if the predicted ratio is over the threshold.
+     *
+     * @param probeEnabled whether to probe files
+     */
+    public void setProbeEnabled(boolean probeEnabled) {
+        this.probeEnabled = probeEnabled;
+    }
+
+    /**
+     * Set the predicted ratio of compressed size to original size, over which files are stored, 0.95 by default.
+     *
+     * @param probeThreshold the ratio threshold
+     */
+    public void setProbeThreshold(double probeThreshold) {
+        this.probeThreshold = probeThreshold;
+    }
+
+    /**
+     * Encrypt with WinZip AES-256 in AE-2 format instead of the traditional PKWare encryption, disabled by default.
+     * It takes effect only when packing with password.
+     *
+     * @param aesEncryption whether to encrypt with AES
+     */
+    public void setAesEncryption(boolean aesEncryption) {
+        this.aesEncryption = aesEncryption;
+    }
+
+    /**
+     * Get the probe results of last packing, in the order of probing.
+     *
+     * @return the probe results
+     */
+    @NonNull
+    public List<GsZipProbeResult> getProbeResults() {
+        synchronized (probeResults) {
+            return new ArrayList<>(probeResults);
+        }
+    }
+
     public boolean addFile(@NonNull String entryName, @NonNull String fileName) {
         try {
             entryName = GsZipUtil.normalizePath(entryName);
@@ -82,101 +217,624 @@ public class GsZipPacker {
         }
     }
 
+    /**
+     * Add an entry of another archive with its data as stored, without decompressing and compressing again.
+     * The data keeps its own compression and encryption, the password of packing does not apply to it.
+     * The archive should be kept open until packing finished.
+     *
+     * @param entryName the entry name in new archive
+     * @param zip       the source archive
+     * @param index     the entry index in source archive
+     * @return true if succeeded
+     */
+    public boolean addRawEntry(@NonNull String entryName, @NonNull GsZipFile zip, int index) {
+        try {
+            GsZipEntry entry = zip.getEntry(index);
+            GsZipUtil.check(entry.getCompressMethod() != GsZipEntry.CompressMethod.NONSUPPORT,
+                    "Not supported compress method");
+            GsZipUtil.check(entry.getEncryptMethod() != GsZipEntry.EncryptMethod.NONSUPPORT,
+                    "Not supported encrypt method");
+
+            entryName = GsZipUtil.normalizePath(entryName);
+            GsZipUtil.check(!entryName.isEmpty(), "Empty entry name");
+
+            boolean isFile = entry.isFile();
+            if (!isFile && entries.containsKey(entryName)) {
+                // Folder already added
+                GsZipUtil.check(entries.get(entryName).isEmpty(), "Same name with file");
+                return true;
+            }
+            GsZipUtil.check(!entries.containsKey(entryName), "Already has entry");
+            String parentName = GsZipUtil.getParentPath(entryName);
+            if (!parentName.isEmpty()) {
+                GsZipUtil.check(addFolder(parentName), "Add parent folder fail");
+            }
+
+            // Folders are copied too, to keep time and attributes
+            EntryInfo info = new EntryInfo(isFile ? entryName : (entryName + "/"), zip, entry);
+            entryList.add(info);
+            entries.put(entryName, isFile ? RAW_PATH : "");
+            return true;
+        } catch (GsZipException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Add entries of another archive as raw entries, selected and renamed by filter.
+     * Archives are merged by adding entries of each in turn.
+     *
+     * @param zip    the source archive
+     * @param filter the filter to select and rename entries
+     * @return true if all selected entries added
+     * @see #addRawEntry(String, GsZipFile, int)
+     */
+    public boolean addRawEntries(@NonNull GsZipFile zip, @NonNull GsZipEntryFilter filter) {
+        try {
+            for (int i = 0; i < zip.size(); ++i) {
+                String entryName = filter.filter(zip.getEntry(i));
+                if (entryName != null && !addRawEntry(entryName, zip, i)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (GsZipException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
     public void setComment(@NonNull String comment) {
         this.comment = comment;
     }
 
+    /**
+     * Pack entries to a new file.
+     * Each source file is read only once, the local headers are patched after data written.
+     *
+     * @param filePath the path of zip file, should not exist
+     * @param password the password to encrypt, empty for no encryption
+     * @return true if succeeded
+     */
     public boolean packTo(@NonNull String filePath, @NonNull String password) {
         try {
             File file = new File(filePath);
             GsZipUtil.check(!file.exists(), "File already exist");
-            FileOutputStream stream = new FileOutputStream(file);
-            return packTo(stream, password);
+            RandomAccessFile zipFile = new RandomAccessFile(file, "rw");
+            try {
+                return packTo(new PackOutput(zipFile.getChannel(), true), password);
+            } finally {
+                zipFile.close();
+            }
         } catch (@NonNull IOException | GsZipException e) {
             e.printStackTrace();
             return false;
         }
     }
 
+    /**
+     * Pack entries to a random access file, from its current file pointer.
+     * Each source file is read only once, the local headers are patched after data written.
+     * Offsets in the archive are from the start of file, so data before the archive is kept as a prefix,
+     * like the stub of self-extracting file. The file is not truncated, it should end with the archive to be read.
+     *
+     * @param file     the file to write
+     * @param password the password to encrypt, empty for no encryption
+     * @return true if succeeded
+     */
+    public boolean packTo(@NonNull RandomAccessFile file, @NonNull String password) {
+        return packTo(file.getChannel(), password);
+    }
+
+    /**
+     * Pack entries to a file channel, from its current position.
+     * Each source file is read only once, the local headers are patched after data written.
+     * Offsets in the archive are from the start of file, and the file is not truncated, as for RandomAccessFile.
+     *
+     * @param channel  the channel to write
+     * @param password the password to encrypt, empty for no encryption
+     * @return true if succeeded
+     */
+    public boolean packTo(@NonNull FileChannel channel, @NonNull String password) {
+        try {
+            return packTo(new PackOutput(channel, false), password);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Pack entries to a stream.
+     * As the stream is not seekable, each source file is read several times to get sizes before data.
+     *
+     * @param stream   the stream to write
+     * @param password the password to encrypt, empty for no encryption
+     * @return true if succeeded
+     */
     public boolean packTo(@NonNull OutputStream stream, @NonNull String password) {
+        return packTo(new PackOutput(stream), password);
+    }
+
+    /**
+     * Append entries to an existing zip file, the data of old entries is not read or written again.
+     * New entries are written after the end of file, followed by the old central dir records,
+     * the new records and the end record, the old central dir is left as a hole for GsZipUpdater.compact.
+     * The old bytes are not changed, and the new end record is written after all others are forced to storage.
+     * On failure the file is truncated back to its old length, after a crash in between the old archive
+     * is still the head of file.
+     * Folders already in the file are skipped, a file with the name of an old entry fails.
+     * The comment of file is kept if no comment set.
+     *
+     * @param filePath the path of zip file, should exist
+     * @param password the password to encrypt new entries, empty for no encryption
+     * @return true if succeeded
+     */
+    public boolean appendTo(@NonNull String filePath, @NonNull String password) {
+        return appendTo(filePath, password, Collections.<String>emptySet());
+    }
+
+    /**
+     * Append entries to an existing zip file, and drop the central dir records of removed entries.
+     * The data of removed entries is left in file, as the old central dir.
+     *
+     * @param filePath     the path of zip file, should exist
+     * @param password     the password to encrypt new entries, empty for no encryption
+     * @param removedNames the normalized names of entries to remove, with entries under them
+     * @return true if succeeded
+     */
+    boolean appendTo(@NonNull String filePath, @NonNull String password, @NonNull Set<String> removedNames) {
         try {
-            int streamOffset = 0;
-            for (EntryInfo info : entryList) {
+            ArrayList<EntryInfo> newInfos = new ArrayList<>();
+            byte[] oldDir;
+            long oldCount;
+            String zipComment;
+            GsZipFile zip = GsZipFile.create(filePath);
+            try {
+                oldDir = zip.readCentralDirBytes();
+                oldCount = zip.size();
+                zipComment = comment.isEmpty() ? zip.getComment() : comment;
+                if (!removedNames.isEmpty()) {
+                    ByteBuffer dir = ByteBuffer.wrap(oldDir).order(ByteOrder.LITTLE_ENDIAN);
+                    ByteBuffer keptDir = ByteBuffer.allocate(oldDir.length);
+                    HashSet<String> matchedNames = new HashSet<>();
+                    int pos = 0;
+                    for (int i = 0; i < zip.size(); ++i) {
+                        int size = EntryHeader.rawCentralSize(dir, pos);
+                        String removedName = findRemovedName(zip.getEntry(i).getName(), removedNames);
+                        if (removedName == null) {
+                            keptDir.put(oldDir, pos, size);
+                        } else {
+                            matchedNames.add(removedName);
+                            --oldCount;
+                        }
+                        pos += size;
+                    }
+                    for (String name : removedNames) {
+                        GsZipUtil.check(matchedNames.contains(name), "Entry not found: " + name);
+                    }
+                    oldDir = Arrays.copyOf(keptDir.array(), keptDir.position());
+                }
+                for (EntryInfo info : entryList) {
+                    GsZipEntry oldEntry = zip.getEntry(info.name);
+                    if (oldEntry == null || findRemovedName(oldEntry.getName(), removedNames) != null) {
+                        newInfos.add(info);
+                        continue;
+                    }
+                    // Parent folders of new files may exist already
+                    GsZipUtil.check(info.name.endsWith("/") && !oldEntry.isFile(), "Already has entry: " + info.name);
+                }
+            } finally {
+                zip.close();
+            }
+
+            RandomAccessFile file = new RandomAccessFile(filePath, "rw");
+            try {
+                FileChannel channel = file.getChannel();
+                long oldLength = channel.size();
+                channel.position(oldLength);
+                boolean packed = false;
+                try {
+                    packed = packTo(new PackOutput(channel, true), password, newInfos, oldDir, oldCount,
+                            zipComment);
+                } finally {
+                    if (!packed) {
+                        // Drop the partial tail, the old archive is as it was
+                        channel.truncate(oldLength);
+                    }
+                }
+                return packed;
+            } finally {
+                file.close();
+            }
+        } catch (@NonNull IOException | GsZipException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Remove all entries added, the settings are kept.
+     */
+    void clearEntries() {
+        entryList.clear();
+        entries.clear();
+    }
+
+    @Nullable
+    private static String findRemovedName(@NonNull String entryName, @NonNull Set<String> removedNames) {
+        String name = GsZipUtil.normalizePath(entryName);
+        while (!name.isEmpty()) {
+            if (removedNames.contains(name)) {
+                return name;
+            }
+            name = name.substring(0, Math.max(name.lastIndexOf('/'), 0));
+        }
+        return null;
+    }
+
+    private boolean packTo(@NonNull PackOutput output, @NonNull String password) {
+        return packTo(output, password, entryList, null, 0, comment);
+    }
+
+    /**
+     * Write entries, then central dir and end record.
+     *
+     * @param output     the output to write
+     * @param password   the password to encrypt, empty for no encryption
+     * @param infos      the entries to write
+     * @param oldDir     the central dir records of old entries when appending, or null
+     * @param oldCount   the count of old entries
+     * @param zipComment the comment of zip file
+     * @return true if succeeded
+     */
+    private boolean packTo(@NonNull PackOutput output,
+                           @NonNull String password,
+                           @NonNull List<EntryInfo> infos,
+                           @Nullable byte[] oldDir,
+                           long oldCount,
+                           @NonNull String zipComment) {
+        PackPipeline pipeline = null;
+        probeResults.clear();
+        try {
+            for (EntryInfo info : infos) {
+                info.header.setSign(false);
+            }
+            if (threadCount > 1) {
+                chunkExecutor = Executors.newFixedThreadPool(threadCount);
+                pipeline = startPipeline(infos, password);
+            }
+            for (EntryInfo info : infos) {
                 EntryHeader header = info.header;
-                header.setSign(false);
-                header.setLocalOffset(streamOffset);
+
+                // Entry of other archive
+                if (info.rawEntry != null) {
+                    header.setLocalOffset(output.position());
+                    writeRawEntry(output, info);
+                    continue;
+                }
 
                 // Folder
                 if (info.path.isEmpty()) {
-                    header.writeTo(stream, false);
-                    streamOffset += header.byteSize(false);
+                    header.setLocalOffset(output.position());
+                    header.writeTo(output, false);
                     continue;
                 }
 
+                // File encoded by pipeline
+                if (pipeline != null && info.job != null) {
+                    PackBuffer buffer = pipeline.take(info.job);
+                    if (buffer != null) {
+                        header.setLocalOffset(output.position());
+                        buffer.writeTo(output);
+                        pipeline.release(info.job);
+                        continue;
+                    }
+                }
+
                 // File
-                RandomAccessFile file = new RandomAccessFile(info.path, "r");
-                GsZipInputStream entryStream = new SubInputStream(file, 0);
-                int crc = GsZipUtil.calcStreamCRC(entryStream);
-                int origLength = GsZipUtil.calcStreamLength(entryStream);
+                header.setLocalOffset(output.position());
+                if (output.isSeekable()) {
+                    writeFileSinglePass(output, info, password);
+                } else {
+                    writeFileMultiPass(output, info, password);
+                }
+            }
+
+            long dirOffset = output.position();
+            if (oldDir != null) {
+                output.write(oldDir);
+            }
+            for (EntryInfo info : infos) {
+                EntryHeader header = info.header;
+                header.setSign(true);
+                header.writeTo(output, true);
+            }
+            long dirSize = output.position() - dirOffset;
+
+            CentralDirEnd dirEnd = new CentralDirEnd();
+            dirEnd.setEntryCount(oldCount + infos.size());
+            dirEnd.setDirRange(dirOffset, dirSize);
+            dirEnd.setComment(zipComment, defaultCharset);
+
+            byte[] endBytes = new byte[dirEnd.byteSize()];
+            dirEnd.writeTo(endBytes);
+            if (oldDir != null) {
+                // Entries and central dir should be on storage before the end record takes them in
+                output.force();
+            }
+            output.write(endBytes);
+            if (oldDir != null) {
+                output.force();
+            }
+            output.finish();
+            return true;
+        } catch (@NonNull IOException | GsZipException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (pipeline != null) {
+                pipeline.stop();
+            }
+            if (chunkExecutor != null) {
+                chunkExecutor.shutdown();
+                chunkExecutor = null;
+            }
+        }
+    }
+
+    @NonNull
+    private PackPipeline startPipeline(@NonNull List<EntryInfo> infos, @NonNull final String password)
+            throws GsZipException {
+        ArrayList<PackPipeline.Job> jobs = new ArrayList<>();
+        for (final EntryInfo info : infos) {
+            if (info.path.isEmpty() || info.rawEntry != null) {
+                info.job = null;
+                continue;
+            }
+            // Header fields as writeFileSinglePass sets them, so its extra fields are counted
+            long maxLength = new File(info.path).length() + encryptOverhead(password);
+            info.header.setEncMethod(encryptMethod(password));
+            info.header.setZip64Reserved(maxLength >= EntryHeader.ZIP64_MAGIC_VALUE);
+            long estimate = maxLength + info.header.writeSize(false);
+            info.job = new PackPipeline.Job(estimate) {
+                @Override
+                void encode(@NonNull PackOutput output) throws IOException, GsZipException {
+                    writeFileSinglePass(output, info, password);
+                }
+            };
+            jobs.add(info.job);
+        }
+        PackPipeline pipeline = new PackPipeline(jobs, threadCount, memoryBudget);
+        pipeline.start();
+        return pipeline;
+    }
+
+    private void writeRawEntry(@NonNull PackOutput output, @NonNull EntryInfo info)
+            throws IOException, GsZipException {
+        EntryHeader header = info.header;
+        GsZipFile zip = info.rawZip;
+        GsZipEntry entry = info.rawEntry;
+        GsZipUtil.check(zip != null && entry != null, "Not raw entry");
+        header.setZip64Reserved(false);
+        header.writeTo(output, false);
+        zip.transferRawData(entry, output);
+        if (header.hasDataDescriptor()) {
+            header.writeDataDescriptor(output);
+        }
+    }
+
+    private void writeFileSinglePass(@NonNull PackOutput output,
+                                     @NonNull EntryInfo info,
+                                     @NonNull String password) throws IOException, GsZipException {
+        EntryHeader header = info.header;
+        long localOffset = output.position();
+        RandomAccessFile file = new RandomAccessFile(info.path, "r");
+        try {
+            // Sizes are unknown yet, write the header first and patch it later
+            GsZipCompressionPolicy.Decision decision = (file.length() > 0)
+                    ? decide(info, file)
+                    : GsZipCompressionPolicy.Decision.STORED;
+            boolean compress = !decision.isStored();
+            header.setCompMethod(compress ? EntryHeader.COMPRESS_FLATE : EntryHeader.COMPRESS_STORED);
+            header.setEncMethod(encryptMethod(password));
+            // Stored data with encryption overhead is the max size kept, reserve ZIP64 if it may overflow
+            long headerLength = encryptOverhead(password);
+            long maxLength = file.length() + headerLength;
+            header.setZip64Reserved(maxLength >= EntryHeader.ZIP64_MAGIC_VALUE);
+            header.writeTo(output, false);
+            long dataOffset = output.position();
+
+            CRC32InputStream crcStream = null;
+            ParallelDeflaterInputStream chunkStream = null;
+            GsZipInputStream dataStream;
+            if (compress && isChunked(file.length())) {
+                chunkStream = newChunkStream(new SubInputStream(file, 0), decision);
+                dataStream = chunkStream;
+            } else {
+                crcStream = new CRC32InputStream(new SubInputStream(file, 0));
+                dataStream = compress ? newDeflateStream(crcStream, decision) : crcStream;
+            }
+            long compLength;
+            try {
+                GsZipInputStream entryStream = encryptStream(dataStream, header, password);
+                try {
+                    compLength = GsZipUtil.copyStream(entryStream, output, bufferSize);
+                } finally {
+                    entryStream.close();
+                }
+            } finally {
+                // Also when encryption fails to start, the pooled deflater and pending chunks are released once
+                dataStream.close();
+            }
+
+            int crc = (chunkStream != null ? chunkStream.getCRC() : crcStream.getCRC());
+            long origLength = (chunkStream != null ? chunkStream.getLength() : crcStream.getLength());
+            if (compress && compLength - headerLength >= origLength) {
+                // Not compressible, overwrite with stored data
+                output.rewind(dataOffset);
+                header.setCompMethod(EntryHeader.COMPRESS_STORED);
+                GsZipInputStream entryStream = encryptStream(new SubInputStream(file, 0), header, password);
+                try {
+                    compLength = GsZipUtil.copyStream(entryStream, output, bufferSize);
+                } finally {
+                    entryStream.close();
+                }
+            }
+
+            header.setCRC(crc);
+            header.setCompSize(compLength);
+            header.setUncompSize(origLength);
+            ByteArrayOutputStream headerStream = new ByteArrayOutputStream(header.writeSize(false));
+            header.writeTo(headerStream, false);
+            GsZipUtil.check(headerStream.size() == dataOffset - localOffset, "File changed while packing");
+            output.patch(localOffset, headerStream.toByteArray());
+        } finally {
+            file.close();
+        }
+    }
+
+    private void writeFileMultiPass(@NonNull PackOutput output,
+                                    @NonNull EntryInfo info,
+                                    @NonNull String password) throws IOException, GsZipException {
+        EntryHeader header = info.header;
+        RandomAccessFile file = new RandomAccessFile(info.path, "r");
+        try {
+            GsZipInputStream entryStream = new SubInputStream(file, 0);
+            GsZipInputStream compStream = null;
+            try {
+                int crc = GsZipUtil.calcStreamCRC(entryStream, bufferSize);
+                long origLength = GsZipUtil.calcStreamLength(entryStream, bufferSize);
                 header.setCRC(crc);
+                header.setZip64Reserved(false);
+                header.setCompMethod(EntryHeader.COMPRESS_STORED);
+                header.setEncMethod(EntryHeader.ENCRYPT_NONE);
                 header.setCompSize(origLength);
                 header.setUncompSize(origLength);
 
-                if (origLength > 0) {
-                    GsZipInputStream compStream = new DeflaterInputStream(entryStream);
-                    int compLength = GsZipUtil.calcStreamLength(compStream);
+                GsZipCompressionPolicy.Decision decision = (origLength > 0)
+                        ? decide(info, file)
+                        : GsZipCompressionPolicy.Decision.STORED;
+                if (!decision.isStored()) {
+                    compStream = isChunked(origLength)
+                            ? newChunkStream(entryStream, decision)
+                            : newDeflateStream(entryStream, decision);
+                    long compLength = GsZipUtil.calcStreamLength(compStream, bufferSize);
                     if (compLength < origLength) {
                         header.setCompMethod(EntryHeader.COMPRESS_FLATE);
                         header.setCompSize(compLength);
                         entryStream = compStream;
+                    } else {
+                        // Return the deflater now, the file is read again for stored data
+                        compStream.close();
+                        entryStream = new SubInputStream(file, 0);
                     }
                 }
 
                 if (!password.isEmpty()) {
-                    byte[] pwBytes = password.getBytes(defaultCharset);
-                    byte timeCheck = header.getTimeCheck();
-                    // byte crcCheck = header.getCrcCheck();
-                    GsZipInputStream encStream = new PKWareEncryptInputStream(entryStream, pwBytes, timeCheck);
-                    int encLength = GsZipUtil.calcStreamLength(encStream);
-                    header.setEncMethod(EntryHeader.ENCRYPT_PKWARE);
-                    header.setCompSize(encLength);
+                    GsZipInputStream encStream = encryptStream(entryStream, header, password);
                     entryStream = encStream;
+                    long encLength = GsZipUtil.calcStreamLength(encStream, bufferSize);
+                    header.setEncMethod(encryptMethod(password));
+                    header.setCompSize(encLength);
                 }
 
-                header.writeTo(stream, false);
-                streamOffset += header.byteSize(false);
+                header.writeTo(output, false);
                 if (header.getCompSize() > 0) {
                     entryStream.restart();
-                    byte[] buffer = new byte[1024];
-                    int count;
-                    while ((count = entryStream.read(buffer)) > 0) {
-                        stream.write(buffer, 0, count);
-                    }
-                    streamOffset += header.getCompSize();
+                    GsZipUtil.copyStream(entryStream, output, bufferSize);
                 }
+            } finally {
+                // Closed once more if not in the chain, the pooled deflater and pending chunks are released once
+                if (compStream != null) {
+                    compStream.close();
+                }
+                entryStream.close();
             }
+        } finally {
+            file.close();
+        }
+    }
 
-            int dirSize = 0;
-            for (EntryInfo info : entryList) {
-                EntryHeader header = info.header;
-                header.setSign(true);
-                header.writeTo(stream, true);
-                dirSize += header.byteSize(true);
+    /**
+     * Consult the compression policy with the first bytes of file, then the probe for large files.
+     *
+     * @param info the entry
+     * @param file the file of entry, not empty
+     * @return the decision
+     * @throws IOException if throws
+     */
+    @NonNull
+    private GsZipCompressionPolicy.Decision decide(@NonNull EntryInfo info, @NonNull RandomAccessFile file)
+            throws IOException {
+        long length = file.length();
+        ByteBuffer head = ByteBuffer.allocate((int) Math.min(length, GsZipCompressionPolicy.HEAD_SIZE));
+        FileChannel channel = file.getChannel();
+        while (head.hasRemaining() && channel.read(head, head.position()) > 0) {
+            // Positional reads, the file pointer is not moved
+        }
+        GsZipCompressionPolicy.Decision decision =
+                compressionPolicy.decide(info.name, length, Arrays.copyOf(head.array(), head.position()));
+        if (!decision.isStored() && probeEnabled && length >= CompressibilityProbe.MIN_FILE_SIZE) {
+            GsZipProbeResult result = CompressibilityProbe.probe(info.name, channel, length, probeThreshold);
+            probeResults.add(result);
+            if (result.isStored()) {
+                return GsZipCompressionPolicy.Decision.STORED;
             }
+        }
+        return decision;
+    }
 
-            CentralDirEnd dirEnd = new CentralDirEnd();
-            dirEnd.setEntryCount(entryList.size());
-            dirEnd.setDirRange(streamOffset, dirSize);
-            dirEnd.setComment(comment, defaultCharset);
+    @NonNull
+    private DeflaterInputStream newDeflateStream(@NonNull GsZipInputStream stream,
+                                                 @NonNull GsZipCompressionPolicy.Decision decision)
+            throws IOException {
+        return new DeflaterInputStream(stream, decision.getLevel(), decision.getStrategy(), bufferSize);
+    }
 
-            byte[] endBytes = new byte[dirEnd.byteSize()];
-            dirEnd.writeTo(endBytes);
-            stream.write(endBytes);
-            return true;
-        } catch (@NonNull IOException | GsZipException e) {
-            e.printStackTrace();
-            return false;
+    private boolean isChunked(long fileLength) {
+        return (chunkExecutor != null && fileLength >= chunkThreshold);
+    }
+
+    @NonNull
+    private ParallelDeflaterInputStream newChunkStream(@NonNull GsZipInputStream stream,
+                                                       @NonNull GsZipCompressionPolicy.Decision decision)
+            throws IOException, GsZipException {
+        ExecutorService executor = chunkExecutor;
+        GsZipUtil.check(executor != null, "No chunk executor");
+        return new ParallelDeflaterInputStream(stream, executor, decision.getLevel(), decision.getStrategy(),
+                CHUNK_SIZE, threadCount * 2);
+    }
+
+    private int encryptMethod(@NonNull String password) {
+        if (password.isEmpty()) {
+            return EntryHeader.ENCRYPT_NONE;
         }
+        return aesEncryption ? EntryHeader.ENCRYPT_AES : EntryHeader.ENCRYPT_PKWARE;
+    }
+
+    private int encryptOverhead(@NonNull String password) throws GsZipException {
+        if (password.isEmpty()) {
+            return 0;
+        }
+        return aesEncryption ? AesKey.overhead(AesKey.STRENGTH_256) : PKWareEncryptInputStream.HEADER_LEN;
+    }
+
+    @NonNull
+    private GsZipInputStream encryptStream(@NonNull GsZipInputStream stream,
+                                           @NonNull EntryHeader header,
+                                           @NonNull String password) throws IOException, GsZipException {
+        if (password.isEmpty()) {
+            return stream;
+        }
+        byte[] pwBytes = password.getBytes(defaultCharset);
+        if (aesEncryption) {
+            return new AesEncryptInputStream(stream, pwBytes, AesKey.STRENGTH_256);
+        }
+        byte timeCheck = header.getTimeCheck();
+        // byte crcCheck = header.getCrcCheck();
+        return new PKWareEncryptInputStream(stream, pwBytes, timeCheck);
     }
 
     private static class EntryInfo {
@@ -186,16 +844,32 @@ public class GsZipPacker {
         final String path;
         @NonNull
         final EntryHeader header;
+        @Nullable
+        final GsZipFile rawZip;
+        @Nullable
+        final GsZipEntry rawEntry;
+        @Nullable
+        PackPipeline.Job job;
 
         EntryInfo(@NonNull String entryName, @NonNull String fileName) {
             name = entryName;
             path = fileName;
             header = new EntryHeader();
+            rawZip = null;
+            rawEntry = null;
             header.setFileName(entryName);
             if (!path.isEmpty()) {
                 long lastModTime = new File(fileName).lastModified();
                 header.setLastModifiedTime(new Date(lastModTime));
             }
         }
+
+        EntryInfo(@NonNull String entryName, @NonNull GsZipFile zip, @NonNull GsZipEntry entry) {
+            name = entryName;
+            path = "";
+            header = entry.copyHeader(entryName);
+            rawZip = zip;
+            rawEntry = entry;
+        }
     }
 }
@@ -0,0 +1,66 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Result of compressibility probe on a file entry, see GsZipPacker.setProbeThreshold.
+ */
+public final class GsZipProbeResult {
+    @NonNull
+    private final String name;
+    private final long size;
+    private final long sampledBytes;
+    private final long compressedBytes;
+    private final boolean stored;
+
+    GsZipProbeResult(@NonNull String name, long size, long sampledBytes, long compressedBytes, boolean stored) {
+        this.name = name;
+        this.size = size;
+        this.sampledBytes = sampledBytes;
+        this.compressedBytes = compressedBytes;
+        this.stored = stored;
+    }
+
+    @NonNull
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getSampledBytes() {
+        return sampledBytes;
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    /**
+     * Get the predicted ratio of compressed size to original size.
+     *
+     * @return the ratio
+     */
+    public double getRatio() {
+        return (sampledBytes > 0) ? ((double) compressedBytes / sampledBytes) : 1;
+    }
+
+    /**
+     * Check if the file is stored without deflating by the prediction.
+     *
+     * @return true if stored
+     */
+    public boolean isStored() {
+        return stored;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s: %.3f of %d sampled, %s",
+                name, getRatio(), sampledBytes, stored ? "stored" : "deflated");
+    }
+}
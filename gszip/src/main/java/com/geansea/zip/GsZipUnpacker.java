@@ -0,0 +1,197 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Extracts entries of a zip file to folder with a work-stealing thread pool.
+ * The folders are created first, then files are extracted in parallel, balanced by compressed size.
+ * Workers read the archive concurrently with positional reads.
+ * Failures of entries are collected, other entries are still extracted.
+ */
+public class GsZipUnpacker {
+    private static final long LEAF_BYTES = 1024 * 1024;
+
+    @NonNull
+    private final GsZipFile zip;
+    @NonNull
+    private final Map<String, String> failures;
+    private int threadCount;
+
+    public GsZipUnpacker(@NonNull GsZipFile zip) {
+        this.zip = zip;
+        failures = new LinkedHashMap<>();
+        threadCount = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Set the count of threads to extract files.
+     *
+     * @param threadCount the count of threads
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = Math.max(threadCount, 1);
+    }
+
+    /**
+     * Extract all entries to folder, the folder should exist.
+     *
+     * @param dirPath the folder to extract to
+     * @return true if all entries extracted, see getFailures() otherwise
+     */
+    public boolean unpackTo(@NonNull String dirPath) {
+        synchronized (failures) {
+            failures.clear();
+        }
+        ArrayList<FileJob> jobs = new ArrayList<>();
+        createFolders(zip.getEntryTree(), new File(dirPath), "", jobs);
+
+        // Largest first, so the big ones do not make a long tail
+        Collections.sort(jobs, new Comparator<FileJob>() {
+            @Override
+            public int compare(FileJob lhs, FileJob rhs) {
+                long lhsSize = lhs.entry.getCompressedSize();
+                long rhsSize = rhs.entry.getCompressedSize();
+                return (lhsSize > rhsSize ? -1 : (lhsSize < rhsSize ? 1 : 0));
+            }
+        });
+        FileJob[] jobArray = jobs.toArray(new FileJob[jobs.size()]);
+        long[] sizeSums = new long[jobArray.length + 1];
+        for (int i = 0; i < jobArray.length; ++i) {
+            sizeSums[i + 1] = sizeSums[i] + jobArray[i].entry.getCompressedSize();
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threadCount);
+        try {
+            pool.invoke(new UnpackTask(jobArray, sizeSums, 0, jobArray.length));
+        } finally {
+            pool.shutdown();
+        }
+        synchronized (failures) {
+            return failures.isEmpty();
+        }
+    }
+
+    /**
+     * Get failures of last unpacking.
+     *
+     * @return the map from entry name to error message
+     */
+    @NonNull
+    public Map<String, String> getFailures() {
+        synchronized (failures) {
+            return new LinkedHashMap<>(failures);
+        }
+    }
+
+    private void createFolders(@NonNull GsZipEntryNode node,
+                               @NonNull File dir,
+                               @NonNull String nodePath,
+                               @NonNull ArrayList<FileJob> jobs) {
+        for (GsZipEntryNode child : node.getChildren()) {
+            String childPath = nodePath.isEmpty() ? child.getName() : (nodePath + "/" + child.getName());
+            if (child.getName().equals("..") || child.getName().equals(".")) {
+                addFailure(childPath, "Relative path segment is not allowed");
+                continue;
+            }
+            File file = new File(dir, child.getName());
+            GsZipEntry entry = child.getEntry();
+            if (child.isFile() && entry != null) {
+                jobs.add(new FileJob(entry, file));
+                continue;
+            }
+            if (!file.isDirectory() && !file.mkdirs()) {
+                addFailure(childPath, "Create dirs fail");
+                continue;
+            }
+            createFolders(child, file, childPath, jobs);
+        }
+    }
+
+    private void unpackEntry(@NonNull GsZipEntry entry, @NonNull File file) {
+        try {
+            GsZipUtil.check(!file.exists(), "File already exists");
+            GsZipUtil.check(file.createNewFile(), "Create file fail");
+            GsZipInputStream entryStream = zip.getInputStream(entry.getIndex());
+            try {
+                OutputStream outStream = new FileOutputStream(file);
+                try {
+                    GsZipUtil.copyStream(entryStream, outStream, zip.getBufferSize());
+                } finally {
+                    outStream.close();
+                }
+            } finally {
+                entryStream.close();
+            }
+        } catch (@NonNull IOException | GsZipException e) {
+            String message = e.getMessage();
+            addFailure(entry.getName(), message != null ? message : "Unpack fail");
+        }
+    }
+
+    private void addFailure(@NonNull String name, @NonNull String message) {
+        synchronized (failures) {
+            failures.put(name, message);
+        }
+    }
+
+    private static class FileJob {
+        @NonNull
+        final GsZipEntry entry;
+        @NonNull
+        final File file;
+
+        FileJob(@NonNull GsZipEntry entry, @NonNull File file) {
+            this.entry = entry;
+            this.file = file;
+        }
+    }
+
+    private class UnpackTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        @NonNull
+        private final FileJob[] jobs;
+        @NonNull
+        private final long[] sizeSums;
+        private final int start;
+        private final int end;
+
+        UnpackTask(@NonNull FileJob[] jobs, @NonNull long[] sizeSums, int start, int end) {
+            this.jobs = jobs;
+            this.sizeSums = sizeSums;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            long bytes = sizeSums[end] - sizeSums[start];
+            if (end - start <= 1 || bytes <= LEAF_BYTES) {
+                for (int i = start; i < end; ++i) {
+                    unpackEntry(jobs[i].entry, jobs[i].file);
+                }
+                return;
+            }
+            // Split at the half of compressed bytes
+            long half = sizeSums[start] + bytes / 2;
+            int mid = start + 1;
+            while (mid < end - 1 && sizeSums[mid + 1] <= half) {
+                ++mid;
+            }
+            invokeAll(new UnpackTask(jobs, sizeSums, start, mid),
+                    new UnpackTask(jobs, sizeSums, mid, end));
+        }
+    }
+}
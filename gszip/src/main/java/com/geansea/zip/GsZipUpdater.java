@@ -0,0 +1,275 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+
+/**
+ * Deletes and replaces entries of an existing zip file in place, kept entries are not read or compressed again.
+ * Changes are applied by commit: new entries are written after the end of file, and the central dir
+ * is written again after them without the removed records. The data of removed entries and the old central dir
+ * are left as holes, which are reclaimed by compact, sliding kept entries down and writing the central dir again.
+ */
+public class GsZipUpdater {
+    private static final int MOVE_BUFFER_SIZE = 1024 * 1024;
+
+    @NonNull
+    private final String filePath;
+    @NonNull
+    private final GsZipPacker packer;
+    @NonNull
+    private final LinkedHashSet<String> removedNames;
+
+    public GsZipUpdater(@NonNull String filePath) {
+        this.filePath = filePath;
+        packer = new GsZipPacker();
+        removedNames = new LinkedHashSet<>();
+    }
+
+    /**
+     * Get the packer of new entries, to add files and folders or to change packing settings.
+     * Its comment replaces the comment of file if set.
+     *
+     * @return the packer
+     */
+    @NonNull
+    public GsZipPacker getPacker() {
+        return packer;
+    }
+
+    /**
+     * Delete an entry on commit, with all entries under it for folder.
+     *
+     * @param entryName the entry name
+     * @return true if succeeded
+     */
+    public boolean delete(@NonNull String entryName) {
+        String name = GsZipUtil.normalizePath(entryName);
+        if (name.isEmpty()) {
+            return false;
+        }
+        removedNames.add(name);
+        return true;
+    }
+
+    /**
+     * Replace a file entry with a file on commit.
+     *
+     * @param entryName the entry name
+     * @param fileName  the path of new file
+     * @return true if succeeded
+     */
+    public boolean replaceFile(@NonNull String entryName, @NonNull String fileName) {
+        return delete(entryName) && packer.addFile(entryName, fileName);
+    }
+
+    /**
+     * Apply the deletions and new entries to file.
+     * Entries to delete should exist in file, new files should not have the names of kept entries.
+     *
+     * @param password the password to encrypt new entries, empty for no encryption
+     * @return true if succeeded, the changes are cleared then
+     */
+    public boolean commit(@NonNull String password) {
+        if (!packer.appendTo(filePath, password, removedNames)) {
+            return false;
+        }
+        removedNames.clear();
+        packer.clearEntries();
+        return true;
+    }
+
+    /**
+     * Get the bytes of holes left by deleted or replaced entries.
+     *
+     * @return the byte count, or -1 if failed
+     */
+    public long getHoleSize() {
+        try {
+            GsZipFile zip = GsZipFile.create(filePath);
+            try {
+                EntryRange[] ranges = readEntryRanges(zip);
+                long holeSize = 0;
+                long end = dataStart(zip, ranges);
+                for (EntryRange range : ranges) {
+                    holeSize += range.start - end;
+                    end = range.end;
+                }
+                return holeSize + zip.getDirOffset() - end;
+            } finally {
+                zip.close();
+            }
+        } catch (@NonNull IOException | GsZipException e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    /**
+     * Reclaim holes by moving entries down in file, the central dir is written again after them.
+     * Entries are moved with bulk copies as they are, and the file is truncated after the central dir is forced
+     * to storage. It is not atomic, a failure in the middle leaves the file broken.
+     *
+     * @return true if succeeded
+     */
+    public boolean compact() {
+        try {
+            EntryRange[] ranges;
+            long start;
+            byte[] dir;
+            String comment;
+            GsZipFile zip = GsZipFile.create(filePath);
+            try {
+                ranges = readEntryRanges(zip);
+                start = dataStart(zip, ranges);
+                dir = zip.readCentralDirBytes();
+                // Kept as bytes, whatever the charset is
+                comment = zip.getComment(StandardCharsets.ISO_8859_1);
+            } finally {
+                zip.close();
+            }
+
+            // Record positions in central dir, in the order of entry index
+            ByteBuffer dirBuffer = ByteBuffer.wrap(dir).order(ByteOrder.LITTLE_ENDIAN);
+            int[] recordPositions = new int[ranges.length];
+            for (int i = 0, pos = 0; i < ranges.length; ++i) {
+                recordPositions[i] = pos;
+                pos += EntryHeader.rawCentralSize(dirBuffer, pos);
+            }
+
+            RandomAccessFile file = new RandomAccessFile(filePath, "rw");
+            try {
+                FileChannel channel = file.getChannel();
+                long end = start;
+                for (EntryRange range : ranges) {
+                    if (range.start != end) {
+                        moveRange(channel, range.start, end, range.end - range.start);
+                        EntryHeader.rawCentralSetLocalOffset(dirBuffer, recordPositions[range.index], end);
+                    }
+                    end += range.end - range.start;
+                }
+
+                CentralDirEnd dirEnd = new CentralDirEnd();
+                dirEnd.setEntryCount(ranges.length);
+                dirEnd.setDirRange(end, dir.length);
+                dirEnd.setComment(comment, StandardCharsets.ISO_8859_1);
+                byte[] endBytes = new byte[dirEnd.byteSize()];
+                dirEnd.writeTo(endBytes);
+
+                PackOutput output = new PackOutput(channel.position(end), true);
+                output.write(dir);
+                output.write(endBytes);
+                output.force();
+                output.finish();
+            } finally {
+                file.close();
+            }
+            return true;
+        } catch (@NonNull IOException | GsZipException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Get the ranges of entries in file, in the order of offset.
+     *
+     * @param zip the zip file
+     * @return the ranges
+     * @throws IOException    if throws
+     * @throws GsZipException if entries overlap or out of central dir
+     */
+    @NonNull
+    private static EntryRange[] readEntryRanges(@NonNull GsZipFile zip) throws IOException, GsZipException {
+        EntryRange[] ranges = new EntryRange[zip.size()];
+        for (int i = 0; i < ranges.length; ++i) {
+            GsZipEntry entry = zip.getEntry(i);
+            ranges[i] = new EntryRange(i, entry.getLocalOffset(), zip.getEntryEnd(entry));
+        }
+        Arrays.sort(ranges, new Comparator<EntryRange>() {
+            @Override
+            public int compare(EntryRange lhs, EntryRange rhs) {
+                return (lhs.start < rhs.start ? -1 : (lhs.start > rhs.start ? 1 : 0));
+            }
+        });
+        long end = 0;
+        for (EntryRange range : ranges) {
+            GsZipUtil.check(range.start >= end, "Entries overlap");
+            end = range.end;
+        }
+        GsZipUtil.check(end <= zip.getDirOffset(), "Entries overlap central dir");
+        return ranges;
+    }
+
+    /**
+     * Get the start of entries, bytes before the first entry are kept unless the file starts with an entry.
+     * So data prepended to zip file, like the stub of self-extracting file, is not taken as a hole.
+     *
+     * @param zip    the zip file
+     * @param ranges the ranges of entries
+     * @return the start offset of entries
+     * @throws IOException    if throws
+     * @throws GsZipException if failed
+     */
+    private static long dataStart(@NonNull GsZipFile zip, @NonNull EntryRange[] ranges)
+            throws IOException, GsZipException {
+        if (ranges.length == 0) {
+            return zip.getDirOffset();
+        }
+        return zip.startsWithEntry() ? 0 : ranges[0].start;
+    }
+
+    /**
+     * Move bytes to a lower offset in chunks from low to high, so the overlapped bytes are read before overwritten.
+     *
+     * @param channel the file channel
+     * @param from    the source offset
+     * @param to      the target offset, less than source
+     * @param count   the count of bytes
+     * @throws IOException    if throws
+     * @throws GsZipException if the file ends before the range
+     */
+    private static void moveRange(@NonNull FileChannel channel, long from, long to, long count)
+            throws IOException, GsZipException {
+        byte[] bytes = BufferPool.obtain(MOVE_BUFFER_SIZE);
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            long done = 0;
+            while (done < count) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), count - done));
+                while (buffer.hasRemaining()) {
+                    int read = channel.read(buffer, from + done + buffer.position());
+                    GsZipUtil.check(read > 0, "Read fail");
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, to + done + buffer.position());
+                }
+                done += buffer.limit();
+            }
+        } finally {
+            BufferPool.release(bytes);
+        }
+    }
+
+    private static class EntryRange {
+        final int index;
+        final long start;
+        final long end;
+
+        EntryRange(int index, long start, long end) {
+            this.index = index;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
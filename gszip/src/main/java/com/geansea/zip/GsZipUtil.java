@@ -3,6 +3,7 @@ package com.geansea.zip;
 import android.support.annotation.NonNull;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Stack;
 import java.util.zip.CRC32;
 
@@ -10,7 +11,8 @@ import java.util.zip.CRC32;
  * Util class for GsZip.
  */
 final class GsZipUtil {
-    static final int BUFFER_SIZE = 1024;
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    static final int MIN_BUFFER_SIZE = 1024;
 
     /**
      * Check the state and throw exception if not true
@@ -33,12 +35,28 @@ final class GsZipUtil {
      * @throws IOException if throws
      */
     static int calcStreamCRC(@NonNull GsZipInputStream stream) throws IOException {
+        return calcStreamCRC(stream, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Calculate the CRC32 of stream with a pooled buffer.
+     *
+     * @param stream     the stream to calculate
+     * @param bufferSize the size of buffer
+     * @return the CRC32 of stream
+     * @throws IOException if throws
+     */
+    static int calcStreamCRC(@NonNull GsZipInputStream stream, int bufferSize) throws IOException {
         CRC32 crc32 = new CRC32();
-        byte[] buffer = new byte[BUFFER_SIZE];
-        stream.restart();
-        int count;
-        while ((count = stream.read(buffer)) > 0) {
-            crc32.update(buffer, 0, count);
+        byte[] buffer = BufferPool.obtain(bufferSize);
+        try {
+            stream.restart();
+            int count;
+            while ((count = stream.read(buffer)) > 0) {
+                crc32.update(buffer, 0, count);
+            }
+        } finally {
+            BufferPool.release(buffer);
         }
         return (int) crc32.getValue();
     }
@@ -50,14 +68,129 @@ final class GsZipUtil {
      * @return the length of stream
      * @throws IOException if throws
      */
-    static int calcStreamLength(@NonNull GsZipInputStream stream) throws IOException {
+    static long calcStreamLength(@NonNull GsZipInputStream stream) throws IOException {
+        return calcStreamLength(stream, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Calculate the length of stream with a pooled buffer.
+     *
+     * @param stream     the stream to calculate
+     * @param bufferSize the size of buffer
+     * @return the length of stream
+     * @throws IOException if throws
+     */
+    static long calcStreamLength(@NonNull GsZipInputStream stream, int bufferSize) throws IOException {
+        long length = 0;
+        byte[] buffer = BufferPool.obtain(bufferSize);
+        try {
+            stream.restart();
+            int count;
+            while ((count = stream.read(buffer)) > 0) {
+                length += count;
+            }
+        } finally {
+            BufferPool.release(buffer);
+        }
+        return length;
+    }
+
+    /**
+     * Combine two CRC32 values, as CRC32 of the concatenated data.
+     * This is the crc32_combine of zlib.
+     *
+     * @param crc1 the CRC32 of first data
+     * @param crc2 the CRC32 of second data
+     * @param len2 the length of second data
+     * @return the CRC32 of concatenated data
+     */
+    static int crc32Combine(int crc1, int crc2, long len2) {
+        if (len2 <= 0) {
+            return crc1;
+        }
+        int[] even = new int[32];
+        int[] odd = new int[32];
+        // Operator for one zero bit in odd
+        odd[0] = 0xEDB88320;
+        int row = 1;
+        for (int n = 1; n < 32; ++n) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        // Operators for two and four zero bits
+        gf2MatrixSquare(even, odd);
+        gf2MatrixSquare(odd, even);
+        // Apply len2 zeros to crc1, first square puts the operator for one zero byte in even
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((len2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            len2 >>= 1;
+            if (len2 == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((len2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            len2 >>= 1;
+        } while (len2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static int gf2MatrixTimes(@NonNull int[] mat, int vec) {
+        int sum = 0;
+        for (int i = 0; vec != 0; ++i, vec >>>= 1) {
+            if ((vec & 1) != 0) {
+                sum ^= mat[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(@NonNull int[] square, @NonNull int[] mat) {
+        for (int n = 0; n < 32; ++n) {
+            square[n] = gf2MatrixTimes(mat, mat[n]);
+        }
+    }
+
+    /**
+     * Copy the rest of stream to output.
+     *
+     * @param stream the stream to copy from
+     * @param output the output to copy to
+     * @return the count of bytes copied
+     * @throws IOException if throws
+     */
+    static long copyStream(@NonNull GsZipInputStream stream, @NonNull OutputStream output) throws IOException {
+        return copyStream(stream, output, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Copy the rest of stream to output with a pooled buffer.
+     *
+     * @param stream     the stream to copy from
+     * @param output     the output to copy to
+     * @param bufferSize the size of buffer
+     * @return the count of bytes copied
+     * @throws IOException if throws
+     */
+    static long copyStream(@NonNull GsZipInputStream stream,
+                           @NonNull OutputStream output,
+                           int bufferSize) throws IOException {
         long length = 0;
-        stream.restart();
-        long count;
-        while ((count = stream.skip(BUFFER_SIZE)) > 0) {
-            length += count;
+        byte[] buffer = BufferPool.obtain(bufferSize);
+        try {
+            int count;
+            while ((count = stream.read(buffer)) > 0) {
+                output.write(buffer, 0, count);
+                length += count;
+            }
+        } finally {
+            BufferPool.release(buffer);
         }
-        return (int) length;
+        return length;
     }
 
     /**
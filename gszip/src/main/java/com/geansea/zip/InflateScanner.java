@@ -0,0 +1,381 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Pure Java decoder of raw deflate data, to find block boundaries for GsZipInflateIndex.
+ * Inflater does not tell where blocks end, so the data is decoded here once,
+ * and the output is kept only as the sliding window and CRC.
+ * Huffman codes up to FAST_BITS long are decoded by table lookup, longer ones bit by bit.
+ */
+final class InflateScanner {
+    static final int WINDOW_SIZE = 32768;
+
+    private static final int MAX_BITS = 15;
+    private static final int FAST_BITS = 10;
+    private static final int MAX_MATCH = 258;
+    private static final int END_OF_BLOCK = 256;
+
+    private static final short[] LENGTH_BASE = {
+            3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+            35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+    private static final byte[] LENGTH_EXTRA = {
+            0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+            3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+    private static final int[] DIST_BASE = {
+            1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+            257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+    private static final byte[] DIST_EXTRA = {
+            0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+            7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+    private static final byte[] CODE_LENGTH_ORDER = {
+            16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+
+    @NonNull
+    private static final Huffman FIXED_LENGTH_CODE;
+    @NonNull
+    private static final Huffman FIXED_DIST_CODE;
+
+    static {
+        byte[] lengths = new byte[288];
+        for (int symbol = 0; symbol < 288; ++symbol) {
+            lengths[symbol] = (byte) (symbol < 144 ? 8 : (symbol < 256 ? 9 : (symbol < 280 ? 7 : 8)));
+        }
+        byte[] distLengths = new byte[30];
+        for (int symbol = 0; symbol < 30; ++symbol) {
+            distLengths[symbol] = 5;
+        }
+        try {
+            FIXED_LENGTH_CODE = new Huffman(lengths, 0, lengths.length);
+            FIXED_DIST_CODE = new Huffman(distLengths, 0, distLengths.length);
+        } catch (GsZipException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @NonNull
+    private final GsZipInputStream input;
+    @NonNull
+    private final byte[] inputBuffer;
+    private int inputPos;
+    private int inputLength;
+    private long inputBytes;
+    private long bitBuffer;
+    private int bitCount;
+
+    @NonNull
+    private final byte[] output;
+    private int outputLength;
+    private int crcStart;
+    private long outputBase;
+    @NonNull
+    private final CRC32 crc;
+
+    /**
+     * @param input      the stream of raw deflate data
+     * @param bufferSize the size of input buffer
+     */
+    InflateScanner(@NonNull GsZipInputStream input, int bufferSize) {
+        this.input = input;
+        inputBuffer = new byte[bufferSize];
+        output = new byte[WINDOW_SIZE * 2 + MAX_MATCH];
+        crc = new CRC32();
+    }
+
+    /**
+     * Decode all data, and take a checkpoint at the first block boundary after every spacing bytes of output.
+     *
+     * @param spacing the min bytes of output between checkpoints
+     * @return the checkpoints in the order of offset, not including the start of data
+     * @throws IOException    if throws
+     * @throws GsZipException if the data is invalid
+     */
+    @NonNull
+    List<GsZipInflateIndex.Checkpoint> scan(long spacing) throws IOException, GsZipException {
+        ArrayList<GsZipInflateIndex.Checkpoint> checkpoints = new ArrayList<>();
+        long lastOffset = 0;
+        boolean last;
+        do {
+            long bitOffset = inputBytes * 8 - bitCount;
+            long offset = getLength();
+            if (offset - lastOffset >= spacing) {
+                checkpoints.add(new GsZipInflateIndex.Checkpoint(offset, bitOffset, getWindow()));
+                lastOffset = offset;
+            }
+            last = (bits(1) == 1);
+            int type = bits(2);
+            switch (type) {
+                case 0:
+                    stored();
+                    break;
+                case 1:
+                    codes(FIXED_LENGTH_CODE, FIXED_DIST_CODE);
+                    break;
+                case 2:
+                    dynamic();
+                    break;
+                default:
+                    throw new GsZipException("Invalid deflate block type");
+            }
+        } while (!last);
+        crc.update(output, crcStart, outputLength - crcStart);
+        crcStart = outputLength;
+        return checkpoints;
+    }
+
+    /**
+     * Get the count of bytes decoded.
+     *
+     * @return the byte count
+     */
+    long getLength() {
+        return outputBase + outputLength;
+    }
+
+    /**
+     * Get the CRC32 of bytes decoded, valid after scanning.
+     *
+     * @return the CRC32 value
+     */
+    int getCRC() {
+        return (int) crc.getValue();
+    }
+
+    @NonNull
+    private byte[] getWindow() {
+        int start = Math.max(outputLength - WINDOW_SIZE, 0);
+        byte[] window = new byte[outputLength - start];
+        System.arraycopy(output, start, window, 0, window.length);
+        return window;
+    }
+
+    private void stored() throws IOException, GsZipException {
+        // Skip to byte boundary
+        bits(bitCount & 7);
+        int length = bits(16);
+        int complement = bits(16);
+        GsZipUtil.check(length == (~complement & 0xFFFF), "Invalid stored block length");
+        // Bytes left in bit buffer first, then copy from input buffer directly
+        while (length > 0 && bitCount > 0) {
+            ensureOutput();
+            output[outputLength++] = (byte) bits(8);
+            --length;
+        }
+        while (length > 0) {
+            if (inputPos == inputLength) {
+                GsZipUtil.check(fillInput(), "Unexpected end of deflate data");
+            }
+            ensureOutput();
+            int count = Math.min(length, Math.min(inputLength - inputPos, output.length - outputLength));
+            System.arraycopy(inputBuffer, inputPos, output, outputLength, count);
+            inputPos += count;
+            inputBytes += count;
+            outputLength += count;
+            length -= count;
+        }
+    }
+
+    private void dynamic() throws IOException, GsZipException {
+        int lengthCount = bits(5) + 257;
+        int distCount = bits(5) + 1;
+        int codeLengthCount = bits(4) + 4;
+        GsZipUtil.check(lengthCount <= 286 && distCount <= 30, "Invalid dynamic block header");
+
+        byte[] lengths = new byte[19];
+        for (int i = 0; i < codeLengthCount; ++i) {
+            lengths[CODE_LENGTH_ORDER[i]] = (byte) bits(3);
+        }
+        Huffman codeLengthCode = new Huffman(lengths, 0, 19);
+
+        lengths = new byte[lengthCount + distCount];
+        int index = 0;
+        while (index < lengths.length) {
+            int symbol = decode(codeLengthCode);
+            if (symbol < 16) {
+                lengths[index++] = (byte) symbol;
+                continue;
+            }
+            byte length = 0;
+            int repeat;
+            if (symbol == 16) {
+                GsZipUtil.check(index > 0, "Repeat with no first length");
+                length = lengths[index - 1];
+                repeat = 3 + bits(2);
+            } else if (symbol == 17) {
+                repeat = 3 + bits(3);
+            } else {
+                repeat = 11 + bits(7);
+            }
+            GsZipUtil.check(index + repeat <= lengths.length, "Too many lengths");
+            while (repeat-- > 0) {
+                lengths[index++] = length;
+            }
+        }
+        GsZipUtil.check(lengths[END_OF_BLOCK] != 0, "No end of block code");
+        codes(new Huffman(lengths, 0, lengthCount), new Huffman(lengths, lengthCount, distCount));
+    }
+
+    private void codes(@NonNull Huffman lengthCode, @NonNull Huffman distCode) throws IOException, GsZipException {
+        while (true) {
+            int symbol = decode(lengthCode);
+            if (symbol < END_OF_BLOCK) {
+                ensureOutput();
+                output[outputLength++] = (byte) symbol;
+                continue;
+            }
+            if (symbol == END_OF_BLOCK) {
+                return;
+            }
+            symbol -= 257;
+            GsZipUtil.check(symbol < LENGTH_BASE.length, "Invalid length symbol");
+            int length = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+            int distSymbol = decode(distCode);
+            GsZipUtil.check(distSymbol < DIST_BASE.length, "Invalid distance symbol");
+            int dist = DIST_BASE[distSymbol] + bits(DIST_EXTRA[distSymbol]);
+            GsZipUtil.check(dist <= getLength(), "Distance too far back");
+            ensureOutput();
+            // Byte by byte, the match may overlap itself
+            byte[] out = output;
+            int pos = outputLength;
+            for (int i = 0; i < length; ++i) {
+                out[pos + i] = out[pos + i - dist];
+            }
+            outputLength += length;
+        }
+    }
+
+    /**
+     * Make room for a match, the last window of output is slid to the start.
+     */
+    private void ensureOutput() {
+        if (outputLength + MAX_MATCH <= output.length) {
+            return;
+        }
+        crc.update(output, crcStart, outputLength - crcStart);
+        int keep = outputLength - WINDOW_SIZE;
+        System.arraycopy(output, keep, output, 0, WINDOW_SIZE);
+        outputBase += keep;
+        outputLength = WINDOW_SIZE;
+        crcStart = WINDOW_SIZE;
+    }
+
+    private int decode(@NonNull Huffman huffman) throws IOException, GsZipException {
+        if (bitCount < MAX_BITS) {
+            fillBits();
+        }
+        int entry = huffman.fast[(int) bitBuffer & ((1 << FAST_BITS) - 1)];
+        int length = entry & 0xF;
+        if (entry != 0 && length <= bitCount) {
+            bitBuffer >>>= length;
+            bitCount -= length;
+            return entry >>> 4;
+        }
+        // Canonical code bit by bit
+        int code = 0;
+        int first = 0;
+        int index = 0;
+        for (int len = 1; len <= MAX_BITS; ++len) {
+            code |= bits(1);
+            int count = huffman.counts[len];
+            if (code - count < first) {
+                return huffman.symbols[index + (code - first)];
+            }
+            index += count;
+            first += count;
+            first <<= 1;
+            code <<= 1;
+        }
+        throw new GsZipException("Invalid Huffman code");
+    }
+
+    private int bits(int count) throws IOException, GsZipException {
+        if (bitCount < count) {
+            fillBits();
+            GsZipUtil.check(bitCount >= count, "Unexpected end of deflate data");
+        }
+        int value = (int) bitBuffer & ((1 << count) - 1);
+        bitBuffer >>>= count;
+        bitCount -= count;
+        return value;
+    }
+
+    /**
+     * Fill the bit buffer with whole bytes as many as possible, fewer at the end of input.
+     */
+    private void fillBits() throws IOException {
+        while (bitCount <= 56) {
+            if (inputPos == inputLength && !fillInput()) {
+                return;
+            }
+            bitBuffer |= (long) (inputBuffer[inputPos++] & 0xFF) << bitCount;
+            bitCount += 8;
+            ++inputBytes;
+        }
+    }
+
+    private boolean fillInput() throws IOException {
+        int count = input.read(inputBuffer);
+        if (count <= 0) {
+            return false;
+        }
+        inputPos = 0;
+        inputLength = count;
+        return true;
+    }
+
+    /**
+     * Canonical Huffman code, with counts and symbols by length, and the lookup table of short codes.
+     */
+    private static final class Huffman {
+        @NonNull
+        final short[] counts;
+        @NonNull
+        final short[] symbols;
+        @NonNull
+        final int[] fast;
+
+        Huffman(@NonNull byte[] lengths, int off, int count) throws GsZipException {
+            counts = new short[MAX_BITS + 1];
+            symbols = new short[count];
+            fast = new int[1 << FAST_BITS];
+            for (int i = 0; i < count; ++i) {
+                ++counts[lengths[off + i]];
+            }
+            // Over-subscribed code is invalid, incomplete code is allowed for a single distance code
+            int left = 1;
+            for (int len = 1; len <= MAX_BITS; ++len) {
+                left <<= 1;
+                left -= counts[len];
+                GsZipUtil.check(left >= 0, "Over-subscribed Huffman code");
+            }
+            short[] offsets = new short[MAX_BITS + 2];
+            int[] nextCodes = new int[MAX_BITS + 2];
+            int code = 0;
+            for (int len = 1; len <= MAX_BITS; ++len) {
+                offsets[len + 1] = (short) (offsets[len] + counts[len]);
+                code = (code + counts[len - 1]) << 1;
+                nextCodes[len] = code;
+            }
+            counts[0] = 0;
+            for (int symbol = 0; symbol < count; ++symbol) {
+                int len = lengths[off + symbol];
+                if (len == 0) {
+                    continue;
+                }
+                symbols[offsets[len]++] = (short) symbol;
+                int symbolCode = nextCodes[len]++;
+                if (len <= FAST_BITS) {
+                    int reversed = Integer.reverse(symbolCode) >>> (32 - len);
+                    for (int i = reversed; i < fast.length; i += (1 << len)) {
+                        fast[i] = (symbol << 4) | len;
+                    }
+                }
+            }
+        }
+    }
+}
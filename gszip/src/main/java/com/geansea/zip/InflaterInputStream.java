@@ -1,6 +1,7 @@
 package com.geansea.zip;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import java.io.IOException;
 import java.util.zip.DataFormatException;
@@ -13,12 +14,37 @@ final class InflaterInputStream extends GsZipInputStream {
     private final Inflater inflater;
     @NonNull
     private final byte[] inputBuffer;
+    @Nullable
+    private final byte[] dictionary;
+    private final long startOffset;
     private int inputLength;
+    private boolean released;
 
     InflaterInputStream(@NonNull GsZipInputStream base) throws IOException {
+        this(base, GsZipUtil.DEFAULT_BUFFER_SIZE);
+    }
+
+    InflaterInputStream(@NonNull GsZipInputStream base, int bufferSize) throws IOException {
+        this(base, bufferSize, null, 0);
+    }
+
+    /**
+     * Inflate from the middle of deflate data, the base stream should start at a block boundary.
+     *
+     * @param base        the stream of deflate data
+     * @param bufferSize  the size of input buffer
+     * @param dictionary  the window of output before the boundary, null at the start of data
+     * @param startOffset the count of output bytes to skip, also skipped on restart
+     * @throws IOException if throws
+     */
+    InflaterInputStream(@NonNull GsZipInputStream base, int bufferSize, @Nullable byte[] dictionary, long startOffset)
+            throws IOException {
         this.base = base;
-        inflater = new Inflater(true);
-        inputBuffer = new byte[GsZipUtil.BUFFER_SIZE];
+        this.dictionary = dictionary;
+        this.startOffset = startOffset;
+        inflater = GsZipCodecPool.obtainInflater();
+        released = false;
+        inputBuffer = BufferPool.obtain(bufferSize);
         restart();
     }
 
@@ -37,31 +63,32 @@ final class InflaterInputStream extends GsZipInputStream {
         if (inflater.finished()) {
             return -1;
         }
-        int count = 0;
-        while (count == 0) {
-            if (inflater.finished()) {
-                break;
-            }
-            if (inflater.needsDictionary()) {
-                count = -1;
-                break;
-            }
-            if (inflater.needsInput()) {
-                fillInput();
-            }
-            try {
-                count = inflater.inflate(b, off, len);
-            } catch (DataFormatException e) {
-                String message = e.getMessage();
-                throw new IOException(message != null ? message : "Invalid ZLib data format");
+        int count;
+        try {
+            // Inflate before filling, the inflater may hold output for consumed input
+            while ((count = inflater.inflate(b, off, len)) == 0) {
+                if (inflater.finished() || inflater.needsDictionary()) {
+                    return -1;
+                }
+                if (inflater.needsInput()) {
+                    fillInput();
+                }
             }
+        } catch (DataFormatException e) {
+            String message = e.getMessage();
+            throw new IOException(message != null ? message : "Invalid ZLib data format");
         }
         return count;
     }
 
     @Override
     public void close() throws IOException {
-        inflater.end();
+        if (!released) {
+            // Return to pool only once, the inflater may be taken by another stream after it
+            released = true;
+            GsZipCodecPool.releaseInflater(inflater);
+            BufferPool.release(inputBuffer);
+        }
         base.close();
         super.close();
     }
@@ -72,6 +99,21 @@ final class InflaterInputStream extends GsZipInputStream {
         base.restart();
         inflater.reset();
         inputLength = 0;
+        if (dictionary != null) {
+            // Raw inflater takes the dictionary before any input
+            inflater.setDictionary(dictionary);
+        }
+        long left = startOffset;
+        if (left > 0) {
+            byte[] buffer = new byte[(int) Math.min(left, GsZipUtil.DEFAULT_BUFFER_SIZE)];
+            while (left > 0) {
+                int count = read(buffer, 0, (int) Math.min(left, buffer.length));
+                if (count < 0) {
+                    throw new IOException("Unexpected end of ZLib input stream");
+                }
+                left -= count;
+            }
+        }
     }
 
     private void fillInput() throws IOException {
@@ -0,0 +1,104 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only memory mapping of an archive file.
+ * Files over the max size of one mapping are mapped in windows.
+ */
+final class MappedArchive {
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    @NonNull
+    private final FileChannel channel;
+    @NonNull
+    private final MappedByteBuffer[] windows;
+    private final long length;
+
+    MappedArchive(@NonNull FileChannel channel) throws IOException {
+        this.channel = channel;
+        length = channel.size();
+        int windowCount = (int) ((length + WINDOW_SIZE - 1) / WINDOW_SIZE);
+        windows = new MappedByteBuffer[windowCount];
+        for (int i = 0; i < windowCount; ++i) {
+            long start = i * WINDOW_SIZE;
+            windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, length - start));
+        }
+    }
+
+    long length() {
+        return length;
+    }
+
+    /**
+     * Get a read-only view of range, without copying.
+     * A range across windows is mapped on its own.
+     *
+     * @param offset the start offset in file
+     * @param size   the byte size of range
+     * @return the view of range
+     * @throws IOException    if map failed
+     * @throws GsZipException if out of range
+     */
+    @NonNull
+    ByteBuffer slice(long offset, int size) throws IOException, GsZipException {
+        GsZipUtil.check(offset >= 0 && size >= 0 && offset + size <= length, "Slice out of range");
+        int window = (int) (offset / WINDOW_SIZE);
+        long windowStart = window * WINDOW_SIZE;
+        if (size == 0 || offset + size <= windowStart + windows[window].capacity()) {
+            ByteBuffer buffer = windows[window].duplicate();
+            buffer.position((int) (offset - windowStart));
+            buffer.limit((int) (offset - windowStart) + size);
+            return buffer.slice().asReadOnlyBuffer();
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, size).asReadOnlyBuffer();
+    }
+
+    /**
+     * Copy bytes from mapping, stops at the end of a window.
+     *
+     * @param offset the start offset in file
+     * @param b      the buffer to copy to
+     * @param off    the start offset in buffer
+     * @param len    the max count to copy
+     * @return the count copied, or -1 if at the end of file
+     */
+    int read(long offset, @NonNull byte[] b, int off, int len) {
+        if (offset >= length) {
+            return -1;
+        }
+        int window = (int) (offset / WINDOW_SIZE);
+        long windowStart = window * WINDOW_SIZE;
+        ByteBuffer buffer = windows[window].duplicate();
+        buffer.position((int) (offset - windowStart));
+        int count = Math.min(len, buffer.remaining());
+        buffer.get(b, off, count);
+        return count;
+    }
+
+    /**
+     * Copy bytes from mapping to buffer, stops at the end of a window.
+     *
+     * @param offset the start offset in file
+     * @param dst    the buffer to copy to, up to its remaining
+     * @return the count copied, or -1 if at the end of file
+     */
+    int read(long offset, @NonNull ByteBuffer dst) {
+        if (offset >= length) {
+            return -1;
+        }
+        int window = (int) (offset / WINDOW_SIZE);
+        long windowStart = window * WINDOW_SIZE;
+        ByteBuffer buffer = windows[window].duplicate();
+        buffer.position((int) (offset - windowStart));
+        int count = Math.min(dst.remaining(), buffer.remaining());
+        buffer.limit(buffer.position() + count);
+        dst.put(buffer);
+        return count;
+    }
+}
@@ -0,0 +1,66 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * Sub-stream for mapped archive, copies from the mapping without system calls.
+ */
+final class MappedInputStream extends GsZipInputStream {
+    @NonNull
+    private final MappedArchive archive;
+    private final long start;
+    private final long end;
+    private long offset;
+
+    MappedInputStream(@NonNull MappedArchive archive, long start, long end) throws IOException, GsZipException {
+        GsZipUtil.check(start <= end,
+                "Start position should br no greater than end position");
+        GsZipUtil.check(end <= archive.length(),
+                "End position should be no greater than file length");
+        this.archive = archive;
+        this.start = start;
+        this.end = end;
+        restart();
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return (int) Math.min(end - offset, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+        if (offset >= end) {
+            return -1;
+        }
+        int count = archive.read(offset, b, off, (int) Math.min(len, end - offset));
+        if (count > 0) {
+            offset += count;
+            return count;
+        } else {
+            return -1;
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        ensureOpen();
+        // Seek without reading
+        long count = Math.max(Math.min(n, end - offset), 0);
+        offset += count;
+        return count;
+    }
+
+    @Override
+    public void restart() throws IOException {
+        ensureOpen();
+        offset = start;
+    }
+}
@@ -10,24 +10,39 @@ final class PKWareDecryptInputStream extends GsZipInputStream {
     @NonNull
     private final GsZipInputStream base;
     @NonNull
-    private final byte[] password;
+    private final PKWareKey passwordKey;
     @NonNull
     private final PKWareKey key;
     @NonNull
     private final byte[] header;
+    private final boolean passwordMatched;
 
+    /**
+     * @param base        the stream of encrypted entry data
+     * @param passwordKey the key updated with password, not changed by the stream
+     * @param timeCheck   the check byte from time
+     * @param crcCheck    the check byte from CRC
+     */
     PKWareDecryptInputStream(@NonNull GsZipInputStream base,
-                             @NonNull byte[] password,
+                             @NonNull PKWareKey passwordKey,
                              byte timeCheck,
-                             byte crcCheck) throws IOException, GsZipException {
+                             byte crcCheck) throws IOException {
         this.base = base;
-        this.password = password;
+        this.passwordKey = passwordKey;
         key = new PKWareKey();
         header = new byte[HEADER_LEN];
         restart();
         byte checkByte = header[header.length - 1];
-        GsZipUtil.check(checkByte == crcCheck || checkByte == timeCheck,
-                "Check byte not matched, the password maybe incorrect");
+        passwordMatched = (checkByte == crcCheck || checkByte == timeCheck);
+    }
+
+    /**
+     * Check the last byte of decrypted header, a wrong password is found in most cases.
+     *
+     * @return true if the check byte matched
+     */
+    boolean isPasswordMatched() {
+        return passwordMatched;
     }
 
     @Override
@@ -41,6 +56,7 @@ final class PKWareDecryptInputStream extends GsZipInputStream {
         ensureOpen();
         int count = base.read(b, off, len);
         if (count > 0) {
+            // Per-byte loop, the bulk PKWareKey.decrypt is not faster here, see PKWareKey
             for (int i = off; i < off + count; ++i) {
                 b[i] ^= key.cryptByte();
                 key.update(b[i]);
@@ -59,11 +75,8 @@ final class PKWareDecryptInputStream extends GsZipInputStream {
     public void restart() throws IOException {
         ensureOpen();
         base.restart();
-        key.reset();
-        // Update key with password
-        for (byte c : password) {
-            key.update(c);
-        }
+        // Key state after password is precomputed
+        key.set(passwordKey);
         // Update key with header
         int readLen = base.read(header);
         if (readLen != header.length) {
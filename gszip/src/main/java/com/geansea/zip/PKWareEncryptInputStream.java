@@ -6,7 +6,7 @@ import java.io.IOException;
 import java.util.Random;
 
 final class PKWareEncryptInputStream extends GsZipInputStream {
-    private static final int HEADER_LEN = 12;
+    static final int HEADER_LEN = 12;
 
     @NonNull
     private final GsZipInputStream base;
@@ -58,6 +58,7 @@ final class PKWareEncryptInputStream extends GsZipInputStream {
         }
         int count = base.read(b, off, len);
         if (count > 0) {
+            // Per-byte loop, the bulk PKWareKey.encrypt is not faster here, see PKWareKey
             for (int i = off; i < off + count; ++i) {
                 byte c = b[i];
                 b[i] ^= key.cryptByte();
@@ -80,9 +81,7 @@ final class PKWareEncryptInputStream extends GsZipInputStream {
         key.reset();
         headerPos = 0;
         // Update key with password
-        for (byte c : password) {
-            key.update(c);
-        }
+        key.update(password);
         // Update key and header
         for (int i = 0; i < header.length; ++i) {
             header[i] = (byte) (rawHeader[i] ^ key.cryptByte());
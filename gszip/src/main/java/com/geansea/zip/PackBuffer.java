@@ -0,0 +1,22 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * In-memory buffer for packed entries, supports patching and rewinding like a file.
+ */
+final class PackBuffer extends ByteArrayOutputStream {
+    PackBuffer(int size) {
+        super(size);
+    }
+
+    synchronized void patch(int offset, @NonNull byte[] bytes) {
+        System.arraycopy(bytes, 0, buf, offset, bytes.length);
+    }
+
+    synchronized void rewind(int offset) {
+        count = offset;
+    }
+}
@@ -0,0 +1,183 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Output target of GsZipPacker.
+ * Tracks the write position, and supports patching written bytes when backed by a file channel or memory.
+ */
+final class PackOutput extends OutputStream {
+    @Nullable
+    private final OutputStream stream;
+    @Nullable
+    private final FileChannel channel;
+    @Nullable
+    private final PackBuffer memory;
+    private final long keptSize;
+    private long position;
+
+    PackOutput(@NonNull OutputStream stream) {
+        this.stream = stream;
+        channel = null;
+        memory = null;
+        keptSize = 0;
+        position = 0;
+    }
+
+    /**
+     * Output to file channel from its current position, positions are offsets in the channel.
+     * Bytes after the output are dropped on finish only if truncate is set, for a file owned by the packer.
+     * Otherwise only bytes written and left behind by rewinding are dropped, the original length is kept.
+     *
+     * @param channel  the channel to write
+     * @param truncate whether to drop all bytes after the output on finish
+     * @throws IOException if throws
+     */
+    PackOutput(@NonNull FileChannel channel, boolean truncate) throws IOException {
+        stream = null;
+        this.channel = channel;
+        memory = null;
+        keptSize = truncate ? 0 : channel.size();
+        position = channel.position();
+    }
+
+    PackOutput(@NonNull PackBuffer memory) {
+        stream = memory;
+        channel = null;
+        this.memory = memory;
+        keptSize = 0;
+        position = memory.size();
+    }
+
+    /**
+     * Whether written bytes can be patched or rewound.
+     *
+     * @return true if backed by a file channel or memory
+     */
+    boolean isSeekable() {
+        return (channel != null || memory != null);
+    }
+
+    /**
+     * Get the write position, the offset in file for channel output.
+     *
+     * @return the write position
+     */
+    long position() {
+        return position;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+        if (channel != null) {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } else if (stream != null) {
+            stream.write(b, off, len);
+        }
+        position += len;
+    }
+
+    /**
+     * Copy a range of source file to output, with FileChannel.transferTo so the bytes may not pass the JVM heap.
+     *
+     * @param source the source channel
+     * @param offset the start offset in source
+     * @param count  the count of bytes
+     * @throws IOException    if throws
+     * @throws GsZipException if the source ends before the range
+     */
+    void transferFrom(@NonNull FileChannel source, long offset, long count) throws IOException, GsZipException {
+        // Channel target is written at its position, which is kept at position
+        WritableByteChannel target = (channel != null) ? channel : Channels.newChannel(stream);
+        long done = 0;
+        while (done < count) {
+            long transferred = source.transferTo(offset + done, count - done, target);
+            GsZipUtil.check(transferred > 0, "Source data out of file");
+            done += transferred;
+        }
+        position += count;
+    }
+
+    /**
+     * Overwrite bytes already written, the write position is not changed.
+     *
+     * @param offset the offset to patch
+     * @param bytes  the new bytes
+     * @throws IOException    if throws
+     * @throws GsZipException if not seekable or out of range
+     */
+    void patch(long offset, @NonNull byte[] bytes) throws IOException, GsZipException {
+        GsZipUtil.check(isSeekable(), "Output is not seekable");
+        GsZipUtil.check(offset >= 0 && offset + bytes.length <= position, "Patch out of range");
+        if (memory != null) {
+            memory.patch((int) offset, bytes);
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long filePos = offset;
+        while (buffer.hasRemaining()) {
+            filePos += channel.write(buffer, filePos);
+        }
+    }
+
+    /**
+     * Move the write position back, following bytes will be overwritten or truncated.
+     *
+     * @param offset the new position
+     * @throws IOException    if throws
+     * @throws GsZipException if not seekable or out of range
+     */
+    void rewind(long offset) throws IOException, GsZipException {
+        GsZipUtil.check(isSeekable(), "Output is not seekable");
+        GsZipUtil.check(offset >= 0 && offset <= position, "Rewind out of range");
+        if (memory != null) {
+            memory.rewind((int) offset);
+        } else {
+            channel.position(offset);
+        }
+        position = offset;
+    }
+
+    /**
+     * Force written bytes to storage device when backed by a file channel.
+     *
+     * @throws IOException if throws
+     */
+    void force() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Flush the output, and drop bytes left behind the position by rewinding.
+     *
+     * @throws IOException if throws
+     */
+    void finish() throws IOException {
+        if (channel != null) {
+            long end = Math.max(position, keptSize);
+            if (channel.size() > end) {
+                channel.truncate(end);
+            }
+        } else if (stream != null) {
+            stream.flush();
+        }
+    }
+}
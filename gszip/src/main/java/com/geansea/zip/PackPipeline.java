@@ -0,0 +1,230 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parallel pipeline for GsZipPacker.
+ * Worker threads encode jobs into memory, largest first, with in-flight bytes bounded by a budget.
+ * The caller takes jobs in archive order, a job not started by any worker is left to the caller.
+ */
+final class PackPipeline {
+    /**
+     * One entry to encode.
+     */
+    abstract static class Job {
+        private final long estimate;
+        @NonNull
+        private final AtomicBoolean claimed;
+        private boolean done;
+        private long reserved;
+        @Nullable
+        private PackBuffer buffer;
+        @Nullable
+        private Throwable error;
+
+        /**
+         * @param estimate the estimated byte size of encoded entry
+         */
+        Job(long estimate) {
+            this.estimate = estimate;
+            claimed = new AtomicBoolean(false);
+        }
+
+        /**
+         * Encode the entry, called on worker thread.
+         *
+         * @param output the in-memory output
+         * @throws IOException    if throws
+         * @throws GsZipException if throws
+         */
+        abstract void encode(@NonNull PackOutput output) throws IOException, GsZipException;
+
+        private boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        private synchronized void complete(@Nullable PackBuffer buffer, @Nullable Throwable error) {
+            this.buffer = buffer;
+            this.error = error;
+            done = true;
+            notifyAll();
+        }
+
+        private synchronized void cancel() {
+            if (!done) {
+                complete(null, new GsZipException("Pipeline stopped"));
+            }
+        }
+
+        private synchronized void waitDone() throws IOException {
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for entry");
+                }
+            }
+        }
+    }
+
+    @NonNull
+    private final List<Job> sortedJobs;
+    private final int threadCount;
+    private final long budget;
+    @NonNull
+    private final AtomicInteger cursor;
+    private long used;
+    private boolean stopped;
+    @Nullable
+    private ExecutorService executor;
+
+    PackPipeline(@NonNull List<? extends Job> jobs, int threadCount, long budget) {
+        sortedJobs = new ArrayList<>(jobs);
+        Collections.sort(sortedJobs, new Comparator<Job>() {
+            @Override
+            public int compare(Job lhs, Job rhs) {
+                return (lhs.estimate > rhs.estimate ? -1 : (lhs.estimate < rhs.estimate ? 1 : 0));
+            }
+        });
+        this.threadCount = threadCount;
+        this.budget = budget;
+        cursor = new AtomicInteger(0);
+        used = 0;
+        stopped = false;
+    }
+
+    void start() {
+        executor = Executors.newFixedThreadPool(threadCount);
+        for (int i = 0; i < threadCount; ++i) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            });
+        }
+    }
+
+    /**
+     * Take the encoded job, wait if it is in progress.
+     *
+     * @param job the job to take
+     * @return the encoded bytes, or null if the job is left to caller
+     * @throws IOException    if the job failed with it
+     * @throws GsZipException if the job failed with it, or stopped before done
+     * @throws Error          if the job failed with it, like out of memory
+     */
+    @Nullable
+    PackBuffer take(@NonNull Job job) throws IOException, GsZipException {
+        if (job.claim()) {
+            return null;
+        }
+        job.waitDone();
+        if (job.error instanceof IOException) {
+            throw (IOException) job.error;
+        }
+        if (job.error instanceof GsZipException) {
+            throw (GsZipException) job.error;
+        }
+        if (job.error instanceof Error) {
+            throw (Error) job.error;
+        }
+        if (job.error != null) {
+            throw new GsZipException("Encode entry failed: " + job.error);
+        }
+        return job.buffer;
+    }
+
+    /**
+     * Release the budget of a job taken and written.
+     *
+     * @param job the job to release
+     */
+    void release(@NonNull Job job) {
+        job.buffer = null;
+        unreserve(job.reserved);
+        job.reserved = 0;
+    }
+
+    /**
+     * Stop workers, jobs claimed but not done are marked as failed, so no caller waits on them.
+     */
+    void stop() {
+        synchronized (this) {
+            stopped = true;
+            notifyAll();
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+        for (Job job : sortedJobs) {
+            if (job.claimed.get()) {
+                job.cancel();
+            }
+        }
+    }
+
+    private void work() {
+        int index;
+        while ((index = cursor.getAndIncrement()) < sortedJobs.size()) {
+            Job job = sortedJobs.get(index);
+            if (job.estimate > budget || job.claimed.get()) {
+                // Too large to buffer or already taken, the caller will write it directly
+                continue;
+            }
+            if (!reserve(job.estimate)) {
+                return;
+            }
+            if (!job.claim()) {
+                unreserve(job.estimate);
+                continue;
+            }
+            job.reserved = job.estimate;
+            PackBuffer buffer = null;
+            Throwable error = null;
+            try {
+                buffer = new PackBuffer((int) Math.min(job.estimate, Integer.MAX_VALUE));
+                job.encode(new PackOutput(buffer));
+            } catch (Throwable e) {
+                // Errors like out of memory are passed to the caller too, the worker keeps going
+                buffer = null;
+                error = e;
+            } finally {
+                job.complete(buffer, error);
+            }
+        }
+    }
+
+    private synchronized boolean reserve(long size) {
+        while (!stopped && used > 0 && used + size > budget) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        if (stopped) {
+            return false;
+        }
+        used += size;
+        return true;
+    }
+
+    private synchronized void unreserve(long size) {
+        used -= size;
+        notifyAll();
+    }
+}
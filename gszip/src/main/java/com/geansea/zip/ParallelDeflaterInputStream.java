@@ -0,0 +1,253 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Deflate stream that compresses chunks of base stream concurrently, in the way of pigz.
+ * Each chunk is primed with the last 32K of previous chunk as dictionary and ended with a sync flush,
+ * so the concatenated output is one standard raw deflate stream.
+ * The CRC32 of base stream is combined from the CRC32 of chunks.
+ */
+final class ParallelDeflaterInputStream extends GsZipInputStream {
+    private static final int DICT_SIZE = 32 * 1024;
+
+    @NonNull
+    private final GsZipInputStream base;
+    @NonNull
+    private final ExecutorService executor;
+    private final int level;
+    private final int strategy;
+    private final int chunkSize;
+    private final int maxPending;
+    @NonNull
+    private final LinkedList<Future<Chunk>> pending;
+    @Nullable
+    private byte[] prevInput;
+    private int prevLength;
+    @Nullable
+    private byte[] nextInput;
+    private int nextLength;
+    private boolean inputDone;
+    @Nullable
+    private Chunk current;
+    private int currentPos;
+    private int crc;
+    private long length;
+
+    ParallelDeflaterInputStream(@NonNull GsZipInputStream base,
+                                @NonNull ExecutorService executor,
+                                int level,
+                                int strategy,
+                                int chunkSize,
+                                int maxPending) throws IOException {
+        this.base = base;
+        this.executor = executor;
+        this.level = level;
+        this.strategy = strategy;
+        this.chunkSize = Math.max(chunkSize, DICT_SIZE);
+        this.maxPending = Math.max(maxPending, 1);
+        pending = new LinkedList<>();
+        restart();
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return (current != null || !pending.isEmpty() || !inputDone) ? 1 : 0;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+        while (current == null || currentPos >= current.output.length) {
+            if (!nextChunk()) {
+                return -1;
+            }
+        }
+        int count = Math.min(len, current.output.length - currentPos);
+        System.arraycopy(current.output, currentPos, b, off, count);
+        currentPos += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        cancelPending();
+        base.close();
+        super.close();
+    }
+
+    @Override
+    public void restart() throws IOException {
+        ensureOpen();
+        cancelPending();
+        base.restart();
+        prevInput = null;
+        prevLength = 0;
+        nextInput = null;
+        nextLength = 0;
+        inputDone = false;
+        current = null;
+        currentPos = 0;
+        crc = 0;
+        length = 0;
+    }
+
+    /**
+     * Get the CRC32 of base stream data deflated since last restart.
+     *
+     * @return the CRC32 value
+     */
+    int getCRC() {
+        return crc;
+    }
+
+    /**
+     * Get the length of base stream data deflated since last restart.
+     *
+     * @return the length in bytes
+     */
+    long getLength() {
+        return length;
+    }
+
+    private boolean nextChunk() throws IOException {
+        submitChunks();
+        if (pending.isEmpty()) {
+            current = null;
+            return false;
+        }
+        try {
+            current = pending.removeFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while deflating");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Deflate chunk failed: " + cause);
+        }
+        currentPos = 0;
+        crc = GsZipUtil.crc32Combine(crc, current.crc, current.length);
+        length += current.length;
+        submitChunks();
+        return true;
+    }
+
+    private void submitChunks() throws IOException {
+        if (nextInput == null && !inputDone) {
+            nextInput = new byte[chunkSize];
+            nextLength = readChunk(nextInput);
+            // An empty stream still needs one final block
+            inputDone = (nextLength == 0 && prevInput != null);
+        }
+        while (pending.size() < maxPending && !inputDone) {
+            final byte[] input = nextInput;
+            final int inputLength = nextLength;
+            byte[] following = new byte[chunkSize];
+            int followingLength = readChunk(following);
+            final boolean last = (followingLength == 0);
+            final byte[] dict = prevInput;
+            final int dictLength = prevLength;
+            pending.add(executor.submit(new Callable<Chunk>() {
+                @Override
+                public Chunk call() {
+                    return deflateChunk(input, inputLength, dict, dictLength, last, level, strategy);
+                }
+            }));
+            prevInput = input;
+            prevLength = inputLength;
+            nextInput = (last ? null : following);
+            nextLength = followingLength;
+            inputDone = last;
+        }
+    }
+
+    private int readChunk(@NonNull byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int count = base.read(buffer, total, buffer.length - total);
+            if (count <= 0) {
+                break;
+            }
+            total += count;
+        }
+        return total;
+    }
+
+    private void cancelPending() {
+        for (Future<Chunk> future : pending) {
+            future.cancel(false);
+        }
+        pending.clear();
+    }
+
+    @NonNull
+    private static Chunk deflateChunk(@NonNull byte[] input,
+                                      int inputLength,
+                                      @Nullable byte[] dict,
+                                      int dictLength,
+                                      boolean last,
+                                      int level,
+                                      int strategy) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(input, 0, inputLength);
+        Deflater deflater = GsZipCodecPool.obtainDeflater(level, strategy);
+        byte[] buffer = BufferPool.obtain(GsZipUtil.DEFAULT_BUFFER_SIZE);
+        try {
+            if (dict != null && dictLength > 0) {
+                int dictSize = Math.min(dictLength, DICT_SIZE);
+                deflater.setDictionary(dict, dictLength - dictSize, dictSize);
+            }
+            deflater.setInput(input, 0, inputLength);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(inputLength / 2 + 64);
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    output.write(buffer, 0, count);
+                }
+            } else {
+                // Sync flush to end the chunk on a byte boundary
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    output.write(buffer, 0, count);
+                } while (count == buffer.length || !deflater.needsInput());
+            }
+            return new Chunk(output.toByteArray(), (int) crc32.getValue(), inputLength);
+        } finally {
+            GsZipCodecPool.releaseDeflater(deflater, level, strategy);
+            BufferPool.release(buffer);
+        }
+    }
+
+    private static final class Chunk {
+        @NonNull
+        final byte[] output;
+        final int crc;
+        final int length;
+
+        Chunk(@NonNull byte[] output, int crc, int length) {
+            this.output = output;
+            this.crc = crc;
+            this.length = length;
+        }
+    }
+}
@@ -4,31 +4,38 @@ import android.support.annotation.NonNull;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
- * Sub-stream for random access file.
+ * Sub-stream for file channel.
  * This is usually the base stream of GsZipInputStream.
+ * Reads are positional, so streams on the same channel do not share any position or lock.
  */
 final class SubInputStream extends GsZipInputStream {
     @NonNull
-    private final RandomAccessFile file;
+    private final FileChannel channel;
     private final long start;
     private final long end;
     private long offset;
 
-    SubInputStream(@NonNull RandomAccessFile file, long start, long end) throws IOException, GsZipException {
+    SubInputStream(@NonNull FileChannel channel, long start, long end) throws IOException, GsZipException {
         GsZipUtil.check(start <= end,
                 "Start position should br no greater than end position");
-        GsZipUtil.check(end <= file.length(),
+        GsZipUtil.check(end <= channel.size(),
                 "End position should be no greater than file length");
-        this.file = file;
+        this.channel = channel;
         this.start = start;
         this.end = end;
         restart();
     }
 
+    SubInputStream(@NonNull FileChannel channel, long start) throws IOException, GsZipException {
+        this(channel, start, channel.size());
+    }
+
     SubInputStream(@NonNull RandomAccessFile file, long start) throws IOException, GsZipException {
-        this(file, start, file.length());
+        this(file.getChannel(), start);
     }
 
     @Override
@@ -46,11 +53,8 @@ final class SubInputStream extends GsZipInputStream {
         if (offset >= end) {
             return -1;
         }
-        int count = Math.min(len, (int) (end - offset));
-        synchronized (file) {
-            file.seek(offset);
-            count = file.read(b, off, count);
-        }
+        int count = (int) Math.min(len, end - offset);
+        count = channel.read(ByteBuffer.wrap(b, off, count), offset);
         if (count > 0) {
             offset += count;
             return count;
@@ -59,6 +63,15 @@ final class SubInputStream extends GsZipInputStream {
         }
     }
 
+    @Override
+    public long skip(long n) throws IOException {
+        ensureOpen();
+        // Seek without reading
+        long count = Math.max(Math.min(n, end - offset), 0);
+        offset += count;
+        return count;
+    }
+
     @Override
     public void restart() throws IOException {
         ensureOpen();
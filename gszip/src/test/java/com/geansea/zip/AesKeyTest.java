@@ -0,0 +1,78 @@
+package com.geansea.zip;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AesKeyTest {
+    private static final byte[] PASSWORD = "password".getBytes();
+
+    @Test
+    public void pbkdf2() throws Exception {
+        // Test vectors of RFC 6070
+        byte[] salt = "salt".getBytes();
+        assertEquals("0c60c80f961f0e71f3a9b524af6012062fe037a6", hex(AesKey.pbkdf2(PASSWORD, salt, 1, 20)));
+        assertEquals("4b007901b765489abead49d926f721d065a429c1", hex(AesKey.pbkdf2(PASSWORD, salt, 4096, 20)));
+        byte[] longKey = AesKey.pbkdf2("passwordPASSWORDpassword".getBytes(),
+                "saltSALTsaltSALTsaltSALTsaltSALTsalt".getBytes(), 4096, 25);
+        assertEquals("3d2eec4fe41c849b80c8d83662c0e44a8b291a964cf2f07038", hex(longKey));
+    }
+
+    @Test
+    public void crypt() throws Exception {
+        byte[] salt = new byte[AesKey.saltLength(AesKey.STRENGTH_256)];
+        new Random(1).nextBytes(salt);
+        byte[] plain = new byte[10000];
+        new Random(2).nextBytes(plain);
+
+        // Split in pieces over the key stream batches
+        byte[] data = plain.clone();
+        AesKey key = new AesKey(PASSWORD, salt, AesKey.STRENGTH_256);
+        key.encrypt(data, 0, 5);
+        key.encrypt(data, 5, 4100);
+        key.encrypt(data, 4105, data.length - 4105);
+        byte[] mac = key.finishMac();
+        assertEquals(AesKey.MAC_LEN, mac.length);
+        assertFalse(Arrays.equals(plain, data));
+
+        key.reset();
+        byte[] whole = plain.clone();
+        key.encrypt(whole, 0, whole.length);
+        assertArrayEquals(data, whole);
+        assertArrayEquals(mac, key.finishMac());
+
+        key = new AesKey(PASSWORD, salt, AesKey.STRENGTH_256);
+        key.decrypt(data, 0, data.length);
+        assertArrayEquals(plain, data);
+        assertArrayEquals(mac, key.finishMac());
+
+        // Same salt with other password
+        AesKey other = new AesKey("other".getBytes(), salt, AesKey.STRENGTH_256);
+        assertFalse(Arrays.equals(key.getVerifier(), other.getVerifier()));
+    }
+
+    @Test
+    public void key_cache() throws Exception {
+        byte[] salt = new byte[AesKey.saltLength(AesKey.STRENGTH_128)];
+        new Random(3).nextBytes(salt);
+        AesKeyCache cache = new AesKeyCache(PASSWORD);
+        byte[] keys = cache.getKeys(salt, AesKey.STRENGTH_128);
+        assertArrayEquals(AesKey.deriveKeys(PASSWORD, salt, AesKey.STRENGTH_128), keys);
+        assertSame(keys, cache.getKeys(salt, AesKey.STRENGTH_128));
+        assertArrayEquals(new AesKey(PASSWORD, salt, AesKey.STRENGTH_128).getVerifier(),
+                new AesKey(cache, salt, AesKey.STRENGTH_128).getVerifier());
+
+        // Keys are wiped when cleared, and derived again
+        cache.clear();
+        assertArrayEquals(new byte[keys.length], keys);
+        assertNotSame(keys, cache.getKeys(salt, AesKey.STRENGTH_128));
+    }
+
+    private static String hex(byte[] bytes) {
+        return String.format("%0" + (bytes.length * 2) + "x", new BigInteger(1, bytes));
+    }
+}
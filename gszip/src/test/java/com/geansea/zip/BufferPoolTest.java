@@ -0,0 +1,19 @@
+package com.geansea.zip;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolTest {
+    @Test
+    public void reuse() {
+        byte[] buffer = BufferPool.obtain(12345);
+        assertEquals(12345, buffer.length);
+        BufferPool.release(buffer);
+        assertSame(buffer, BufferPool.obtain(12345));
+        // Other sizes do not share buffers
+        BufferPool.release(buffer);
+        assertNotSame(buffer, BufferPool.obtain(12346));
+        assertSame(buffer, BufferPool.obtain(12345));
+    }
+}
@@ -2,11 +2,14 @@ package com.geansea.zip;
 
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class CentralDirEndTest {
@@ -84,4 +87,92 @@ public class CentralDirEndTest {
         } catch (GsZipException ignored) {
         }
     }
+
+    @Test
+    public void testLocate() throws Exception {
+        byte[] tail = new byte[100 + bytes.length];
+        System.arraycopy(bytes, 0, tail, 100, bytes.length);
+        ByteBuffer buffer = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(100, CentralDirEnd.locate(buffer, 0x10000000L));
+        // Central dir overlaps the end record
+        assertEquals(-1, CentralDirEnd.locate(buffer, 0));
+        // Not a zip file
+        assertEquals(-1, CentralDirEnd.locate(ByteBuffer.wrap(new byte[200]), 0));
+    }
+
+    @Test
+    public void testLocate_fakeInComment() throws Exception {
+        // The comment ends with a sign and fields whose own comment can not fit in file
+        CentralDirEnd fake = new CentralDirEnd();
+        fake.setComment("0123456789", StandardCharsets.ISO_8859_1);
+        byte[] fakeBytes = new byte[fake.byteSize()];
+        fake.writeTo(fakeBytes);
+
+        CentralDirEnd end = new CentralDirEnd();
+        end.setComment(new String(fakeBytes, 0, CentralDirEnd.BASE_SIZE, StandardCharsets.ISO_8859_1),
+                StandardCharsets.ISO_8859_1);
+        byte[] tail = new byte[end.byteSize()];
+        end.writeTo(tail);
+
+        ByteBuffer buffer = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(0, CentralDirEnd.locate(buffer, 0));
+    }
+
+    @Test
+    public void testLocator() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(CentralDirEnd.LOCATOR_SIZE + bytes.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(CentralDirEnd.LOCATOR_MAGIC);
+        buffer.putInt(0);
+        buffer.putLong(0x123456789AL);
+        buffer.putInt(1);
+        buffer.put(bytes);
+        CentralDirEnd end = new CentralDirEnd();
+        int pos = CentralDirEnd.locate(buffer, 0x10000000L);
+        assertEquals(CentralDirEnd.LOCATOR_SIZE, pos);
+        end.readLocatorFrom(buffer, pos);
+        assertEquals(0x123456789AL, end.getZip64EndOffset());
+
+        end.readLocatorFrom(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN), 0);
+        assertEquals(-1, end.getZip64EndOffset());
+    }
+
+    @Test
+    public void testWrite_zip64() throws Exception {
+        long bigCount = 70000;
+        long bigOffset = 0x123456789L;
+        CentralDirEnd end = new CentralDirEnd();
+        end.setEntryCount(bigCount);
+        end.setDirRange(bigOffset, dirSize);
+        end.setComment(comment, StandardCharsets.UTF_8);
+        byte[] out = new byte[end.byteSize()];
+        end.writeTo(out);
+        assertEquals(CentralDirEnd.ZIP64_BASE_SIZE + CentralDirEnd.LOCATOR_SIZE + bytes.length, out.length);
+
+        ByteBuffer buffer = ByteBuffer.wrap(out).order(ByteOrder.LITTLE_ENDIAN);
+        long tailOffset = bigOffset + dirSize;
+        int pos = CentralDirEnd.locate(buffer, tailOffset);
+        assertEquals(CentralDirEnd.ZIP64_BASE_SIZE + CentralDirEnd.LOCATOR_SIZE, pos);
+        CentralDirEnd read = new CentralDirEnd();
+        read.readFrom(Arrays.copyOfRange(out, pos, out.length));
+        assertEquals(0xFFFF, read.getEntryCount());
+        assertTrue(read.isZip64Marked());
+        read.readLocatorFrom(buffer, pos);
+        assertEquals(tailOffset, read.getZip64EndOffset());
+        read.readZip64From(ByteBuffer.wrap(out).order(ByteOrder.LITTLE_ENDIAN));
+        assertEquals(bigCount, read.getEntryCount());
+        assertEquals(bigOffset, read.getDirOffset());
+        assertEquals(dirSize, read.getDirSize());
+    }
+
+    @Test
+    public void testWrite_classic() throws Exception {
+        CentralDirEnd end = new CentralDirEnd();
+        end.setEntryCount(0xFFFE);
+        end.setDirRange(0xFFFFFFFEL - dirSize, dirSize);
+        assertEquals(CentralDirEnd.BASE_SIZE, end.byteSize());
+        end.setEntryCount(0xFFFF);
+        assertEquals(CentralDirEnd.ZIP64_BASE_SIZE + CentralDirEnd.LOCATOR_SIZE + CentralDirEnd.BASE_SIZE,
+                end.byteSize());
+    }
 }
@@ -0,0 +1,98 @@
+package com.geansea.zip;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+
+public class EntryHeaderTest {
+    private static final long BIG_SIZE = 5L * 1024 * 1024 * 1024;
+    private static final long BIG_OFFSET = 6L * 1024 * 1024 * 1024;
+
+    private static EntryHeader newHeader(boolean central, long size, long offset) {
+        EntryHeader header = new EntryHeader();
+        header.setSign(central);
+        header.setFileName("data.bin");
+        header.setCompSize(size);
+        header.setUncompSize(size);
+        header.setLocalOffset(offset);
+        return header;
+    }
+
+    private static byte[] write(EntryHeader header, boolean central) throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        header.writeTo(stream, central);
+        return stream.toByteArray();
+    }
+
+    private static EntryHeader read(byte[] bytes, boolean central) throws Exception {
+        EntryHeader header = new EntryHeader();
+        header.readFrom(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN), central);
+        return header;
+    }
+
+    @Test
+    public void testWrite_classic() throws Exception {
+        byte[] bytes = write(newHeader(true, 100, 200), true);
+        assertEquals(0x2E + 8, bytes.length);
+        EntryHeader header = read(bytes, true);
+        assertEquals(100, header.getCompSize());
+        assertEquals(100, header.getUncompSize());
+        assertEquals(200, header.getLocalOffset());
+    }
+
+    @Test
+    public void testWrite_zip64Central() throws Exception {
+        byte[] bytes = write(newHeader(true, BIG_SIZE, BIG_OFFSET), true);
+        assertEquals(0x2E + 8 + 4 + 24, bytes.length);
+        EntryHeader header = read(bytes, true);
+        assertEquals(BIG_SIZE, header.getCompSize());
+        assertEquals(BIG_SIZE, header.getUncompSize());
+        assertEquals(BIG_OFFSET, header.getLocalOffset());
+
+        // Only the offset is over 32-bit
+        bytes = write(newHeader(true, 100, BIG_OFFSET), true);
+        assertEquals(0x2E + 8 + 4 + 8, bytes.length);
+        header = read(bytes, true);
+        assertEquals(100, header.getCompSize());
+        assertEquals(BIG_OFFSET, header.getLocalOffset());
+    }
+
+    @Test
+    public void testWrite_zip64Local() throws Exception {
+        byte[] bytes = write(newHeader(false, BIG_SIZE, 0), false);
+        assertEquals(0x1E + 8 + 4 + 16, bytes.length);
+        EntryHeader header = read(bytes, false);
+        assertEquals(BIG_SIZE, header.getCompSize());
+        assertEquals(BIG_SIZE, header.getUncompSize());
+
+        // Reserved header keeps its size when patched with small sizes
+        EntryHeader reserved = newHeader(false, 0, 0);
+        reserved.setZip64Reserved(true);
+        assertEquals(bytes.length, write(reserved, false).length);
+        reserved.setCompSize(100);
+        reserved.setUncompSize(200);
+        header = read(write(reserved, false), false);
+        assertEquals(100, header.getCompSize());
+        assertEquals(200, header.getUncompSize());
+    }
+
+    @Test
+    public void testWriteSize() throws Exception {
+        // Sizes with the ZIP64 and AES extra fields built for write, not the stored one
+        EntryHeader header = newHeader(true, BIG_SIZE, BIG_OFFSET);
+        header.setEncMethod(EntryHeader.ENCRYPT_AES);
+        assertEquals(write(header, true).length, header.writeSize(true));
+        assertEquals(0x2E + 8, header.byteSize(true));
+        header.setSign(false);
+        assertEquals(write(header, false).length, header.writeSize(false));
+
+        EntryHeader reserved = newHeader(false, 0, 0);
+        reserved.setZip64Reserved(true);
+        assertEquals(write(reserved, false).length, reserved.writeSize(false));
+        assertEquals(0x1E + 8, reserved.byteSize(false));
+    }
+}
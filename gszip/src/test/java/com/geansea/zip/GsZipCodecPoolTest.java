@@ -0,0 +1,73 @@
+package com.geansea.zip;
+
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.*;
+
+public class GsZipCodecPoolTest {
+    @Test
+    public void reuse() throws Exception {
+        GsZipCodecPool.clear();
+        GsZipCodecPool.resetStats();
+
+        Inflater inflater = GsZipCodecPool.obtainInflater();
+        assertEquals(1, GsZipCodecPool.getInflaterMisses());
+        GsZipCodecPool.releaseInflater(inflater);
+        assertSame(inflater, GsZipCodecPool.obtainInflater());
+        assertEquals(1, GsZipCodecPool.getInflaterHits());
+        GsZipCodecPool.releaseInflater(inflater);
+
+        Deflater deflater = GsZipCodecPool.obtainDeflater(Deflater.BEST_SPEED, Deflater.DEFAULT_STRATEGY);
+        GsZipCodecPool.releaseDeflater(deflater, Deflater.BEST_SPEED, Deflater.DEFAULT_STRATEGY);
+        // Other level or strategy does not share instances
+        Deflater other = GsZipCodecPool.obtainDeflater(Deflater.BEST_SPEED, Deflater.FILTERED);
+        assertNotSame(deflater, other);
+        assertSame(deflater, GsZipCodecPool.obtainDeflater(Deflater.BEST_SPEED, Deflater.DEFAULT_STRATEGY));
+        assertEquals(1, GsZipCodecPool.getDeflaterHits());
+        assertEquals(2, GsZipCodecPool.getDeflaterMisses());
+        GsZipCodecPool.releaseDeflater(deflater, Deflater.BEST_SPEED, Deflater.DEFAULT_STRATEGY);
+        GsZipCodecPool.releaseDeflater(other, Deflater.BEST_SPEED, Deflater.FILTERED);
+        GsZipCodecPool.clear();
+    }
+
+    @Test
+    public void bounded() throws Exception {
+        GsZipCodecPool.clear();
+        GsZipCodecPool.setMaxIdle(1);
+        try {
+            Inflater first = GsZipCodecPool.obtainInflater();
+            Inflater second = GsZipCodecPool.obtainInflater();
+            GsZipCodecPool.releaseInflater(first);
+            GsZipCodecPool.releaseInflater(second);
+            assertSame(first, GsZipCodecPool.obtainInflater());
+            assertNotSame(second, GsZipCodecPool.obtainInflater());
+        } finally {
+            GsZipCodecPool.setMaxIdle(16);
+            GsZipCodecPool.clear();
+        }
+    }
+
+    @Test
+    public void entry_streams() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL fileUrl = classLoader.getResource("flate.zip");
+        GsZipFile zip = GsZipFile.create(fileUrl.getFile());
+        GsZipCodecPool.clear();
+        GsZipCodecPool.resetStats();
+        for (int i = 0; i < 10; ++i) {
+            GsZipInputStream stream = zip.getInputStream("file_1.txt");
+            assertNotNull(stream);
+            assertEquals(256, GsZipUtil.calcStreamLength(stream));
+            stream.close();
+            // Closing twice returns the inflater only once
+            stream.close();
+        }
+        assertEquals(1, GsZipCodecPool.getInflaterMisses());
+        assertEquals(9, GsZipCodecPool.getInflaterHits());
+        zip.close();
+    }
+}
@@ -0,0 +1,95 @@
+package com.geansea.zip;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.*;
+
+public class GsZipCompressionPolicyTest {
+    private static final byte[] TEXT = "plain text".getBytes();
+    private static final byte[] JPEG = new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0, 0x10};
+
+    @Test
+    public void presets() {
+        GsZipCompressionPolicy.Decision decision = GsZipCompressionPolicy.best().decide("a.txt", 10, TEXT);
+        assertFalse(decision.isStored());
+        assertEquals(Deflater.BEST_COMPRESSION, decision.getLevel());
+        decision = GsZipCompressionPolicy.fast().decide("a.txt", 10, TEXT);
+        assertEquals(Deflater.BEST_SPEED, decision.getLevel());
+        assertTrue(GsZipCompressionPolicy.level(0).decide("a.txt", 10, TEXT).isStored());
+
+        GsZipCompressionPolicy policy = GsZipCompressionPolicy.storeIncompressible(GsZipCompressionPolicy.fast());
+        assertTrue(policy.decide("photos/a.JPG", 10, TEXT).isStored());
+        assertTrue(policy.decide("archive.tar.gz", 10, TEXT).isStored());
+        // By signature without extension
+        assertTrue(policy.decide("photos/a", 10, JPEG).isStored());
+        assertFalse(policy.decide("a.txt", 10, TEXT).isStored());
+        assertFalse(policy.decide("jpg", 10, TEXT).isStored());
+        assertFalse(policy.decide(".jpg/a", 10, TEXT).isStored());
+
+        policy = GsZipCompressionPolicy.storeExtensions(GsZipCompressionPolicy.best(), Arrays.asList("BIN"));
+        assertTrue(policy.decide("a.bin", 10, TEXT).isStored());
+        assertFalse(policy.decide("a.png", 10, TEXT).isStored());
+    }
+
+    @Test
+    public void invalid() {
+        try {
+            GsZipCompressionPolicy.Decision.deflate(10, Deflater.DEFAULT_STRATEGY);
+            fail("An IllegalArgumentException should be thrown");
+        } catch (IllegalArgumentException ignored) {
+        }
+        try {
+            GsZipCompressionPolicy.Decision.deflate(5, 3);
+            fail("An IllegalArgumentException should be thrown");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    @Test
+    public void pack() throws Exception {
+        File text = File.createTempFile("GsZipCompressionPolicyTest", ".txt");
+        FileOutputStream textStream = new FileOutputStream(text);
+        for (int i = 0; i < 1000; ++i) {
+            textStream.write(("line " + i + "\n").getBytes());
+        }
+        textStream.close();
+
+        GsZipPacker packer = new GsZipPacker();
+        packer.setCompressionPolicy(new GsZipCompressionPolicy() {
+            @Override
+            public Decision decide(String name, long size, byte[] head) {
+                assertEquals(GsZipCompressionPolicy.HEAD_SIZE, head.length);
+                if (name.endsWith(".jpg")) {
+                    return Decision.STORED;
+                }
+                if (name.startsWith("huffman")) {
+                    return Decision.deflate(Deflater.BEST_SPEED, Deflater.HUFFMAN_ONLY);
+                }
+                return Decision.deflate(Deflater.BEST_SPEED, Deflater.FILTERED);
+            }
+        });
+        assertTrue(packer.addFile("stored.jpg", text.getAbsolutePath()));
+        assertTrue(packer.addFile("huffman.txt", text.getAbsolutePath()));
+        assertTrue(packer.addFile("filtered.txt", text.getAbsolutePath()));
+        File zip = File.createTempFile("GsZipCompressionPolicyTest", ".tmp.zip");
+        assertTrue(zip.delete());
+        assertTrue(packer.packTo(zip.getAbsolutePath(), ""));
+
+        GsZipFile packed = GsZipFile.create(zip.getAbsolutePath());
+        assertFalse(packed.getEntry("stored.jpg").isCompressed());
+        assertTrue(packed.getEntry("huffman.txt").isCompressed());
+        assertTrue(packed.getEntry("filtered.txt").isCompressed());
+        // Huffman only does not match strings
+        assertTrue(packed.getEntry("huffman.txt").getCompressedSize()
+                > packed.getEntry("filtered.txt").getCompressedSize());
+        for (int i = 0; i < packed.size(); ++i) {
+            GsZipFileTest.fileEntryCheck(packed, packed.getEntry(i).getName(), text.length());
+        }
+        packed.close();
+    }
+}
@@ -4,8 +4,26 @@ import android.support.annotation.NonNull;
 
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import static org.junit.Assert.*;
 
@@ -20,7 +38,7 @@ public class GsZipFileTest {
         //assertNull(stream);
     }
 
-    static void fileEntryCheck(@NonNull GsZipFile zip, @NonNull String name, int size) throws Exception {
+    static void fileEntryCheck(@NonNull GsZipFile zip, @NonNull String name, long size) throws Exception {
         GsZipEntry entry = zip.getEntry(name);
         assertNotNull(entry);
         assertTrue(entry.isFile());
@@ -91,6 +109,88 @@ public class GsZipFileTest {
         openCheck(fileUrl.getFile(), "geansea");
     }
 
+    @Test
+    public void open_wrong_password() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL fileUrl = classLoader.getResource("store_enc.zip");
+        GsZipFile zip = GsZipFile.create(fileUrl.getFile());
+        zip.setPassword("wrong");
+        try {
+            zip.getInputStream("file_1.txt");
+            fail("A GsZipException should be thrown");
+        } catch (GsZipException e) {
+            assertTrue(e.getMessage().contains("password maybe incorrect"));
+        }
+        // Other entries fail fast without reading
+        try {
+            zip.getInputStream("sub/file_2.txt");
+            fail("A GsZipException should be thrown");
+        } catch (GsZipException e) {
+            assertEquals("Password rejected by other entry", e.getMessage());
+        }
+        zip.setPassword("geansea");
+        fileEntryCheck(zip, "file_1.txt", 256);
+        fileEntryCheck(zip, "sub/file_2.txt", 256);
+        zip.close();
+    }
+
+    @Test
+    public void open_mixed_password() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL dirUrl = classLoader.getResource("folder");
+        String baseDir = dirUrl.getFile() + "/";
+
+        // Entries of two passwords in one archive
+        File good = File.createTempFile("GsZipFileTest", ".tmp");
+        String goodPath = good.getAbsolutePath() + ".zip";
+        GsZipPacker packer = new GsZipPacker();
+        assertTrue(packer.addFile("file_1.txt", baseDir + "file_1.txt"));
+        assertTrue(packer.addFile("sub/file_2.txt", baseDir + "sub/file_2.txt"));
+        assertTrue(packer.packTo(goodPath, "geansea"));
+        File other = File.createTempFile("GsZipFileTest", ".tmp");
+        String otherPath = other.getAbsolutePath() + ".zip";
+        packer = new GsZipPacker();
+        assertTrue(packer.addFile("other.txt", baseDir + "file_1.txt"));
+        assertTrue(packer.packTo(otherPath, "other"));
+        File merged = File.createTempFile("GsZipFileTest", ".tmp");
+        String mergedPath = merged.getAbsolutePath() + ".zip";
+        assertTrue(GsZip.mergeZips(Arrays.asList(goodPath, otherPath), mergedPath));
+
+        GsZipFile zip = GsZipFile.create(mergedPath);
+        zip.setPassword("geansea");
+        fileEntryCheck(zip, "file_1.txt", 256);
+        try {
+            zip.getInputStream("other.txt");
+            fail("A GsZipException should be thrown");
+        } catch (GsZipException e) {
+            assertTrue(e.getMessage().contains("password maybe incorrect"));
+        }
+        // The mismatch after a match does not fail other entries
+        fileEntryCheck(zip, "sub/file_2.txt", 256);
+        fileEntryCheck(zip, "file_1.txt", 256);
+        zip.close();
+    }
+
+    @Test
+    public void open_flate_aes() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL fileUrl = classLoader.getResource("flate_aes.zip");
+        openCheck(fileUrl.getFile(), "geansea");
+
+        GsZipFile zip = GsZipFile.create(fileUrl.getFile());
+        GsZipEntry entry = zip.getEntry("file_1.txt");
+        assertNotNull(entry);
+        assertTrue(entry.isEncrypted());
+        assertTrue(entry.isCompressed());
+        zip.setPassword("wrong");
+        try {
+            zip.getInputStream(entry.getIndex());
+            fail("A GsZipException should be thrown");
+        } catch (GsZipException ignored) {
+        }
+        zip.close();
+    }
+
     @Test
     public void open_cjk() throws Exception {
         ClassLoader classLoader = getClass().getClassLoader();
@@ -123,4 +223,577 @@ public class GsZipFileTest {
         assertNotNull(node.getChild("\u7b2c\u4e94\u5341\u4e94\u5f20.jpg"));
         assertNotNull(node.getChild("\u7b2c\u4e94\u767e\u4e94\u5341\u4e94\u5f20.jpg"));
     }
+
+    @Test
+    public void entry_tree() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL fileUrl = classLoader.getResource("cjk_winrar.zip");
+        GsZipFile zip = GsZipFile.create(fileUrl.getFile());
+        GsZipEntryNode tree = zip.getEntryTree();
+        assertNull(tree.getParent());
+        assertEquals("", tree.getName());
+        assertEquals(tree, zip.getEntryTree());
+
+        GsZipEntryNode folder = tree.getChildWithPath("Images/\u76ee\u5f55\u4e00");
+        assertNotNull(folder);
+        assertFalse(folder.isFile());
+        assertEquals(tree.getChild("Images"), folder.getParent());
+        List<GsZipEntryNode> children = folder.getChildren();
+        assertEquals(3, children.size());
+        for (int i = 1; i < children.size(); ++i) {
+            assertTrue(children.get(i - 1).getName().compareTo(children.get(i).getName()) < 0);
+        }
+        GsZipEntryNode file = children.get(0);
+        assertTrue(file.isFile());
+        assertEquals(folder, file.getParent());
+        assertTrue(file.getChildren().isEmpty());
+        GsZipEntry entry = file.getEntry();
+        assertNotNull(entry);
+        assertEquals(zip.getEntry("Images/\u76ee\u5f55\u4e00/" + file.getName()).getIndex(), entry.getIndex());
+        try {
+            children.remove(0);
+            fail("An UnsupportedOperationException should be thrown");
+        } catch (UnsupportedOperationException ignored) {
+        }
+        zip.close();
+    }
+
+    @Test
+    public void read_concurrent() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL fileUrl = classLoader.getResource("cjk_winrar.zip");
+        final GsZipFile zip = GsZipFile.create(fileUrl.getFile());
+        final AtomicInteger errors = new AtomicInteger(0);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int round = 0; round < 20; ++round) {
+                            for (int index = 0; index < zip.size(); ++index) {
+                                GsZipEntry entry = zip.getEntry(index);
+                                GsZipInputStream stream = zip.getInputStream(index);
+                                if (entry.isFile() && entry.getCRC() != GsZipUtil.calcStreamCRC(stream)) {
+                                    errors.incrementAndGet();
+                                }
+                                stream.close();
+                            }
+                        }
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, errors.get());
+        zip.close();
+    }
+
+    @Test
+    public void open_mapped() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL fileUrl = classLoader.getResource("store.zip");
+        GsZipFile zip = GsZipFile.create(fileUrl.getFile(), true);
+        assertEquals(5, zip.size());
+        fileEntryCheck(zip, "file_1.txt", 256);
+        fileEntryCheck(zip, "sub/file_2.txt", 256);
+
+        GsZipEntry entry = zip.getEntry("file_1.txt");
+        assertNotNull(entry);
+        ByteBuffer buffer = zip.getByteBuffer(entry.getIndex());
+        assertTrue(buffer.isReadOnly());
+        assertEquals(256, buffer.remaining());
+        CRC32 crc32 = new CRC32();
+        while (buffer.hasRemaining()) {
+            crc32.update(buffer.get());
+        }
+        assertEquals(entry.getCRC(), (int) crc32.getValue());
+        zip.close();
+
+        fileUrl = classLoader.getResource("flate.zip");
+        zip = GsZipFile.create(fileUrl.getFile(), true);
+        fileEntryCheck(zip, "file_1.txt", 256);
+        try {
+            zip.getByteBuffer(zip.getEntry("file_1.txt").getIndex());
+            fail("A GsZipException should be thrown");
+        } catch (GsZipException ignored) {
+        }
+        zip.close();
+    }
+
+    @Test
+    public void entry_channel() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL fileUrl = classLoader.getResource("store.zip");
+        for (boolean mapped : new boolean[]{false, true}) {
+            GsZipFile zip = GsZipFile.create(fileUrl.getFile(), mapped);
+            int index = zip.getEntryIndex("file_1.txt", false);
+            byte[] data = new byte[256];
+            GsZipInputStream stream = zip.getInputStream(index);
+            assertEquals(256, stream.read(data));
+            stream.close();
+
+            GsZipEntryChannel channel = zip.getEntryChannel(index);
+            assertEquals(256, channel.size());
+            ByteBuffer buffer = ByteBuffer.allocate(100);
+            assertEquals(56, channel.read(buffer, 200));
+            buffer.flip();
+            for (int i = 0; i < 56; ++i) {
+                assertEquals(data[200 + i], buffer.get());
+            }
+            assertEquals(0, channel.position());
+            buffer.clear();
+            assertEquals(-1, channel.read(buffer, 256));
+            channel.position(250);
+            assertEquals(6, channel.read(buffer));
+            assertEquals(256, channel.position());
+            assertEquals(-1, channel.read(buffer));
+            channel.close();
+            try {
+                channel.read(buffer, 0);
+                fail("A ClosedChannelException should be thrown");
+            } catch (ClosedChannelException ignored) {
+            }
+
+            // Skipping seeks without reading
+            stream = zip.getRawInputStream(index);
+            assertEquals(250, stream.skip(250));
+            assertEquals(data[250] & 0xFF, stream.read());
+            assertEquals(5, stream.skip(10));
+            assertEquals(-1, stream.read());
+            stream.close();
+            zip.close();
+        }
+
+        fileUrl = classLoader.getResource("flate.zip");
+        GsZipFile zip = GsZipFile.create(fileUrl.getFile());
+        try {
+            zip.getEntryChannel(zip.getEntryIndex("file_1.txt", false));
+            fail("A GsZipException should be thrown");
+        } catch (GsZipException ignored) {
+        }
+        zip.close();
+    }
+
+    @Test
+    public void inflate_index() throws Exception {
+        // Text and random bytes with changing levels, for stored, fixed and dynamic blocks
+        byte[] data = new byte[3 * 1024 * 1024];
+        Random random = new Random(0);
+        String[] words = {"geansea ", "zip ", "inflate ", "index ", "window ", "\n"};
+        for (int i = 0; i < data.length; ) {
+            if (i % (256 * 1024) < 16 * 1024) {
+                data[i++] = (byte) random.nextInt();
+                continue;
+            }
+            byte[] word = words[random.nextInt(words.length)].getBytes(StandardCharsets.US_ASCII);
+            for (int j = 0; j < word.length && i < data.length; ++j) {
+                data[i++] = word[j];
+            }
+        }
+        File zipFile = File.createTempFile("GsZipFileTest", ".zip");
+        ZipOutputStream zipStream = new ZipOutputStream(new FileOutputStream(zipFile));
+        zipStream.putNextEntry(new ZipEntry("data.txt"));
+        int[] levels = {9, 0, 1, 6};
+        for (int i = 0; i < data.length; i += 100 * 1024 + 7) {
+            zipStream.setLevel(levels[(i / 1024) % levels.length]);
+            zipStream.write(data, i, Math.min(100 * 1024 + 7, data.length - i));
+        }
+        zipStream.setLevel(9);
+        zipStream.putNextEntry(new ZipEntry("small.txt"));
+        zipStream.write(data, 50000, 1000);
+        zipStream.close();
+
+        GsZipFile zip = GsZipFile.create(zipFile.getAbsolutePath());
+        int index = zip.getEntryIndex("data.txt", false);
+        GsZipInflateIndex inflateIndex = zip.buildInflateIndex(index, 64 * 1024);
+        assertTrue(inflateIndex.getCheckpointCount() > 10);
+        assertEquals(data.length, inflateIndex.getOriginalSize());
+
+        // Persisted and read back
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        inflateIndex.writeTo(indexBytes);
+        indexBytes.write(0x55);
+        ByteArrayInputStream indexInput = new ByteArrayInputStream(indexBytes.toByteArray());
+        inflateIndex = GsZipInflateIndex.readFrom(indexInput);
+        assertEquals(0x55, indexInput.read());
+        assertTrue(inflateIndex.matches(zip.getEntry(index)));
+
+        long[] offsets = {0, 1, 65535, 65536, 1000000, data.length - 1000, data.length};
+        for (long offset : offsets) {
+            GsZipInputStream stream = zip.getInputStream(index, offset, inflateIndex);
+            byte[] read = new byte[(int) Math.min(5000, data.length - offset)];
+            new DataInputStream(stream).readFully(read);
+            if (offset + read.length == data.length) {
+                assertEquals(-1, stream.read());
+            }
+            for (int i = 0; i < read.length; i += 97) {
+                assertEquals(data[(int) offset + i], read[i]);
+            }
+            stream.restart();
+            if (read.length > 0) {
+                assertEquals(read[0] & 0xFF, stream.read());
+            }
+            stream.close();
+        }
+        for (int i = 0; i < 20; ++i) {
+            int offset = random.nextInt(data.length - 100);
+            GsZipInputStream stream = zip.getInputStream(index, offset, inflateIndex);
+            byte[] read = new byte[100];
+            new DataInputStream(stream).readFully(read);
+            stream.close();
+            for (int j = 0; j < read.length; ++j) {
+                assertEquals(data[offset + j], read[j]);
+            }
+        }
+
+        // Index of another entry, and entry not deflated
+        try {
+            zip.getInputStream(zip.getEntryIndex("small.txt", false), 0, inflateIndex);
+            fail("A GsZipException should be thrown");
+        } catch (GsZipException ignored) {
+        }
+        zip.close();
+        assertTrue(zipFile.delete());
+
+        URL fileUrl = getClass().getClassLoader().getResource("store.zip");
+        zip = GsZipFile.create(fileUrl.getFile());
+        try {
+            zip.buildInflateIndex(zip.getEntryIndex("file_1.txt", false), GsZipInflateIndex.DEFAULT_SPACING);
+            fail("A GsZipException should be thrown");
+        } catch (GsZipException ignored) {
+        }
+        zip.close();
+    }
+
+    @Test
+    public void lookup_table() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL fileUrl = classLoader.getResource("flate.zip");
+        GsZipFile zip = GsZipFile.create(fileUrl.getFile());
+        for (int i = 0; i < zip.size(); ++i) {
+            GsZipEntry entry = zip.getEntry(i);
+            GsZipEntry found = zip.getEntry(entry.getName());
+            assertNotNull(found);
+            assertEquals(i, found.getIndex());
+        }
+        assertNotNull(zip.getEntry("/sub//file_2.txt"));
+        assertNotNull(zip.getEntry("sub/"));
+        assertNull(zip.getEntry("sub/file_3.txt"));
+        assertNull(zip.getEntry("file_1"));
+
+        // Case-insensitive and UTF-8 bytes
+        assertEquals(zip.getEntry("sub/file_2.txt").getIndex(), zip.getEntryIndex("SUB//File_2.TXT", true));
+        assertEquals(-1, zip.getEntryIndex("SUB/File_2.TXT", false));
+        assertEquals(-1, zip.getEntryIndex("sub/file_2", true));
+        byte[] path = "x/sub/file_2.txt/".getBytes(StandardCharsets.UTF_8);
+        assertEquals(zip.getEntry("sub/file_2.txt").getIndex(), zip.getEntryIndex(path, 2, path.length - 2));
+        assertEquals(-1, zip.getEntryIndex(path, 0, path.length));
+        zip.close();
+
+        // Names not in ASCII, from UTF-8 flag or charset
+        fileUrl = classLoader.getResource("cjk_winrar.zip");
+        zip = GsZipFile.create(fileUrl.getFile());
+        for (int i = 0; i < zip.size(); ++i) {
+            String name = zip.getEntry(i).getName();
+            assertEquals(i, zip.getEntryIndex(name, false));
+            assertEquals(i, zip.getEntryIndex(name.toUpperCase(), true));
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            assertEquals(i, zip.getEntryIndex(bytes, 0, bytes.length));
+            assertEquals(i, zip.getEntryIndex(new StringBuilder("/").append(name), false));
+        }
+        assertEquals(-1, zip.getEntryIndex("Images/\u76ee\u5f55\u4e00/\ud83d\ude00.jpg", false));
+        zip.close();
+    }
+
+    private static final long ZIP64_HOLE_SIZE = 5L * 1024 * 1024 * 1024;
+
+    /**
+     * Put a STORED local or central header, sizes and offset over 32-bit go to ZIP64 extra field.
+     */
+    private static void putHeader(@NonNull ByteBuffer buffer, boolean central, @NonNull String name,
+                                  int crc, long size, long offset) {
+        putHeader(buffer, central, name, crc, size, offset, size >= 0xFFFFFFFFL);
+    }
+
+    /**
+     * Put a STORED local or central header, with sizes in ZIP64 extra field if bigSize, even small ones.
+     */
+    private static void putHeader(@NonNull ByteBuffer buffer, boolean central, @NonNull String name,
+                                  int crc, long size, long offset, boolean bigSize) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        boolean bigOffset = (central && offset >= 0xFFFFFFFFL);
+        int zip64Size = (bigSize ? 16 : 0) + (bigOffset ? 8 : 0);
+        buffer.putInt(central ? 0x02014b50 : 0x04034b50);
+        if (central) {
+            buffer.putShort((short) 45);
+        }
+        buffer.putShort((short) 45);
+        buffer.putShort((short) 0x0800);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0x21);
+        buffer.putInt(crc);
+        buffer.putInt(bigSize ? -1 : (int) size);
+        buffer.putInt(bigSize ? -1 : (int) size);
+        buffer.putShort((short) nameBytes.length);
+        buffer.putShort((short) (zip64Size > 0 ? zip64Size + 4 : 0));
+        if (central) {
+            buffer.putShort((short) 0);
+            buffer.putShort((short) 0);
+            buffer.putShort((short) 0);
+            buffer.putInt(0);
+            buffer.putInt(bigOffset ? -1 : (int) offset);
+        }
+        buffer.put(nameBytes);
+        if (zip64Size > 0) {
+            buffer.putShort((short) 0x0001);
+            buffer.putShort((short) zip64Size);
+            if (bigSize) {
+                buffer.putLong(size);
+                buffer.putLong(size);
+            }
+            if (bigOffset) {
+                buffer.putLong(offset);
+            }
+        }
+    }
+
+    /**
+     * Put ZIP64 end record, locator and end record with all values marked.
+     */
+    private static void putZip64End(@NonNull ByteBuffer buffer, long entryCount,
+                                    long dirOffset, long dirSize, long endOffset) {
+        buffer.putInt(0x06064b50);
+        buffer.putLong(44);
+        buffer.putShort((short) 45);
+        buffer.putShort((short) 45);
+        buffer.putInt(0);
+        buffer.putInt(0);
+        buffer.putLong(entryCount);
+        buffer.putLong(entryCount);
+        buffer.putLong(dirSize);
+        buffer.putLong(dirOffset);
+
+        buffer.putInt(0x07064b50);
+        buffer.putInt(0);
+        buffer.putLong(endOffset);
+        buffer.putInt(1);
+
+        buffer.putInt(0x06054b50);
+        buffer.putShort((short) -1);
+        buffer.putShort((short) -1);
+        buffer.putShort((short) -1);
+        buffer.putShort((short) -1);
+        buffer.putInt(-1);
+        buffer.putInt(-1);
+        buffer.putShort((short) 0);
+    }
+
+    private static void writeAt(@NonNull FileChannel channel, @NonNull ByteBuffer buffer, long offset)
+            throws Exception {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+    }
+
+    private static int zeroCRC(long length) {
+        // CRC32 of 1M zeros, then doubled and combined
+        long unit = 1024 * 1024;
+        CRC32 crc32 = new CRC32();
+        crc32.update(new byte[(int) unit]);
+        int unitCRC = (int) crc32.getValue();
+        int crc = 0;
+        for (long done = 0; done < length; done += unit) {
+            crc = GsZipUtil.crc32Combine(crc, unitCRC, unit);
+        }
+        return crc;
+    }
+
+    /**
+     * Generate a sparse archive with a 5G entry of zeros, followed by a small entry at offset over 4G.
+     */
+    @NonNull
+    private static File createLargeZip64() throws Exception {
+        File file = File.createTempFile("zip64_large", ".zip");
+        file.deleteOnExit();
+        byte[] text = "Hello ZIP64".getBytes(StandardCharsets.UTF_8);
+        CRC32 crc32 = new CRC32();
+        crc32.update(text);
+        int textCRC = (int) crc32.getValue();
+        int holeCRC = zeroCRC(ZIP64_HOLE_SIZE);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+            putHeader(buffer, false, "hole.bin", holeCRC, ZIP64_HOLE_SIZE, 0);
+            long textOffset = buffer.position() + ZIP64_HOLE_SIZE;
+            writeAt(channel, buffer, 0);
+
+            buffer.clear();
+            putHeader(buffer, false, "text.txt", textCRC, text.length, 0);
+            buffer.put(text);
+            long dirOffset = textOffset + buffer.position();
+            int dirStart = buffer.position();
+            putHeader(buffer, true, "hole.bin", holeCRC, ZIP64_HOLE_SIZE, 0);
+            putHeader(buffer, true, "text.txt", textCRC, text.length, textOffset);
+            long dirSize = buffer.position() - dirStart;
+            putZip64End(buffer, 2, dirOffset, dirSize, dirOffset + dirSize);
+            writeAt(channel, buffer, textOffset);
+        } finally {
+            raf.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void open_zip64_large() throws Exception {
+        File file = createLargeZip64();
+        try {
+            for (boolean mapped : new boolean[]{false, true}) {
+                GsZipFile zip = GsZipFile.create(file.getPath(), mapped);
+                assertEquals(2, zip.size());
+
+                GsZipEntry hole = zip.getEntry("hole.bin");
+                assertNotNull(hole);
+                assertEquals(ZIP64_HOLE_SIZE, hole.getOriginalSize());
+                assertEquals(ZIP64_HOLE_SIZE, hole.getCompressedSize());
+                GsZipInputStream holeStream = zip.getInputStream(hole.getIndex());
+                byte[] head = new byte[1024];
+                assertEquals(head.length, holeStream.read(head));
+                assertArrayEquals(new byte[head.length], head);
+                holeStream.close();
+
+                fileEntryCheck(zip, "text.txt", 11);
+                zip.close();
+            }
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void open_zip64_many() throws Exception {
+        int folderCount = 70000;
+        File file = File.createTempFile("zip64_many", ".zip");
+        file.deleteOnExit();
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(folderCount * 128).order(ByteOrder.LITTLE_ENDIAN);
+            long[] offsets = new long[folderCount];
+            for (int i = 0; i < folderCount; ++i) {
+                offsets[i] = buffer.position();
+                putHeader(buffer, false, "folder_" + i + "/", 0, 0, 0);
+            }
+            long dirOffset = buffer.position();
+            for (int i = 0; i < folderCount; ++i) {
+                putHeader(buffer, true, "folder_" + i + "/", 0, 0, offsets[i]);
+            }
+            long dirSize = buffer.position() - dirOffset;
+            putZip64End(buffer, folderCount, dirOffset, dirSize, dirOffset + dirSize);
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                writeAt(raf.getChannel(), buffer, 0);
+            } finally {
+                raf.close();
+            }
+
+            GsZipFile zip = GsZipFile.create(file.getPath());
+            assertEquals(folderCount, zip.size());
+            folderEntryCheck(zip, "folder_0");
+            folderEntryCheck(zip, "folder_65535");
+            folderEntryCheck(zip, "folder_" + (folderCount - 1));
+            assertEquals(folderCount, zip.getEntryTree().getChildren().size());
+            zip.close();
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void open_zip64_folder() throws Exception {
+        File file = File.createTempFile("zip64_folder", ".zip");
+        file.deleteOnExit();
+        File dir = new File(file.getPath() + ".dir");
+        try {
+            // Folder with its zero sizes in ZIP64 extra field
+            ByteBuffer buffer = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+            putHeader(buffer, false, "folder/", 0, 0, 0, true);
+            long dirOffset = buffer.position();
+            putHeader(buffer, true, "folder/", 0, 0, 0, true);
+            long dirSize = buffer.position() - dirOffset;
+            putZip64End(buffer, 1, dirOffset, dirSize, dirOffset + dirSize);
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                writeAt(raf.getChannel(), buffer, 0);
+            } finally {
+                raf.close();
+            }
+
+            GsZipFile zip = GsZipFile.create(file.getPath());
+            folderEntryCheck(zip, "folder");
+            GsZipEntryNode node = zip.getEntryTree().getChild("folder");
+            assertNotNull(node);
+            assertFalse(node.isFile());
+            assertTrue(dir.mkdir());
+            assertTrue(new GsZipUnpacker(zip).unpackTo(dir.getPath()));
+            assertTrue(new File(dir, "folder").isDirectory());
+            zip.close();
+        } finally {
+            new File(dir, "folder").delete();
+            dir.delete();
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void file_after_children() throws Exception {
+        File file = File.createTempFile("file_after_children", ".zip");
+        file.deleteOnExit();
+        File dir = new File(file.getPath() + ".dir");
+        try {
+            // File "a" listed after its child "a/b"
+            ByteBuffer buffer = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+            putHeader(buffer, false, "a/b", 0, 0, 0);
+            long fileOffset = buffer.position();
+            putHeader(buffer, false, "a", 0, 0, 0);
+            long dirOffset = buffer.position();
+            putHeader(buffer, true, "a/b", 0, 0, 0);
+            putHeader(buffer, true, "a", 0, 0, fileOffset);
+            long dirSize = buffer.position() - dirOffset;
+            putZip64End(buffer, 2, dirOffset, dirSize, dirOffset + dirSize);
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                writeAt(raf.getChannel(), buffer, 0);
+            } finally {
+                raf.close();
+            }
+
+            GsZipFile zip = GsZipFile.create(file.getPath());
+            assertEquals(2, zip.size());
+            GsZipEntryNode node = zip.getEntryTree().getChild("a");
+            assertNotNull(node);
+            assertFalse(node.isFile());
+            assertNull(node.getEntry());
+            assertEquals(1, node.getChildren().size());
+            assertTrue(node.getChild("b").isFile());
+            assertTrue(dir.mkdir());
+            GsZipUnpacker unpacker = new GsZipUnpacker(zip);
+            assertTrue(unpacker.unpackTo(dir.getPath()));
+            assertTrue(unpacker.getFailures().isEmpty());
+            assertTrue(new File(dir, "a/b").isFile());
+            zip.close();
+        } finally {
+            new File(dir, "a/b").delete();
+            new File(dir, "a").delete();
+            dir.delete();
+            assertTrue(file.delete());
+        }
+    }
 }
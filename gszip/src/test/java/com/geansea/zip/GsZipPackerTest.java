@@ -2,9 +2,21 @@ package com.geansea.zip;
 
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import static org.junit.Assert.*;
 
@@ -64,4 +76,526 @@ public class GsZipPackerTest {
         assertEquals(0, zipFile.size());
         assertEquals("test comment", zipFile.getComment());
     }
+
+    @Test
+    public void pack_single_pass() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL dirUrl = classLoader.getResource("folder");
+        String baseDir = dirUrl.getFile() + "/";
+
+        File random = File.createTempFile("GsZipPackerTest", ".bin");
+        byte[] bytes = new byte[5000];
+        new Random(0).nextBytes(bytes);
+        FileOutputStream randomStream = new FileOutputStream(random);
+        randomStream.write(bytes);
+        randomStream.close();
+
+        GsZipPacker packer = new GsZipPacker();
+        assertTrue(packer.addFile("file_1.txt", baseDir + "file_1.txt"));
+        assertTrue(packer.addFile("random.bin", random.getAbsolutePath()));
+        assertTrue(packer.addFile("file_0.txt", baseDir + "file_0.txt"));
+
+        File streamZip = File.createTempFile("GsZipPackerTest", ".tmp.zip");
+        FileOutputStream zipStream = new FileOutputStream(streamZip);
+        assertTrue(packer.packTo(zipStream, "geansea"));
+        zipStream.close();
+
+        File channelZip = File.createTempFile("GsZipPackerTest", ".tmp.zip");
+        RandomAccessFile zipFile = new RandomAccessFile(channelZip, "rw");
+        assertTrue(packer.packTo(zipFile, "geansea"));
+        zipFile.close();
+
+        assertEquals(streamZip.length(), channelZip.length());
+        GsZipFile streamPacked = GsZipFile.create(streamZip.getAbsolutePath());
+        GsZipFile channelPacked = GsZipFile.create(channelZip.getAbsolutePath());
+        channelPacked.setPassword("geansea");
+        assertEquals(streamPacked.size(), channelPacked.size());
+        for (int i = 0; i < streamPacked.size(); ++i) {
+            GsZipEntry expected = streamPacked.getEntry(i);
+            GsZipEntry actual = channelPacked.getEntry(i);
+            assertEquals(expected.getName(), actual.getName());
+            assertEquals(expected.isCompressed(), actual.isCompressed());
+            assertEquals(expected.isEncrypted(), actual.isEncrypted());
+            assertEquals(expected.getCRC(), actual.getCRC());
+            assertEquals(expected.getCompressedSize(), actual.getCompressedSize());
+            assertEquals(expected.getOriginalSize(), actual.getOriginalSize());
+        }
+        assertFalse(channelPacked.getEntry("random.bin").isCompressed());
+        GsZipFileTest.fileEntryCheck(channelPacked, "random.bin", bytes.length);
+        GsZipFileTest.fileEntryCheck(channelPacked, "file_1.txt", 256);
+        GsZipFileTest.fileEntryCheck(channelPacked, "file_0.txt", 0);
+    }
+
+    @Test
+    public void pack_offset() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL dirUrl = classLoader.getResource("folder");
+        String baseDir = dirUrl.getFile() + "/";
+
+        GsZipPacker packer = new GsZipPacker();
+        assertTrue(packer.addFile("file_0.txt", baseDir + "file_0.txt"));
+        assertTrue(packer.addFile("file_1.txt", baseDir + "file_1.txt"));
+        assertTrue(packer.addFolder("empty"));
+        assertTrue(packer.addFolder("sub/"));
+        assertTrue(packer.addFile("sub/file_2.txt", baseDir + "sub/file_2.txt"));
+
+        // Packed after a prefix, offsets are from the start of file
+        byte[] prefix = new byte[1000];
+        Arrays.fill(prefix, (byte) 0x55);
+        File zip = File.createTempFile("GsZipPackerTest", ".tmp.zip");
+        RandomAccessFile zipFile = new RandomAccessFile(zip, "rw");
+        zipFile.write(prefix);
+        assertTrue(packer.packTo(zipFile, "geansea"));
+        zipFile.close();
+        GsZipFileTest.openCheck(zip.getAbsolutePath(), "geansea");
+        GsZipFile packed = GsZipFile.create(zip.getAbsolutePath());
+        assertTrue(packed.getEntry("file_0.txt").getLocalOffset() >= prefix.length);
+        packed.close();
+        byte[] head = new byte[prefix.length];
+        zipFile = new RandomAccessFile(zip, "r");
+        zipFile.readFully(head);
+        zipFile.close();
+        assertArrayEquals(prefix, head);
+
+        // Bytes of caller after the archive are not truncated
+        File longer = File.createTempFile("GsZipPackerTest", ".tmp");
+        zipFile = new RandomAccessFile(longer, "rw");
+        zipFile.setLength(100000);
+        zipFile.seek(prefix.length);
+        assertTrue(packer.packTo(zipFile.getChannel(), ""));
+        assertTrue(zipFile.getFilePointer() < 100000);
+        zipFile.close();
+        assertEquals(100000, longer.length());
+    }
+
+    @Test
+    public void pack_aes() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL dirUrl = classLoader.getResource("folder");
+        String baseDir = dirUrl.getFile() + "/";
+
+        File random = File.createTempFile("GsZipPackerTest", ".bin");
+        byte[] bytes = new byte[5000];
+        new Random(0).nextBytes(bytes);
+        FileOutputStream randomStream = new FileOutputStream(random);
+        randomStream.write(bytes);
+        randomStream.close();
+
+        GsZipPacker packer = new GsZipPacker();
+        packer.setAesEncryption(true);
+        assertTrue(packer.addFile("file_0.txt", baseDir + "file_0.txt"));
+        assertTrue(packer.addFile("file_1.txt", baseDir + "file_1.txt"));
+        assertTrue(packer.addFile("random.bin", random.getAbsolutePath()));
+        assertTrue(packer.addFolder("sub"));
+
+        File streamZip = File.createTempFile("GsZipPackerTest", ".tmp.zip");
+        FileOutputStream zipStream = new FileOutputStream(streamZip);
+        assertTrue(packer.packTo(zipStream, "geansea"));
+        zipStream.close();
+
+        File channelZip = File.createTempFile("GsZipPackerTest", ".tmp.zip");
+        RandomAccessFile zipFile = new RandomAccessFile(channelZip, "rw");
+        assertTrue(packer.packTo(zipFile, "geansea"));
+        zipFile.close();
+
+        for (File file : new File[]{streamZip, channelZip}) {
+            GsZipFile zip = GsZipFile.create(file.getAbsolutePath());
+            assertTrue(zip.needPassword());
+            zip.setPassword("geansea");
+            // AE-2 does not keep CRC, the data is checked by MAC
+            assertEquals(0, zip.getEntry("file_1.txt").getCRC());
+            assertTrue(zip.getEntry("file_1.txt").isCompressed());
+            assertFalse(zip.getEntry("random.bin").isCompressed());
+            entryDataCheck(zip, "file_0.txt", new File(baseDir + "file_0.txt"));
+            entryDataCheck(zip, "file_1.txt", new File(baseDir + "file_1.txt"));
+            entryDataCheck(zip, "random.bin", random);
+            zip.close();
+        }
+
+        // Tampered data fails the authentication
+        GsZipFile zip = GsZipFile.create(channelZip.getAbsolutePath());
+        GsZipEntry entry = zip.getEntry("random.bin");
+        assertNotNull(entry);
+        // Local header with AES extra field, the last byte of data is before MAC
+        long dataEnd = entry.getLocalOffset() + 30 + "random.bin".length() + 11 + entry.getCompressedSize();
+        long lastPos = dataEnd - AesKey.MAC_LEN - 1;
+        zip.close();
+        RandomAccessFile tampered = new RandomAccessFile(channelZip, "rw");
+        tampered.seek(lastPos);
+        int b = tampered.read();
+        tampered.seek(lastPos);
+        tampered.write(b ^ 1);
+        tampered.close();
+        zip = GsZipFile.create(channelZip.getAbsolutePath());
+        zip.setPassword("geansea");
+        GsZipInputStream stream = zip.getInputStream("random.bin");
+        try {
+            GsZipUtil.calcStreamLength(stream);
+            fail("An IOException should be thrown");
+        } catch (IOException ignored) {
+        }
+        stream.close();
+        zip.close();
+    }
+
+    @Test
+    public void pack_raw() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        GsZipFile source = GsZipFile.create(classLoader.getResource("flate_enc.zip").getFile());
+
+        // Encrypted entries are copied without password, to channel and to stream
+        GsZipPacker packer = new GsZipPacker();
+        assertTrue(packer.addRawEntries(source, GsZipEntryFilter.all()));
+        File channelZip = File.createTempFile("GsZipPackerTest", ".tmp");
+        String channelPath = channelZip.getAbsolutePath() + ".zip";
+        assertTrue(packer.packTo(channelPath, ""));
+        File streamZip = File.createTempFile("GsZipPackerTest", ".tmp.zip");
+        FileOutputStream zipStream = new FileOutputStream(streamZip);
+        assertTrue(packer.packTo(zipStream, ""));
+        zipStream.close();
+        for (String path : new String[]{channelPath, streamZip.getAbsolutePath()}) {
+            GsZipFileTest.openCheck(path, "geansea");
+            GsZipFile copied = GsZipFile.create(path);
+            assertEquals(source.getEntry("file_1.txt").getCompressedSize(),
+                    copied.getEntry("file_1.txt").getCompressedSize());
+            copied.close();
+        }
+
+        // Raw data is the same as stored
+        GsZipFile copied = GsZipFile.create(channelPath);
+        int index = copied.getEntryIndex("sub/file_2.txt", false);
+        GsZipInputStream rawStream = copied.getRawInputStream(index);
+        assertEquals(source.getEntry("sub/file_2.txt").getCompressedSize(), GsZipUtil.calcStreamLength(rawStream));
+        assertEquals(GsZipUtil.calcStreamCRC(source.getRawInputStream(source.getEntryIndex("sub/file_2.txt", false))),
+                GsZipUtil.calcStreamCRC(rawStream));
+        rawStream.close();
+        copied.close();
+        source.close();
+
+        // Filter and rename
+        String flatePath = classLoader.getResource("flate.zip").getFile();
+        File filtered = File.createTempFile("GsZipPackerTest", ".tmp");
+        String filteredPath = filtered.getAbsolutePath() + ".zip";
+        assertTrue(GsZip.filterZip(flatePath, GsZipEntryFilter.move("sub", "moved"), filteredPath));
+        ZipFile standard = new ZipFile(filteredPath);
+        assertEquals(2, standard.size());
+        assertNotNull(standard.getEntry("moved/"));
+        ZipEntry entry = standard.getEntry("moved/file_2.txt");
+        CRC32 crc32 = new CRC32();
+        InputStream stream = standard.getInputStream(entry);
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = stream.read(buffer)) > 0) {
+            crc32.update(buffer, 0, count);
+        }
+        stream.close();
+        standard.close();
+        assertEquals(0x996bcc1b, (int) crc32.getValue());
+
+        // Merge, same file entry in two archives fails
+        File merged = File.createTempFile("GsZipPackerTest", ".tmp");
+        String mergedPath = merged.getAbsolutePath() + ".zip";
+        assertTrue(GsZip.mergeZips(Arrays.asList(flatePath, filteredPath), mergedPath));
+        GsZipFile mergedZip = GsZipFile.create(mergedPath);
+        assertEquals(7, mergedZip.size());
+        GsZipFileTest.fileEntryCheck(mergedZip, "sub/file_2.txt", 256);
+        GsZipFileTest.fileEntryCheck(mergedZip, "moved/file_2.txt", 256);
+        mergedZip.close();
+        assertFalse(GsZip.mergeZips(Arrays.asList(flatePath, flatePath), mergedPath + ".dup.zip"));
+    }
+
+    @Test
+    public void pack_append() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL dirUrl = classLoader.getResource("folder");
+        String baseDir = dirUrl.getFile() + "/";
+
+        File zip = File.createTempFile("GsZipPackerTest", ".tmp");
+        String zipPath = zip.getAbsolutePath() + ".zip";
+        GsZipPacker packer = new GsZipPacker();
+        packer.setComment("old comment");
+        assertTrue(packer.addFile("file_0.txt", baseDir + "file_0.txt"));
+        assertTrue(packer.addFile("file_1.txt", baseDir + "file_1.txt"));
+        assertTrue(packer.addFolder("empty"));
+        assertTrue(packer.packTo(zipPath, ""));
+        GsZipFile zipFile = GsZipFile.create(zipPath);
+        long oldOffset = zipFile.getEntry("file_1.txt").getLocalOffset();
+        zipFile.close();
+
+        // Existing folder is skipped as parent, old bytes are kept as the head of file
+        byte[] oldBytes = Files.readAllBytes(Paths.get(zipPath));
+        packer = new GsZipPacker();
+        assertTrue(packer.addFile("sub/file_2.txt", baseDir + "sub/file_2.txt"));
+        assertTrue(packer.appendTo(zipPath, ""));
+        byte[] newBytes = Files.readAllBytes(Paths.get(zipPath));
+        assertTrue(newBytes.length > oldBytes.length);
+        assertArrayEquals(oldBytes, Arrays.copyOf(newBytes, oldBytes.length));
+        ZipFile standard = new ZipFile(zipPath);
+        assertEquals(5, standard.size());
+        assertNotNull(standard.getEntry("sub/file_2.txt"));
+        standard.close();
+        packer = new GsZipPacker();
+        assertTrue(packer.addFile("empty/file_1.txt", baseDir + "file_1.txt"));
+        assertTrue(packer.appendTo(zipPath, "geansea"));
+        // Same file name fails, the file is not changed
+        long length = new File(zipPath).length();
+        packer = new GsZipPacker();
+        assertTrue(packer.addFile("file_0.txt", baseDir + "file_0.txt"));
+        assertFalse(packer.appendTo(zipPath, ""));
+        assertEquals(length, new File(zipPath).length());
+
+        // Failure after some entries written, the partial tail is dropped
+        oldBytes = Files.readAllBytes(Paths.get(zipPath));
+        File missing = File.createTempFile("GsZipPackerTest", ".txt");
+        packer = new GsZipPacker();
+        assertTrue(packer.addFile("new_1.txt", baseDir + "file_1.txt"));
+        assertTrue(packer.addFile("missing.txt", missing.getAbsolutePath()));
+        assertTrue(missing.delete());
+        assertFalse(packer.appendTo(zipPath, ""));
+        assertArrayEquals(oldBytes, Files.readAllBytes(Paths.get(zipPath)));
+
+        zipFile = GsZipFile.create(zipPath);
+        assertEquals(6, zipFile.size());
+        assertEquals("old comment", zipFile.getComment());
+        assertEquals(oldOffset, zipFile.getEntry("file_1.txt").getLocalOffset());
+        GsZipFileTest.fileEntryCheck(zipFile, "file_1.txt", 256);
+        GsZipFileTest.folderEntryCheck(zipFile, "sub");
+        GsZipFileTest.fileEntryCheck(zipFile, "sub/file_2.txt", 256);
+        assertTrue(zipFile.getEntry("empty/file_1.txt").isEncrypted());
+        zipFile.setPassword("geansea");
+        GsZipFileTest.fileEntryCheck(zipFile, "empty/file_1.txt", 256);
+        zipFile.close();
+    }
+
+    private static void entryDataCheck(GsZipFile zip, String name, File file) throws Exception {
+        byte[] expected = new byte[(int) file.length()];
+        RandomAccessFile source = new RandomAccessFile(file, "r");
+        source.readFully(expected);
+        source.close();
+        GsZipInputStream stream = zip.getInputStream(name);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        GsZipUtil.copyStream(stream, actual);
+        stream.close();
+        assertArrayEquals(expected, actual.toByteArray());
+    }
+
+    @Test
+    public void pack_parallel() throws Exception {
+        File dir = File.createTempFile("GsZipPackerTest", ".d");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdirs());
+        Random random = new Random(0);
+        GsZipPacker packer = new GsZipPacker();
+        packer.setThreadCount(4);
+        packer.setMemoryBudget(20000);
+        for (int i = 0; i < 40; ++i) {
+            byte[] bytes = new byte[random.nextInt(30000)];
+            for (int j = 0; j < bytes.length; ++j) {
+                bytes[j] = (byte) ((i % 2 == 0) ? random.nextInt() : 'a' + j % 7);
+            }
+            File file = new File(dir, "file_" + i + ".bin");
+            FileOutputStream fileStream = new FileOutputStream(file);
+            fileStream.write(bytes);
+            fileStream.close();
+            assertTrue(packer.addFile("dir_" + (i % 3) + "/" + file.getName(), file.getAbsolutePath()));
+        }
+
+        File parallelZip = File.createTempFile("GsZipPackerTest", ".tmp.zip");
+        FileOutputStream zipStream = new FileOutputStream(parallelZip);
+        assertTrue(packer.packTo(zipStream, "geansea"));
+        zipStream.close();
+
+        packer.setThreadCount(1);
+        File serialZip = File.createTempFile("GsZipPackerTest", ".tmp.zip");
+        zipStream = new FileOutputStream(serialZip);
+        assertTrue(packer.packTo(zipStream, "geansea"));
+        zipStream.close();
+
+        assertEquals(serialZip.length(), parallelZip.length());
+        GsZipFile serialPacked = GsZipFile.create(serialZip.getAbsolutePath());
+        GsZipFile parallelPacked = GsZipFile.create(parallelZip.getAbsolutePath());
+        parallelPacked.setPassword("geansea");
+        assertEquals(serialPacked.size(), parallelPacked.size());
+        for (int i = 0; i < serialPacked.size(); ++i) {
+            GsZipEntry expected = serialPacked.getEntry(i);
+            GsZipEntry actual = parallelPacked.getEntry(i);
+            assertEquals(expected.getName(), actual.getName());
+            assertEquals(expected.isCompressed(), actual.isCompressed());
+            assertEquals(expected.getCRC(), actual.getCRC());
+            assertEquals(expected.getCompressedSize(), actual.getCompressedSize());
+            if (actual.isFile()) {
+                GsZipFileTest.fileEntryCheck(parallelPacked, actual.getName(), actual.getOriginalSize());
+            }
+        }
+    }
+
+    @Test
+    public void pack_chunked() throws Exception {
+        File large = File.createTempFile("GsZipPackerTest", ".txt");
+        Random random = new Random(0);
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < 3 * 1024 * 1024 + 1234) {
+            builder.append("line ").append(random.nextInt(1000)).append(" of a large log file\n");
+        }
+        byte[] bytes = builder.toString().getBytes("UTF-8");
+        FileOutputStream largeStream = new FileOutputStream(large);
+        largeStream.write(bytes);
+        largeStream.close();
+
+        GsZipPacker packer = new GsZipPacker();
+        packer.setThreadCount(4);
+        packer.setChunkThreshold(1);
+        assertTrue(packer.addFile("large.txt", large.getAbsolutePath()));
+
+        File zip = File.createTempFile("GsZipPackerTest", ".tmp");
+        String zipPath = zip.getAbsolutePath() + ".zip";
+        assertTrue(packer.packTo(zipPath, ""));
+        GsZipFile zipFile = GsZipFile.create(zipPath);
+        assertTrue(zipFile.getEntry("large.txt").isCompressed());
+        GsZipFileTest.fileEntryCheck(zipFile, "large.txt", bytes.length);
+
+        // Readable by standard unzip
+        ZipFile standard = new ZipFile(zipPath);
+        ZipEntry entry = standard.getEntry("large.txt");
+        CRC32 crc32 = new CRC32();
+        InputStream stream = standard.getInputStream(entry);
+        byte[] buffer = new byte[4096];
+        long length = 0;
+        int count;
+        while ((count = stream.read(buffer)) > 0) {
+            crc32.update(buffer, 0, count);
+            length += count;
+        }
+        stream.close();
+        standard.close();
+        assertEquals(bytes.length, length);
+        assertEquals(entry.getCrc(), crc32.getValue());
+
+        File streamZip = File.createTempFile("GsZipPackerTest", ".tmp.zip");
+        FileOutputStream zipStream = new FileOutputStream(streamZip);
+        assertTrue(packer.packTo(zipStream, "geansea"));
+        zipStream.close();
+        zipFile = GsZipFile.create(streamZip.getAbsolutePath());
+        zipFile.setPassword("geansea");
+        GsZipFileTest.fileEntryCheck(zipFile, "large.txt", bytes.length);
+    }
+
+    @Test
+    public void pack_zip64_many() throws Exception {
+        int folderCount = 70000;
+        GsZipPacker packer = new GsZipPacker();
+        for (int i = 0; i < folderCount; ++i) {
+            assertTrue(packer.addFolder("folder_" + i));
+        }
+        File zip = File.createTempFile("GsZipPackerTest", ".tmp.zip");
+        assertTrue(zip.delete());
+        assertTrue(packer.packTo(zip.getAbsolutePath(), ""));
+
+        GsZipFile packed = GsZipFile.create(zip.getAbsolutePath());
+        assertEquals(folderCount, packed.size());
+        GsZipFileTest.folderEntryCheck(packed, "folder_" + (folderCount - 1));
+        packed.close();
+
+        ZipFile javaZip = new ZipFile(zip);
+        assertEquals(folderCount, javaZip.size());
+        assertNotNull(javaZip.getEntry("folder_65535/"));
+        javaZip.close();
+        assertTrue(zip.delete());
+
+        // Small archives stay classic, the end record is right after central dir
+        packer = new GsZipPacker();
+        assertTrue(packer.addFolder("folder"));
+        zip = File.createTempFile("GsZipPackerTest", ".tmp.zip");
+        assertTrue(zip.delete());
+        assertTrue(packer.packTo(zip.getAbsolutePath(), ""));
+        assertEquals(0x1E + 7 + 0x2E + 7 + CentralDirEnd.BASE_SIZE, zip.length());
+        assertTrue(zip.delete());
+    }
+
+    @Test
+    public void pack_buffer_size() throws Exception {
+        File large = File.createTempFile("GsZipPackerTest", ".txt");
+        Random random = new Random(0);
+        FileOutputStream largeStream = new FileOutputStream(large);
+        for (int i = 0; i < 20000; ++i) {
+            largeStream.write(("line " + random.nextInt(1000) + "\n").getBytes("UTF-8"));
+        }
+        largeStream.close();
+
+        File[] zips = new File[2];
+        int[] bufferSizes = new int[]{1024, 256 * 1024};
+        for (int i = 0; i < zips.length; ++i) {
+            GsZipPacker packer = new GsZipPacker();
+            packer.setBufferSize(bufferSizes[i]);
+            assertTrue(packer.addFile("large.txt", large.getAbsolutePath()));
+            zips[i] = File.createTempFile("GsZipPackerTest", ".tmp.zip");
+            FileOutputStream zipStream = new FileOutputStream(zips[i]);
+            assertTrue(packer.packTo(zipStream, ""));
+            zipStream.close();
+        }
+        assertEquals(zips[0].length(), zips[1].length());
+
+        for (int i = 0; i < zips.length; ++i) {
+            GsZipFile zip = GsZipFile.create(zips[i].getAbsolutePath());
+            zip.setBufferSize(bufferSizes[i]);
+            GsZipFileTest.fileEntryCheck(zip, "large.txt", large.length());
+            zip.close();
+        }
+    }
+
+    @Test
+    public void pack_probe() throws Exception {
+        File random = File.createTempFile("GsZipPackerTest", ".bin");
+        byte[] bytes = new byte[1024 * 1024];
+        new Random(0).nextBytes(bytes);
+        FileOutputStream randomStream = new FileOutputStream(random);
+        randomStream.write(bytes);
+        randomStream.close();
+        File text = File.createTempFile("GsZipPackerTest", ".txt");
+        FileOutputStream textStream = new FileOutputStream(text);
+        for (int i = 0; i < 100000; ++i) {
+            textStream.write(("line " + i + "\n").getBytes("UTF-8"));
+        }
+        textStream.close();
+
+        GsZipPacker packer = new GsZipPacker();
+        assertTrue(packer.addFile("random.bin", random.getAbsolutePath()));
+        assertTrue(packer.addFile("text.txt", text.getAbsolutePath()));
+        File zip = File.createTempFile("GsZipPackerTest", ".tmp.zip");
+        FileOutputStream zipStream = new FileOutputStream(zip);
+        assertTrue(packer.packTo(zipStream, ""));
+        zipStream.close();
+
+        List<GsZipProbeResult> results = packer.getProbeResults();
+        assertEquals(2, results.size());
+        assertEquals("random.bin", results.get(0).getName());
+        assertTrue(results.get(0).isStored());
+        assertTrue(results.get(0).getRatio() > 1);
+        assertEquals("text.txt", results.get(1).getName());
+        assertFalse(results.get(1).isStored());
+        assertTrue(results.get(1).getRatio() < 0.5);
+        GsZipFile packed = GsZipFile.create(zip.getAbsolutePath());
+        assertFalse(packed.getEntry("random.bin").isCompressed());
+        assertTrue(packed.getEntry("text.txt").isCompressed());
+        GsZipFileTest.fileEntryCheck(packed, "random.bin", bytes.length);
+        GsZipFileTest.fileEntryCheck(packed, "text.txt", text.length());
+        packed.close();
+
+        // Threshold 0 stores all probed files
+        packer.setProbeThreshold(0);
+        zip = File.createTempFile("GsZipPackerTest", ".tmp.zip");
+        RandomAccessFile zipFile = new RandomAccessFile(zip, "rw");
+        assertTrue(packer.packTo(zipFile, ""));
+        zipFile.close();
+        assertTrue(packer.getProbeResults().get(1).isStored());
+        packed = GsZipFile.create(zip.getAbsolutePath());
+        assertFalse(packed.getEntry("text.txt").isCompressed());
+        packed.close();
+
+        packer.setProbeEnabled(false);
+        zipStream = new FileOutputStream(zip);
+        assertTrue(packer.packTo(zipStream, ""));
+        zipStream.close();
+        assertTrue(packer.getProbeResults().isEmpty());
+    }
 }
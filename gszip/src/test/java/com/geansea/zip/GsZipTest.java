@@ -17,7 +17,7 @@ public class GsZipTest {
         assertTrue(file.isDirectory());
     }
 
-    private static void fileCheck(@NonNull String path, int size, int crc) throws Exception {
+    private static void fileCheck(@NonNull String path, long size, int crc) throws Exception {
         File file = new File(path);
         assertTrue(file.exists());
         assertTrue(file.isFile());
@@ -147,4 +147,32 @@ public class GsZipTest {
 
         assertFalse(GsZip.packFolder(filePath, zipPath, "", false));
     }
+
+    @Test
+    public void unpack_parallel() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL zipUrl = classLoader.getResource("cjk_winrar.zip");
+        GsZipFile zip = GsZipFile.create(zipUrl.getPath());
+
+        File temp = File.createTempFile("GsZipTest", ".tmp");
+        String dirPath = temp.getAbsolutePath() + ".d/";
+        assertTrue(new File(dirPath).mkdirs());
+
+        GsZipUnpacker unpacker = new GsZipUnpacker(zip);
+        unpacker.setThreadCount(4);
+        assertTrue(unpacker.unpackTo(dirPath));
+        assertTrue(unpacker.getFailures().isEmpty());
+        folderCheck(dirPath + "Images/\u76ee\u5f55\u4e00");
+        for (int index = 0; index < zip.size(); ++index) {
+            GsZipEntry entry = zip.getEntry(index);
+            if (entry.isFile()) {
+                fileCheck(dirPath + entry.getName(), entry.getOriginalSize(), entry.getCRC());
+            }
+        }
+
+        // Existing files are reported, not aborting others
+        assertFalse(unpacker.unpackTo(dirPath));
+        assertEquals(6, unpacker.getFailures().size());
+        zip.close();
+    }
 }
@@ -0,0 +1,104 @@
+package com.geansea.zip;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.*;
+
+public class GsZipUpdaterTest {
+    @Test
+    public void update_compact() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL dirUrl = classLoader.getResource("folder");
+        String baseDir = dirUrl.getFile() + "/";
+
+        File random = File.createTempFile("GsZipUpdaterTest", ".bin");
+        byte[] bytes = new byte[5000];
+        new Random(0).nextBytes(bytes);
+        FileOutputStream randomStream = new FileOutputStream(random);
+        randomStream.write(bytes);
+        randomStream.close();
+
+        File zip = File.createTempFile("GsZipUpdaterTest", ".tmp");
+        String zipPath = zip.getAbsolutePath() + ".zip";
+        GsZipPacker packer = new GsZipPacker();
+        assertTrue(packer.addFile("random.bin", random.getAbsolutePath()));
+        assertTrue(packer.addFile("file_0.txt", baseDir + "file_0.txt"));
+        assertTrue(packer.addFile("sub/file_1.txt", baseDir + "file_1.txt"));
+        assertTrue(packer.addFile("sub/file_2.txt", baseDir + "sub/file_2.txt"));
+        assertTrue(packer.addFolder("empty"));
+        assertTrue(packer.packTo(zipPath, ""));
+        long packedLength = new File(zipPath).length();
+
+        GsZipUpdater updater = new GsZipUpdater(zipPath);
+        assertEquals(0, updater.getHoleSize());
+        // Deleting entry not in file fails
+        assertTrue(updater.delete("none.txt"));
+        assertFalse(updater.commit(""));
+        assertEquals(packedLength, new File(zipPath).length());
+
+        updater = new GsZipUpdater(zipPath);
+        assertTrue(updater.replaceFile("random.bin", baseDir + "file_1.txt"));
+        assertTrue(updater.delete("sub"));
+        assertTrue(updater.getPacker().addFile("sub/file_2.txt", baseDir + "sub/file_2.txt"));
+        assertTrue(updater.commit(""));
+        long holeSize = updater.getHoleSize();
+        assertTrue(holeSize > bytes.length);
+
+        GsZipFile zipFile = GsZipFile.create(zipPath);
+        assertEquals(5, zipFile.size());
+        assertNull(zipFile.getEntry("sub/file_1.txt"));
+        GsZipFileTest.fileEntryCheck(zipFile, "random.bin", 256);
+        GsZipFileTest.fileEntryCheck(zipFile, "sub/file_2.txt", 256);
+        zipFile.close();
+
+        long length = new File(zipPath).length();
+        assertTrue(updater.compact());
+        assertEquals(0, updater.getHoleSize());
+        assertEquals(length - holeSize, new File(zipPath).length());
+        zipFile = GsZipFile.create(zipPath);
+        assertEquals(5, zipFile.size());
+        GsZipFileTest.fileEntryCheck(zipFile, "file_0.txt", 0);
+        GsZipFileTest.fileEntryCheck(zipFile, "random.bin", 256);
+        GsZipFileTest.folderEntryCheck(zipFile, "empty");
+        GsZipFileTest.folderEntryCheck(zipFile, "sub");
+        GsZipFileTest.fileEntryCheck(zipFile, "sub/file_2.txt", 256);
+        zipFile.close();
+
+        ZipFile standard = new ZipFile(zipPath);
+        assertEquals(5, standard.size());
+        assertNotNull(standard.getEntry("random.bin"));
+        standard.close();
+    }
+
+    @Test
+    public void compact_data_descriptor() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        URL zipUrl = classLoader.getResource("flate_enc.zip");
+        File zip = File.createTempFile("GsZipUpdaterTest", ".zip");
+        Files.copy(new File(zipUrl.getFile()).toPath(), zip.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        String zipPath = zip.getAbsolutePath();
+
+        GsZipUpdater updater = new GsZipUpdater(zipPath);
+        assertTrue(updater.delete("file_0.txt"));
+        assertTrue(updater.delete("file_1.txt"));
+        assertTrue(updater.commit(""));
+        assertTrue(updater.getHoleSize() > 0);
+        assertTrue(updater.compact());
+        assertEquals(0, updater.getHoleSize());
+
+        GsZipFile zipFile = GsZipFile.create(zipPath);
+        assertEquals(3, zipFile.size());
+        zipFile.setPassword("geansea");
+        GsZipFileTest.folderEntryCheck(zipFile, "empty");
+        GsZipFileTest.fileEntryCheck(zipFile, "sub/file_2.txt", 256);
+        zipFile.close();
+    }
+}
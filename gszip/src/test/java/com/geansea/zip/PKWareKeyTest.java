@@ -0,0 +1,96 @@
+package com.geansea.zip;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PKWareKeyTest {
+    private static final byte[] PASSWORD = "password".getBytes();
+
+    @Test
+    public void bulk_match_per_byte() {
+        byte[] plain = randomBytes(10000);
+
+        byte[] expected = plain.clone();
+        PKWareKey key = newKey();
+        for (int i = 0; i < expected.length; ++i) {
+            byte c = expected[i];
+            expected[i] ^= key.cryptByte();
+            key.update(c);
+        }
+
+        // Split in pieces, the key state goes on between calls
+        byte[] actual = plain.clone();
+        key = newKey();
+        key.encrypt(actual, 0, 3);
+        key.encrypt(actual, 3, 4000);
+        key.encrypt(actual, 4003, actual.length - 4003);
+        assertArrayEquals(expected, actual);
+
+        key = newKey();
+        key.decrypt(actual, 0, actual.length);
+        assertArrayEquals(plain, actual);
+    }
+
+    @Test
+    public void bulk_buffer() {
+        byte[] plain = randomBytes(5000);
+        byte[] expected = plain.clone();
+        newKey().encrypt(expected, 100, 4800);
+
+        ByteBuffer heap = ByteBuffer.wrap(plain.clone());
+        heap.position(100).limit(4900);
+        newKey().encrypt(heap.slice());
+        assertArrayEquals(expected, heap.array());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(plain.length);
+        direct.put(plain).position(100);
+        direct.limit(4900);
+        newKey().encrypt(direct);
+        assertEquals(100, direct.position());
+        byte[] actual = new byte[plain.length];
+        direct.clear();
+        direct.get(actual);
+        assertArrayEquals(expected, actual);
+
+        direct.position(100).limit(4900);
+        newKey().decrypt(direct);
+        direct.clear();
+        direct.get(actual);
+        assertArrayEquals(plain, actual);
+    }
+
+    @Test
+    public void set_state() {
+        PKWareKey passwordKey = newKey();
+        byte[] expected = randomBytes(100);
+        byte[] actual = expected.clone();
+        newKey().encrypt(expected, 0, expected.length);
+
+        PKWareKey key = new PKWareKey();
+        key.set(passwordKey);
+        key.encrypt(actual, 0, actual.length);
+        assertArrayEquals(expected, actual);
+
+        // The source state is not changed
+        actual = randomBytes(100);
+        key.set(passwordKey);
+        key.encrypt(actual, 0, actual.length);
+        assertArrayEquals(expected, actual);
+    }
+
+    private static PKWareKey newKey() {
+        PKWareKey key = new PKWareKey();
+        key.update(PASSWORD);
+        return key;
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,64 @@
+package com.geansea.zip;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class PackPipelineTest {
+    @Test(timeout = 10000)
+    public void error_passed_to_caller() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        PackPipeline.Job job = new PackPipeline.Job(100) {
+            @Override
+            void encode(@NonNull PackOutput output) {
+                started.countDown();
+                throw new OutOfMemoryError("test");
+            }
+        };
+        PackPipeline pipeline = new PackPipeline(Collections.singletonList(job), 1, 1000);
+        pipeline.start();
+        started.await();
+        try {
+            pipeline.take(job);
+            fail();
+        } catch (OutOfMemoryError e) {
+            assertEquals("test", e.getMessage());
+        } finally {
+            pipeline.stop();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void stop_fails_pending() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        PackPipeline.Job job = new PackPipeline.Job(100) {
+            @Override
+            void encode(@NonNull PackOutput output) throws GsZipException {
+                started.countDown();
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    throw new GsZipException("Interrupted");
+                }
+            }
+        };
+        PackPipeline pipeline = new PackPipeline(Collections.singletonList(job), 1, 1000);
+        pipeline.start();
+        started.await();
+        pipeline.stop();
+        try {
+            pipeline.take(job);
+            fail();
+        } catch (GsZipException e) {
+            assertEquals("Pipeline stopped", e.getMessage());
+        } finally {
+            blocked.countDown();
+        }
+    }
+}